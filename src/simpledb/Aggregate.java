@@ -3,9 +3,9 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregator operator that computes an aggregate (e.g., sum, avg, max,
- * min).  Note that we only support aggregates over a single column, grouped
- * by a single column.
+ * The Aggregator operator that computes aggregates (e.g., sum, avg, max,
+ * min).  Any number of aggregates, each over a single column, can be
+ * computed in one pass over the child, grouped by any number of columns.
  */
 public class Aggregate extends AbstractDbIterator {
 
@@ -22,28 +22,47 @@ public class Aggregate extends AbstractDbIterator {
      * @param aop The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[] { afield }, new Aggregator.Op[] { aop },
+             gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield });
+    }
+
+    /**
+     * Constructor for several aggregates and group by columns.
+     *
+     * @param child The DbIterator that is feeding us tuples.
+     * @param afields The columns over which we are computing aggregates.
+     * @param aops The aggregation operator to apply to each of afields
+     * @param gfields The columns over which we are grouping the result; empty if there is no grouping
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        if (afields.length != aops.length || afields.length == 0) {
+            throw new IllegalArgumentException("every aggregate needs a column and an operator");
+        }
         this.child = child;
-        var afieldType = child.getTupleDesc().getType(afield);
-        var gfieldType = child.getTupleDesc().getType(gfield);
-        var gfieldName = child.getTupleDesc().getFieldName(gfield);
-        switch (aop) {
-            case MIN:
-            case MAX:
-            case AVG:
-            case SUM:
-                this.aggregator = new IntAggregator(gfield, gfieldType, afield, aop);
-            case COUNT:
-                if (afieldType.equals(Type.INT_TYPE)) this.aggregator = new IntAggregator(gfield, gfieldType, afield, aop);
-                else this.aggregator = new StringAggregator(gfield, gfieldType, afield, aop);
+        TupleDesc childTd = child.getTupleDesc();
+        for (int i = 0; i < afields.length; i++) {
+            var afieldType = childTd.getType(afields[i]);
+            if (afieldType != Type.INT_TYPE && aops[i] != Aggregator.Op.COUNT) {
+                throw new IllegalArgumentException(aops[i] + " is not supported over " + afieldType);
+            }
+        }
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+
+        this.gfieldTypes = new Type[gfields.length];
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gfieldTypes[i] = childTd.getType(gfields[i]);
+            types[i] = gfieldTypes[i];
+            names[i] = childTd.getFieldName(gfields[i]);
         }
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-        if (gfield == Aggregator.NO_GROUPING) {
-            this.td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aggName(aop) });
-        } else {
-            this.td = new TupleDesc(new Type[] { afieldType, Type.INT_TYPE }, new String[] { gfieldName, aggName(aop) });
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = Type.INT_TYPE;
+            names[gfields.length + i] = aggName(aops[i]);
         }
+        this.td = new TupleDesc(types, names);
     }
 
     public static String aggName(Aggregator.Op aop) {
@@ -65,6 +84,7 @@ public class Aggregate extends AbstractDbIterator {
     public void open()
         throws NoSuchElementException, DbException, TransactionAbortedException {
         child.open();
+        aggregator = new HashAggregator(gfields, gfieldTypes, afields, aops);
         while (child.hasNext()) {
             aggregator.merge(child.next());
         }
@@ -73,11 +93,9 @@ public class Aggregate extends AbstractDbIterator {
     }
 
     /**
-     * Returns the next tuple.  If there is a group by field, then 
-     * the first field is the field by which we are
-     * grouping, and the second field is the result of computing the aggregate,
-     * If there is no group by field, then the result tuple should contain
-     * one field representing the result of the aggregate.
+     * Returns the next tuple.  The first fields are the fields by which we
+     * are grouping, if any, and the remaining fields are the results of
+     * computing the aggregates, in the order they were given.
      * Should return null if there are no more tuples.
      */
     protected Tuple readNext() throws TransactionAbortedException, DbException {
@@ -92,9 +110,8 @@ public class Aggregate extends AbstractDbIterator {
 
     /**
      * Returns the TupleDesc of this Aggregate.
-     * If there is no group by field, this will have one field - the aggregate column.
-     * If there is a group by field, the first field will be the group by field, and the second
-     * will be the aggregate value column.
+     * The group by fields come first, followed by one aggregate value
+     * column per aggregate.
      * 
      * The name of an aggregate column should be informative.  For example:
      * "aggName(aop) (child_td.getFieldName(afield))"
@@ -106,14 +123,24 @@ public class Aggregate extends AbstractDbIterator {
     }
 
     public void close() {
-        aggregatorIterator.close();
+        super.close();
+        child.close();
+        if (aggregatorIterator != null) {
+            aggregatorIterator.close();
+            aggregatorIterator = null;
+        }
+        if (aggregator != null) {
+            aggregator.discard();
+            aggregator = null;
+        }
     }
 
     DbIterator child;
     DbIterator aggregatorIterator;
-    Aggregator aggregator;
-    int afield;
-    int gfield;
-    Aggregator.Op aop;
+    HashAggregator aggregator;
+    int[] afields;
+    int[] gfields;
+    Type[] gfieldTypes;
+    Aggregator.Op[] aops;
     TupleDesc td;
 }
@@ -38,7 +38,7 @@ public interface Aggregator {
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
-    public void merge(Tuple tup);
+    public void merge(Tuple tup) throws DbException;
 
     /**
      * Create a DbIterator over group aggregate results.
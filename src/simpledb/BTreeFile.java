@@ -0,0 +1,703 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is an implementation of a DbFile that stores a collection of
+ * tuples in a B+ tree, sorted on one key field.  Tuples live on
+ * {@link BTreeLeafPage}s, which are chained left to right; the
+ * {@link BTreeInternalPage}s above them route a search for a key to the
+ * leaf that holds it, and page 0, a {@link BTreeRootPtrPage}, records
+ * where the root is.  Duplicate keys are allowed.
+ * <p>
+ * All pages are read and written through the BufferPool, and so are
+ * locked like the pages of a HeapFile: searches take shared locks on the
+ * pages on their way down, and updates take exclusive locks on the pages
+ * they change.  Pages do not point to their parents.  An update remembers
+ * the path from the root to its leaf and walks back up it when the leaf
+ * splits, or when a delete leaves a page less than half full and it is
+ * refilled from or merged with a sibling.  Pages emptied by merges go on
+ * free lists and are reused before the file grows.
+ *
+ * @see IndexScan
+ */
+public class BTreeFile implements DbFile {
+
+    /**
+     * Constructs a B+ tree backed by the specified file, which may be
+     * empty.
+     *
+     * @param f the file that stores the on-disk backing store for this tree.
+     * @param keyField the index of the field the tree is sorted on
+     * @param td the schema of the tuples in the tree
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        this.f = f;
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return the index of the field the tree is sorted on */
+    public int keyField() {
+        return keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId bpid = (BTreePageId) pid;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+            raf.seek((long) pid.pageno() * BufferPool.PAGE_SIZE);
+            int read = raf.read(pageData, 0, BufferPool.PAGE_SIZE);
+            raf.close();
+            // the root pointer page of a new tree has not been written yet
+            if (read == -1 && bpid.pgcateg() != BTreePageId.ROOT_PTR) {
+                throw new IllegalArgumentException(pid.toString());
+            }
+            switch (bpid.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(bpid, pageData);
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(bpid, pageData);
+            default:
+                return new BTreeLeafPage(bpid, pageData);
+            }
+        } catch (FileNotFoundException e) {
+            if (bpid.pgcateg() != BTreePageId.ROOT_PTR) {
+                throw new IllegalArgumentException(pid.toString());
+            }
+            try {
+                return new BTreeRootPtrPage(bpid, new byte[BufferPool.PAGE_SIZE]);
+            } catch (IOException e2) {
+                e2.printStackTrace();
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null; // should not get here
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek((long) page.getId().pageno() * BufferPool.PAGE_SIZE);
+        raf.write(page.getPageData(), 0, BufferPool.PAGE_SIZE);
+        raf.close();
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, counting the root
+     * pointer page even before it is written.
+     */
+    public int numPages() {
+        return (int) Math.max(1, f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * The internal pages on the way from the root to a leaf, with the
+     * index of the child taken at each, and the leaf.  The pages may be
+     * copies the BufferPool has since evicted, which is fine for reading
+     * them; pages are fetched again before they are changed.
+     */
+    private static class Path {
+        final ArrayList<BTreeInternalPage> nodes = new ArrayList<BTreeInternalPage>();
+        final ArrayList<Integer> indexes = new ArrayList<Integer>();
+        BTreeLeafPage leaf;
+    }
+
+    private BTreeRootPtrPage getRootPtrPage(TransactionId tid, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+            new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR), perm);
+    }
+
+    private BTreePage getPage(TransactionId tid, BTreePageId pid, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /** Mark a page dirty as soon as it changes, so the BufferPool will not evict it */
+    private static void dirty(TransactionId tid, Page p, Map<PageId, Page> dirtied) {
+        p.markDirty(true, tid);
+        dirtied.put(p.getId(), p);
+    }
+
+    /**
+     * Walk from the root to the leaf that should hold key: the leftmost
+     * one that may if leftmost, else the rightmost.  A null key leads to
+     * the first leaf.
+     */
+    private Path descend(TransactionId tid, BTreePageId root, Field key, boolean leftmost, Permissions leafPerm)
+        throws DbException, TransactionAbortedException {
+        Path path = new Path();
+        BTreePageId id = root;
+        while (id.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage node = (BTreeInternalPage) getPage(tid, id, Permissions.READ_ONLY);
+            int i = node.findChild(key, leftmost);
+            path.nodes.add(node);
+            path.indexes.add(i);
+            id = node.getChildId(i);
+        }
+        path.leaf = (BTreeLeafPage) getPage(tid, id, leafPerm);
+        return path;
+    }
+
+    /**
+     * Move the path to the next leaf to the right.
+     * @return false if the path is at the last leaf
+     */
+    private boolean advance(TransactionId tid, Path path, Permissions leafPerm)
+        throws DbException, TransactionAbortedException {
+        int level = path.nodes.size() - 1;
+        while (level >= 0 && path.indexes.get(level) == path.nodes.get(level).numChildren() - 1) {
+            level--;
+        }
+        if (level < 0) {
+            return false;
+        }
+        path.indexes.set(level, path.indexes.get(level) + 1);
+        BTreePageId id = path.nodes.get(level).getChildId(path.indexes.get(level));
+        path.nodes.subList(level + 1, path.nodes.size()).clear();
+        path.indexes.subList(level + 1, path.indexes.size()).clear();
+        while (id.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage node = (BTreeInternalPage) getPage(tid, id, Permissions.READ_ONLY);
+            path.nodes.add(node);
+            path.indexes.add(0);
+            id = node.getChildId(0);
+        }
+        path.leaf = (BTreeLeafPage) getPage(tid, id, leafPerm);
+        return true;
+    }
+
+    /** Fetch the internal page at a level of the path for writing */
+    private BTreeInternalPage writable(TransactionId tid, Path path, int level)
+        throws DbException, TransactionAbortedException {
+        BTreeInternalPage node = (BTreeInternalPage) getPage(tid, path.nodes.get(level).getId(), Permissions.READ_WRITE);
+        path.nodes.set(level, node);
+        return node;
+    }
+
+    /**
+     * Get an empty page of the specified category for writing: the first
+     * on the free list, or else a new one at the end of the file.
+     */
+    private BTreePage newPage(TransactionId tid, int pgcateg, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE);
+        int free = rootPtr.getFreePage(pgcateg);
+        BTreePage page;
+        if (free != 0) {
+            page = getPage(tid, new BTreePageId(getId(), free, pgcateg), Permissions.READ_WRITE);
+            rootPtr.setFreePage(pgcateg, page.getNextFree());
+            page.clear();
+            dirty(tid, rootPtr, dirtied);
+        } else {
+            int pgNo;
+            synchronized (this) {
+                pgNo = numPages();
+                RandomAccessFile raf = new RandomAccessFile(f, "rw");
+                raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+                raf.write(new byte[BufferPool.PAGE_SIZE]);
+                raf.close();
+            }
+            page = getPage(tid, new BTreePageId(getId(), pgNo, pgcateg), Permissions.READ_WRITE);
+        }
+        dirty(tid, page, dirtied);
+        return page;
+    }
+
+    /** Put a page that is no longer in the tree on the free list */
+    private void freePage(TransactionId tid, BTreePage page, Map<PageId, Page> dirtied)
+        throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE);
+        int pgcateg = page.getId().pgcateg();
+        page.clear();
+        page.setNextFree(rootPtr.getFreePage(pgcateg));
+        rootPtr.setFreePage(pgcateg, page.getId().pageno());
+        dirty(tid, page, dirtied);
+        dirty(tid, rootPtr, dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_ONLY);
+        if (rootPtr.getRootId() == null) {
+            rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE);
+            BTreePage root = newPage(tid, BTreePageId.LEAF, dirtied);
+            rootPtr.setRootId(root.getId());
+            dirty(tid, rootPtr, dirtied);
+        }
+
+        Field key = t.getField(keyField);
+        Path path = descend(tid, rootPtr.getRootId(), key, false, Permissions.READ_WRITE);
+        BTreeLeafPage leaf = path.leaf;
+        if (leaf.isFull()) {
+            BTreeLeafPage right = splitLeaf(tid, leaf, dirtied);
+            Field separator = right.getKey(0);
+            insertIntoParent(tid, path, path.nodes.size() - 1, leaf.getId(), separator, right.getId(), dirtied);
+            if (key.compare(Predicate.Op.GREATER_THAN_OR_EQ, separator)) {
+                leaf = right;
+            }
+        }
+        leaf.insertTuple(t);
+        dirty(tid, leaf, dirtied);
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /** Move the upper half of a full leaf to a new leaf to its right, and return the new leaf */
+    private BTreeLeafPage splitLeaf(TransactionId tid, BTreeLeafPage leaf, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) newPage(tid, BTreePageId.LEAF, dirtied);
+        right.appendTuples(leaf.removeTail(leaf.numTuples() / 2));
+        right.setLeftSibling(leaf.getId().pageno());
+        right.setRightSibling(leaf.getRightSibling());
+        dirty(tid, leaf, dirtied);
+        if (leaf.getRightSibling() != 0) {
+            BTreeLeafPage next = (BTreeLeafPage) getPage(tid,
+                new BTreePageId(getId(), leaf.getRightSibling(), BTreePageId.LEAF), Permissions.READ_WRITE);
+            next.setLeftSibling(right.getId().pageno());
+            dirty(tid, next, dirtied);
+        }
+        leaf.setRightSibling(right.getId().pageno());
+        return right;
+    }
+
+    /**
+     * Add a separator and the new page to its right to the parent of left,
+     * the internal page at the specified level of the path, splitting it
+     * in turn if it is full.  A level of -1 means left is the root, which
+     * gets a new root above it.
+     */
+    private void insertIntoParent(TransactionId tid, Path path, int level,
+                                  BTreePageId left, Field separator, BTreePageId right, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        if (level < 0) {
+            BTreeInternalPage root = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, dirtied);
+            root.initRoot(left.pageno(), separator, right.pageno(), left.pgcateg());
+            BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE);
+            rootPtr.setRootId(root.getId());
+            dirty(tid, rootPtr, dirtied);
+            return;
+        }
+        BTreeInternalPage node = writable(tid, path, level);
+        int i = path.indexes.get(level);
+        if (!node.isFull()) {
+            node.insertEntry(i, separator, right.pageno());
+            dirty(tid, node, dirtied);
+            return;
+        }
+
+        // split the node around its middle key, which moves up a level
+        BTreeInternalPage sibling = (BTreeInternalPage) newPage(tid, BTreePageId.INTERNAL, dirtied);
+        int mid = node.numKeys() / 2;
+        List<Field> tailKeys = node.removeKeysFrom(mid);
+        List<Integer> tailChildren = node.removeChildrenFrom(mid + 1);
+        Field up = tailKeys.remove(0);
+        sibling.setEntries(tailChildren, tailKeys, node.getChildCategory());
+        if (i <= mid) {
+            node.insertEntry(i, separator, right.pageno());
+        } else {
+            sibling.insertEntry(i - mid - 1, separator, right.pageno());
+        }
+        dirty(tid, node, dirtied);
+        insertIntoParent(tid, path, level - 1, node.getId(), up, sibling.getId(), dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+        Map<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_ONLY);
+        if (rootPtr.getRootId() == null) {
+            throw new DbException("Tuple not found.");
+        }
+        // the tuple is among those with its key, which may span several leaves
+        Field key = t.getField(keyField);
+        Path path = descend(tid, rootPtr.getRootId(), key, true, Permissions.READ_WRITE);
+        while (!path.leaf.deleteTuple(t)) {
+            BTreeLeafPage leaf = path.leaf;
+            if ((leaf.numTuples() > 0 && leaf.getKey(leaf.numTuples() - 1).compare(Predicate.Op.GREATER_THAN, key))
+                || !advance(tid, path, Permissions.READ_WRITE)) {
+                throw new DbException("Tuple not found.");
+            }
+        }
+        BTreeLeafPage leaf = path.leaf;
+        dirty(tid, leaf, dirtied);
+        try {
+            rebalanceLeaf(tid, path, dirtied);
+        } catch (IOException e) {
+            throw new DbException("could not rebalance " + f + ": " + e.getMessage());
+        }
+        return leaf;
+    }
+
+    /**
+     * Refill the leaf at the end of the path from a sibling, or merge the
+     * two, if it is less than half full.
+     */
+    private void rebalanceLeaf(TransactionId tid, Path path, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage leaf = path.leaf;
+        int level = path.nodes.size() - 1;
+        if (level < 0 || leaf.numTuples() >= leaf.maxTuples() / 2) {
+            return; // the root leaf may hold any number of tuples
+        }
+        BTreeInternalPage parent = writable(tid, path, level);
+        int i = path.indexes.get(level);
+        int sep = i > 0 ? i - 1 : i;
+        BTreeLeafPage left = (BTreeLeafPage) getPage(tid, parent.getChildId(sep), Permissions.READ_WRITE);
+        BTreeLeafPage right = (BTreeLeafPage) getPage(tid, parent.getChildId(sep + 1), Permissions.READ_WRITE);
+        dirty(tid, left, dirtied);
+        dirty(tid, right, dirtied);
+        dirty(tid, parent, dirtied);
+
+        if (left.numTuples() + right.numTuples() <= left.maxTuples()) {
+            left.appendTuples(right.removeHead(right.numTuples()));
+            left.setRightSibling(right.getRightSibling());
+            if (right.getRightSibling() != 0) {
+                BTreeLeafPage next = (BTreeLeafPage) getPage(tid,
+                    new BTreePageId(getId(), right.getRightSibling(), BTreePageId.LEAF), Permissions.READ_WRITE);
+                next.setLeftSibling(left.getId().pageno());
+                dirty(tid, next, dirtied);
+            }
+            parent.removeEntry(sep);
+            freePage(tid, right, dirtied);
+            rebalanceInternal(tid, path, level, dirtied);
+            return;
+        }
+
+        int target = (left.numTuples() + right.numTuples()) / 2;
+        if (left.numTuples() > target) {
+            right.prependTuples(left.removeTail(target));
+        } else {
+            left.appendTuples(right.removeHead(target - left.numTuples()));
+        }
+        parent.setKey(sep, right.getKey(0));
+    }
+
+    /**
+     * Refill the internal page at a level of the path from a sibling, or
+     * merge the two, if it is less than half full.  A root left with a
+     * single child is replaced by that child.
+     */
+    private void rebalanceInternal(TransactionId tid, Path path, int level, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage node = path.nodes.get(level);
+        if (level == 0) {
+            if (node.numKeys() == 0) {
+                node = writable(tid, path, level);
+                BTreeRootPtrPage rootPtr = getRootPtrPage(tid, Permissions.READ_WRITE);
+                rootPtr.setRootId(node.getChildId(0));
+                dirty(tid, rootPtr, dirtied);
+                freePage(tid, node, dirtied);
+            }
+            return;
+        }
+        if (node.numKeys() >= node.maxKeys() / 2) {
+            return;
+        }
+        BTreeInternalPage parent = writable(tid, path, level - 1);
+        int i = path.indexes.get(level - 1);
+        int sep = i > 0 ? i - 1 : i;
+        BTreeInternalPage left = (BTreeInternalPage) getPage(tid, parent.getChildId(sep), Permissions.READ_WRITE);
+        BTreeInternalPage right = (BTreeInternalPage) getPage(tid, parent.getChildId(sep + 1), Permissions.READ_WRITE);
+        dirty(tid, left, dirtied);
+        dirty(tid, right, dirtied);
+        dirty(tid, parent, dirtied);
+        Field separator = parent.getKey(sep);
+
+        if (left.numKeys() + right.numKeys() + 1 <= left.maxKeys()) {
+            List<Field> keys = right.removeKeysFrom(0);
+            List<Integer> children = right.removeChildrenFrom(0);
+            left.appendEntry(separator, children.get(0));
+            for (int j = 0; j < keys.size(); j++) {
+                left.appendEntry(keys.get(j), children.get(j + 1));
+            }
+            parent.removeEntry(sep);
+            freePage(tid, right, dirtied);
+            rebalanceInternal(tid, path, level - 1, dirtied);
+            return;
+        }
+
+        // rotate children through the separator until the two are even
+        while (left.numKeys() > right.numKeys() + 1) {
+            int last = left.numKeys() - 1;
+            Field lastKey = left.getKey(last);
+            int lastChild = left.getChild(last + 1);
+            left.removeEntry(last);
+            right.prependEntry(lastChild, separator);
+            separator = lastKey;
+        }
+        while (right.numKeys() > left.numKeys() + 1) {
+            Field firstKey = right.getKey(0);
+            int firstChild = right.getChild(0);
+            right.removeLeftEntry(0);
+            left.appendEntry(separator, firstChild);
+            separator = firstKey;
+        }
+        parent.setKey(sep, separator);
+    }
+
+    /**
+     * Fill an empty tree from tuples already sorted on the key field,
+     * building it bottom up instead of inserting one tuple at a time.
+     * Leaves are filled to fillFactor of their capacity in input order and
+     * written one after another, and then each level of internal pages
+     * above them, up to the root; so the file is written sequentially and
+     * every page just once.  The last page of each level is merged into or
+     * evened out with the one before it if it would otherwise be less than
+     * half full.
+     * <p>
+     * The pages are written straight to the file, not through the
+     * BufferPool, and are not logged: if the load fails part way the file
+     * should be deleted and the load started again.
+     *
+     * @param sorted the tuples to load, in key order; opened and closed here
+     * @param fillFactor the fraction of each page to fill, in (0, 1];
+     *   lower values leave room for later inserts before pages split
+     * @return the number of tuples loaded
+     * @throws DbException if the tree is not empty or the input is not
+     *   sorted on the key
+     */
+    public int bulkLoad(DbIterator sorted, double fillFactor)
+        throws DbException, IOException, TransactionAbortedException {
+        if (!(fillFactor > 0 && fillFactor <= 1)) {
+            throw new IllegalArgumentException("fill factor " + fillFactor + " is not in (0, 1]");
+        }
+        if (f.length() > BufferPool.PAGE_SIZE
+            || ((BTreeRootPtrPage) readPage(new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR))).getRootId() != null) {
+            throw new DbException("can only bulk load an empty tree, not " + f);
+        }
+        // the last page of a level holding fewer than the minimum is merged
+        // into the one before it if they fit on one page, and else evened out with it
+        int maxTuples = BTreeLeafPage.maxTuples(td);
+        int leafCapacity = Math.max(1, (int) (maxTuples * fillFactor));
+        int leafMinimum = maxTuples / 2;
+        int maxChildren = BTreeInternalPage.maxKeys(td.getType(keyField)) + 1;
+        int nodeCapacity = Math.max(3, (int) (maxChildren * fillFactor));
+        int nodeMinimum = (maxChildren - 1) / 2 + 1;
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        int count = 0;
+        try {
+            raf.setLength(0);
+            raf.write(new byte[BufferPool.PAGE_SIZE]); // the root pointer, written last
+
+            // the leaves: each is written once the next one has started, so
+            // that the last two can be merged or evened out
+            ArrayList<Integer> pages = new ArrayList<Integer>();
+            ArrayList<Field> lowKeys = new ArrayList<Field>();
+            ArrayList<Tuple> previous = null, current = new ArrayList<Tuple>(leafCapacity);
+            Field lastKey = null;
+            sorted.open();
+            while (sorted.hasNext()) {
+                Tuple in = sorted.next();
+                Field key = in.getField(keyField);
+                if (lastKey != null && key.compare(Predicate.Op.LESS_THAN, lastKey)) {
+                    throw new DbException("bulk load input is not sorted on field " + keyField
+                                          + ": " + key + " after " + lastKey);
+                }
+                lastKey = key;
+                if (current.size() == leafCapacity) {
+                    if (previous != null) {
+                        writeLeaf(raf, previous, pages, lowKeys, false);
+                    }
+                    previous = current;
+                    current = new ArrayList<Tuple>(leafCapacity);
+                }
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, in.getField(i));
+                }
+                current.add(t);
+                count++;
+            }
+            sorted.close();
+            if (previous != null && current.size() < leafMinimum) {
+                int total = previous.size() + current.size();
+                if (total <= maxTuples) {
+                    previous.addAll(current);
+                    current = previous;
+                    previous = null;
+                } else {
+                    current.addAll(0, previous.subList(total / 2, previous.size()));
+                    previous = new ArrayList<Tuple>(previous.subList(0, total / 2));
+                }
+            }
+            if (previous != null) {
+                writeLeaf(raf, previous, pages, lowKeys, false);
+            }
+            if (!current.isEmpty()) {
+                writeLeaf(raf, current, pages, lowKeys, true);
+            }
+
+            // then each level of internal pages, until one page holds the level below
+            int category = BTreePageId.LEAF;
+            while (pages.size() > 1) {
+                ArrayList<Integer> parents = new ArrayList<Integer>();
+                ArrayList<Field> parentKeys = new ArrayList<Field>();
+                int n = pages.size();
+                for (int start = 0; start < n; ) {
+                    int size = Math.min(nodeCapacity, n - start);
+                    int rest = n - start - size;
+                    if (rest > 0 && rest < nodeMinimum && rest <= nodeCapacity) {
+                        size = size + rest <= maxChildren ? size + rest : (size + rest) / 2;
+                    }
+                    BTreeInternalPage node = new BTreeInternalPage(
+                        new BTreePageId(getId(), (int) (raf.length() / BufferPool.PAGE_SIZE), BTreePageId.INTERNAL),
+                        new byte[BufferPool.PAGE_SIZE]);
+                    node.setEntries(pages.subList(start, start + size), lowKeys.subList(start + 1, start + size),
+                                    category);
+                    parents.add(node.getId().pageno());
+                    parentKeys.add(lowKeys.get(start));
+                    raf.write(node.getPageData());
+                    start += size;
+                }
+                pages = parents;
+                lowKeys = parentKeys;
+                category = BTreePageId.INTERNAL;
+            }
+
+            BTreePageId rootPtrId = new BTreePageId(getId(), 0, BTreePageId.ROOT_PTR);
+            BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(rootPtrId, new byte[BufferPool.PAGE_SIZE]);
+            if (!pages.isEmpty()) {
+                rootPtr.setRootId(new BTreePageId(getId(), pages.get(0), category));
+            }
+            raf.seek(0);
+            raf.write(rootPtr.getPageData());
+            Database.getBufferPool().discardPage(rootPtrId);
+        } finally {
+            raf.close();
+        }
+        return count;
+    }
+
+    /**
+     * Append a leaf holding the specified tuples to the end of the file
+     * being bulk loaded, chained to the leaf before it, and record its page
+     * number and lowest key.
+     */
+    private void writeLeaf(RandomAccessFile raf, List<Tuple> tuples, List<Integer> pages, List<Field> lowKeys,
+                           boolean last) throws IOException {
+        int pgNo = (int) (raf.length() / BufferPool.PAGE_SIZE);
+        BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(getId(), pgNo, BTreePageId.LEAF),
+                                               new byte[BufferPool.PAGE_SIZE]);
+        leaf.appendTuples(tuples);
+        leaf.setLeftSibling(pages.isEmpty() ? 0 : pgNo - 1);
+        leaf.setRightSibling(last ? 0 : pgNo + 1);
+        raf.write(leaf.getPageData());
+        pages.add(pgNo);
+        lowKeys.add(tuples.get(0).getField(keyField));
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies a predicate,
+     * in key order.  EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN and
+     * GREATER_THAN_OR_EQ only visit the leaves holding matching tuples;
+     * other operators scan the whole tree.
+     *
+     * @param tid the transaction the iterator reads as part of
+     * @param op the comparison of the tuples' keys to key
+     * @param key the value to compare keys to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new BTreeFileIterator(tid, op, key);
+    }
+
+    private class BTreeFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field key;
+        private BTreeLeafPage leaf;
+        private int index;
+
+        BTreeFileIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        /** @return true if the tuples matching the predicate come before all others */
+        private boolean stopsAtMiss() {
+            return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ;
+        }
+
+        /** @return true if the tuples matching the predicate come after all others */
+        private boolean seeks() {
+            return op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            BTreePageId root = getRootPtrPage(tid, Permissions.READ_ONLY).getRootId();
+            if (root == null) {
+                leaf = null;
+                return;
+            }
+            leaf = descend(tid, root, seeks() ? key : null, true, Permissions.READ_ONLY).leaf;
+            index = seeks() ? leaf.search(key, false) : 0;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            leaf = null;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (leaf != null) {
+                if (index < leaf.numTuples()) {
+                    Tuple t = leaf.getTuple(index++);
+                    if (op == null || t.getField(keyField).compare(op, key)) {
+                        return t;
+                    }
+                    if (stopsAtMiss()) {
+                        leaf = null;
+                    }
+                } else if (leaf.getRightSibling() != 0) {
+                    leaf = (BTreeLeafPage) getPage(tid,
+                        new BTreePageId(getId(), leaf.getRightSibling(), BTreePageId.LEAF), Permissions.READ_ONLY);
+                    index = 0;
+                } else {
+                    leaf = null;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final File f;
+    private final int keyField;
+    private final TupleDesc td;
+}
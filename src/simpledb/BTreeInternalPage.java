@@ -0,0 +1,240 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeInternalPage stores the keys and child pointers of an inner node of
+ * a {@link BTreeFile}.  A page with n keys has n + 1 children; key i
+ * separates child i from child i + 1, so every key in the subtree of
+ * child i is at most key i and every key in the subtree of child i + 1 is
+ * at least key i.  With duplicate keys both may hold.  All children of a
+ * page are of the same category: leaves or internal pages.
+ * <p>
+ * The format of an internal page is the next page on the free list (an
+ * int, 0 while the page is in use), the category of the children (a
+ * byte), the number of keys (an int), the child page numbers and then the
+ * keys, each packed.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_BYTES = 9;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk.
+     *
+     * @see BTreeInternalPage for the format of the data
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, keyFieldOf(id));
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        nextFree = dis.readInt();
+        childCategory = dis.readByte();
+        int n = dis.readInt();
+        keys = new ArrayList<Field>(maxKeys());
+        children = new ArrayList<Integer>(maxKeys() + 1);
+        if (n > 0 || childCategory != 0) {
+            for (int i = 0; i <= n; i++) {
+                children.add(dis.readInt());
+            }
+        }
+        try {
+            for (int i = 0; i < n; i++) {
+                keys.add(keyType().parse(dis));
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("could not parse internal page " + pid);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of keys that fit on an internal page with keys of the specified type */
+    public static int maxKeys(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_BYTES - 4) / (keyType.getLen() + 4);
+    }
+
+    public int maxKeys() {
+        return maxKeys(keyType());
+    }
+
+    public int numKeys() {
+        return keys.size();
+    }
+
+    public int numChildren() {
+        return children.size();
+    }
+
+    public boolean isFull() {
+        return keys.size() >= maxKeys();
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    public void setKey(int i, Field key) {
+        keys.set(i, key);
+    }
+
+    /** @return the page number of child i */
+    public int getChild(int i) {
+        return children.get(i);
+    }
+
+    /** @return the id of child i */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /** @return the category of the children of this page: BTreePageId.INTERNAL or LEAF */
+    public int getChildCategory() {
+        return childCategory;
+    }
+
+    /** @return the index of the child with the specified page number, or -1 */
+    public int indexOfChild(int pgNo) {
+        return children.indexOf(pgNo);
+    }
+
+    /**
+     * @return the index of the child to descend to for key: the leftmost
+     * child that may hold it if leftmost, else the rightmost; 0 for a null key
+     */
+    public int findChild(Field key, boolean leftmost) {
+        if (key == null) {
+            return 0;
+        }
+        int lo = 0, hi = keys.size();
+        Predicate.Op op = leftmost ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys.get(mid).compare(op, key)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /** Make this page the root of a tree with just the two specified children */
+    void initRoot(int left, Field key, int right, int childCategory) {
+        this.childCategory = childCategory;
+        keys.clear();
+        children.clear();
+        children.add(left);
+        keys.add(key);
+        children.add(right);
+    }
+
+    /**
+     * Insert a key and the child to its right just after child index.
+     * @throws DbException if the page is full
+     */
+    public void insertEntry(int index, Field key, int rightChild) throws DbException {
+        if (isFull()) {
+            throw new DbException("internal page " + pid + " is full");
+        }
+        keys.add(index, key);
+        children.add(index + 1, rightChild);
+    }
+
+    /** Remove key index and the child to its right */
+    public void removeEntry(int index) {
+        keys.remove(index);
+        children.remove(index + 1);
+    }
+
+    /** Remove key index and the child to its left */
+    void removeLeftEntry(int index) {
+        keys.remove(index);
+        children.remove(index);
+    }
+
+    /** Add a key and the child after it at the end of this page */
+    void appendEntry(Field key, int child) {
+        keys.add(key);
+        children.add(child);
+    }
+
+    /** Add a child and the key after it at the start of this page */
+    void prependEntry(int child, Field key) {
+        children.add(0, child);
+        keys.add(0, key);
+    }
+
+    /** Remove keys from index on and the children to their right, keeping the children of the first index keys */
+    List<Field> removeKeysFrom(int index) {
+        List<Field> tail = new ArrayList<Field>(keys.subList(index, keys.size()));
+        keys.subList(index, keys.size()).clear();
+        return tail;
+    }
+
+    /** Remove the children from index on */
+    List<Integer> removeChildrenFrom(int index) {
+        List<Integer> tail = new ArrayList<Integer>(children.subList(index, children.size()));
+        children.subList(index, children.size()).clear();
+        return tail;
+    }
+
+    /** Set the contents of this page, which must be empty */
+    void setEntries(List<Integer> children, List<Field> keys, int childCategory) {
+        this.childCategory = childCategory;
+        this.children.clear();
+        this.children.addAll(children);
+        this.keys.clear();
+        this.keys.addAll(keys);
+    }
+
+    void clear() {
+        keys.clear();
+        children.clear();
+        nextFree = 0;
+        childCategory = 0;
+    }
+
+    int getNextFree() {
+        return nextFree;
+    }
+
+    void setNextFree(int pgNo) {
+        nextFree = pgNo;
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, beforeImageData());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(nextFree);
+            dos.writeByte(childCategory);
+            dos.writeInt(keys.size());
+            for (int child : children) {
+                dos.writeInt(child);
+            }
+            for (Field key : keys) {
+                key.serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    private int nextFree;
+    private int childCategory;
+    private final ArrayList<Field> keys;
+    private final ArrayList<Integer> children;
+}
@@ -0,0 +1,246 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeLeafPage stores the tuples of a {@link BTreeFile}, sorted on the
+ * key field.  Leaves are chained to their left and right siblings, so that
+ * range scans walk from leaf to leaf without going back up the tree.
+ * <p>
+ * The format of a leaf page is three ints -- the left and right sibling
+ * page numbers (0 for none) and the number of tuples -- followed by the
+ * tuples, packed, in key order.  Free leaves are chained through their
+ * right sibling pointers.  A tuple's record id is
+ * its position on the page, so it changes as tuples before it come and go.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_BYTES = 12;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk.
+     *
+     * @see BTreeLeafPage for the format of the data
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        super(id, keyFieldOf(id));
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        leftSibling = dis.readInt();
+        rightSibling = dis.readInt();
+        int n = dis.readInt();
+        tuples = new ArrayList<Tuple>(maxTuples());
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getType(j).parse(dis));
+                }
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("could not parse leaf page " + pid);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of tuples that fit on a leaf page of the specified schema */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_BYTES) / td.getSize();
+    }
+
+    public int maxTuples() {
+        return maxTuples(td);
+    }
+
+    public int numTuples() {
+        return tuples.size();
+    }
+
+    public boolean isFull() {
+        return tuples.size() >= maxTuples();
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /** @return the page number of the left sibling of this leaf; 0 if it is the first leaf */
+    public int getLeftSibling() {
+        return leftSibling;
+    }
+
+    public void setLeftSibling(int leftSibling) {
+        this.leftSibling = leftSibling;
+    }
+
+    /** @return the page number of the right sibling of this leaf; 0 if it is the last leaf */
+    public int getRightSibling() {
+        return rightSibling;
+    }
+
+    public void setRightSibling(int rightSibling) {
+        this.rightSibling = rightSibling;
+    }
+
+    /**
+     * @return the index of the first tuple whose key is at least key, or
+     * greater than key if strict; numTuples() if there is none
+     */
+    public int search(Field key, boolean strict) {
+        int lo = 0, hi = tuples.size();
+        Predicate.Op op = strict ? Predicate.Op.GREATER_THAN : Predicate.Op.GREATER_THAN_OR_EQ;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getKey(mid).compare(op, key)) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Add a tuple to this page, after any tuples with the same key.
+     * @throws DbException if the page is full
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (isFull()) {
+            throw new DbException("leaf page " + pid + " is full");
+        }
+        int i = search(t.getField(keyField), true);
+        tuples.add(i, t);
+        renumber(i);
+    }
+
+    /** Add tuples, which sort after every tuple on this page, to its end */
+    void appendTuples(List<Tuple> more) {
+        int from = tuples.size();
+        tuples.addAll(more);
+        renumber(from);
+    }
+
+    /** Add tuples, which sort before every tuple on this page, to its start */
+    void prependTuples(List<Tuple> more) {
+        tuples.addAll(0, more);
+        renumber(0);
+    }
+
+    /** Remove and return the tuples from index from on */
+    List<Tuple> removeTail(int from) {
+        List<Tuple> tail = new ArrayList<Tuple>(tuples.subList(from, tuples.size()));
+        tuples.subList(from, tuples.size()).clear();
+        return tail;
+    }
+
+    /** Remove and return the first n tuples */
+    List<Tuple> removeHead(int n) {
+        List<Tuple> head = new ArrayList<Tuple>(tuples.subList(0, n));
+        tuples.subList(0, n).clear();
+        renumber(0);
+        return head;
+    }
+
+    /**
+     * Remove the tuple from this page: the tuple itself, or else one with
+     * the same field values.
+     *
+     * @return true if the tuple was on this page
+     */
+    public boolean deleteTuple(Tuple t) {
+        int found = -1;
+        Field key = t.getField(keyField);
+        for (int i = search(key, false); i < tuples.size() && getKey(i).equals(key); i++) {
+            Tuple candidate = tuples.get(i);
+            if (candidate == t) {
+                found = i;
+                break;
+            }
+            if (found < 0 && sameFields(candidate, t)) {
+                found = i;
+            }
+        }
+        if (found < 0) {
+            return false;
+        }
+        tuples.remove(found);
+        renumber(found);
+        t.setRecordId(null);
+        return true;
+    }
+
+    private static boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < a.getTupleDesc().numFields(); i++) {
+            if (!a.getField(i).equals(b.getField(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Reset the record ids of the tuples from index from on */
+    private void renumber(int from) {
+        for (int i = from; i < tuples.size(); i++) {
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+        }
+    }
+
+    void clear() {
+        tuples.clear();
+        leftSibling = 0;
+        rightSibling = 0;
+    }
+
+    int getNextFree() {
+        return rightSibling;
+    }
+
+    void setNextFree(int pgNo) {
+        rightSibling = pgNo;
+    }
+
+    /** @return an iterator over the tuples on this page, in key order */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(tuples).iterator();
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, beforeImageData());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(leftSibling);
+            dos.writeInt(rightSibling);
+            dos.writeInt(tuples.size());
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return pad(baos);
+    }
+
+    private int leftSibling;
+    private int rightSibling;
+    private final ArrayList<Tuple> tuples;
+}
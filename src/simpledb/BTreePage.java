@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreePage holds what the leaf and internal pages of a {@link BTreeFile}
+ * have in common: their id, dirty state and before image, and the link
+ * that chains them on the file's free list once they are no longer used.
+ * Pages do not point to their parents; operations that change the shape
+ * of the tree remember the path they took down from the root instead.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    /**
+     * @param id the id of this page
+     * @param keyField the index of the key field of the tuples in the tree
+     */
+    protected BTreePage(BTreePageId id, int keyField) {
+        this.pid = id;
+        this.keyField = keyField;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+    }
+
+    /** @return the key field of the tree this page belongs to */
+    static int keyFieldOf(BTreePageId id) {
+        return ((BTreeFile) Database.getCatalog().getDbFile(id.getTableId())).keyField();
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the next page on the free list, while this page is on it; 0 at the end of the list */
+    abstract int getNextFree();
+
+    abstract void setNextFree(int pgNo);
+
+    /** Remove the contents of this page, to be put on or taken off the free list */
+    abstract void clear();
+
+    /** @return the type of the key field */
+    Type keyType() {
+        return td.getType(keyField);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    /** @return the bytes of this page before it was modified */
+    protected byte[] beforeImageData() {
+        return oldData;
+    }
+
+    /** Pad a page image to the full page size */
+    protected static byte[] pad(ByteArrayOutputStream baos) {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        byte[] written = baos.toByteArray();
+        System.arraycopy(written, 0, data, 0, written.length);
+        return data;
+    }
+
+    protected final BTreePageId pid;
+    protected final int keyField;
+    protected final TupleDesc td;
+    private TransactionId dirtier;
+    private byte[] oldData;
+}
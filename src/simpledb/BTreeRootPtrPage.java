@@ -0,0 +1,103 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * BTreeRootPtrPage is page 0 of every {@link BTreeFile}.  It records where
+ * the root of the tree is, which changes as the root splits or collapses,
+ * and the heads of the lists of free leaf and internal pages.
+ * <p>
+ * The format is the root page number (0 for an empty tree), the category
+ * of the root (a byte), and the first free leaf and internal page numbers
+ * (0 for none).
+ */
+public class BTreeRootPtrPage implements Page {
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     *
+     * @see BTreeRootPtrPage for the format of the data
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        root = dis.readInt();
+        rootCategory = dis.readByte();
+        freeLeaf = dis.readInt();
+        freeInternal = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the id of the root page, or null if the tree is empty */
+    public BTreePageId getRootId() {
+        return root == 0 ? null : new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    public void setRootId(BTreePageId id) {
+        root = id.pageno();
+        rootCategory = id.pgcateg();
+    }
+
+    /** @return the first free page of the specified category, or 0 if there is none */
+    public int getFreePage(int pgcateg) {
+        return pgcateg == BTreePageId.LEAF ? freeLeaf : freeInternal;
+    }
+
+    public void setFreePage(int pgcateg, int pgNo) {
+        if (pgcateg == BTreePageId.LEAF) {
+            freeLeaf = pgNo;
+        } else {
+            freeInternal = pgNo;
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            return new BTreeRootPtrPage(pid, oldData);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(root);
+            dos.writeByte(rootCategory);
+            dos.writeInt(freeLeaf);
+            dos.writeInt(freeInternal);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return BTreePage.pad(baos);
+    }
+
+    private final BTreePageId pid;
+    private int root;
+    private int rootCategory;
+    private int freeLeaf;
+    private int freeInternal;
+    private TransactionId dirtier;
+    private byte[] oldData;
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Iterator;
+
+/**
+ * BackgroundWriter drains dirty pages from a BufferPool on its own thread,
+ * so that a checkpoint can hand over its dirty page table and return
+ * without waiting for any page to reach disk.  Pages are written through
+ * the buffer pool, which logs them first and refuses to write pages that
+ * its steal policy says must stay in memory.
+ * <p>
+ * The thread is started when there is work and exits once the queue is
+ * empty.
+ */
+public class BackgroundWriter implements Runnable {
+
+    /**
+     * @param pool the buffer pool whose pages this writer flushes
+     */
+    public BackgroundWriter(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /** Queue the given pages to be written, starting the writer thread if it is idle. */
+    public synchronized void schedule(Collection<PageId> pids) {
+        pending.addAll(pids);
+        if (!running && !pending.isEmpty()) {
+            running = true;
+            var thread = new Thread(this, "simpledb-background-writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Block until every page scheduled so far has been dealt with. */
+    public synchronized void awaitDrained() throws InterruptedException {
+        while (running) {
+            wait();
+        }
+    }
+
+    /** @return the number of pages this writer has written to disk */
+    public synchronized long pagesWritten() {
+        return pagesWritten;
+    }
+
+    public void run() {
+        while (true) {
+            PageId pid;
+            synchronized (this) {
+                Iterator<PageId> it = pending.iterator();
+                if (!it.hasNext()) {
+                    running = false;
+                    notifyAll();
+                    return;
+                }
+                pid = it.next();
+                it.remove();
+            }
+            try {
+                if (pool.flushPageIfSafe(pid)) {
+                    synchronized (this) {
+                        pagesWritten++;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private final BufferPool pool;
+    private final LinkedHashSet<PageId> pending = new LinkedHashSet<PageId>();
+    private boolean running = false;
+    private long pagesWritten = 0;
+}
@@ -0,0 +1,148 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The BlockNestedLoopsJoin operator joins two inputs on an arbitrary
+ * predicate by reading the outer (left) input a block at a time and
+ * scanning the inner (right) input once per block, instead of once per
+ * outer tuple as {@link Join} does.  This divides the number of inner
+ * scans by the number of tuples in a block.
+ * <p>
+ * By default a block holds as many outer tuples as fit in
+ * {@link DbConfig#joinBlockFraction} of the buffer pool's frames, leaving
+ * the rest of the pool to the scans feeding the join.
+ */
+public class BlockNestedLoopsJoin extends AbstractDbIterator {
+
+    /**
+     * Constructor.  Accepts to children to join and the predicate
+     * to join them on
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopsJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, defaultBlockTuples(child1.getTupleDesc()));
+    }
+
+    /**
+     * Constructor.  Accepts to children to join, the predicate to join
+     * them on, and the number of outer tuples per block
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @param blockTuples The number of outer tuples to buffer per inner scan
+     */
+    public BlockNestedLoopsJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockTuples) {
+        this._p = p;
+        this.childIterator1 = child1;
+        this.childIterator2 = child2;
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockTuples = Math.max(1, blockTuples);
+        this.block = new ArrayList<Tuple>(Math.min(this.blockTuples, 4096));
+    }
+
+    /**
+     * The number of outer tuples that fill the share of the buffer pool's
+     * frames given to a join block, counting tuples per page as a heap
+     * page of the outer's schema would.
+     */
+    static int defaultBlockTuples(TupleDesc outer) {
+        int frames = Math.max(1, (int) (Database.getBufferPool().getNumPages() * DbConfig.joinBlockFraction));
+        int tuplesPerPage = Math.max(1, (BufferPool.PAGE_SIZE * 8) / (outer.getSize() * 8 + 1));
+        return frames * tuplesPerPage;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return _p;
+    }
+
+    /** @return the number of outer tuples buffered per scan of the inner */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        childIterator1.open();
+        childIterator2.open();
+        block.clear();
+        innerTuple = null;
+    }
+
+    public void close() {
+        super.close();
+        childIterator1.close();
+        childIterator2.close();
+        block.clear();
+        innerTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        childIterator1.rewind();
+        childIterator2.rewind();
+        block.clear();
+        innerTuple = null;
+    }
+
+    /** Read the next block of outer tuples; returns false if there are none left */
+    private boolean fillBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && childIterator1.hasNext()) {
+            block.add(childIterator1.next());
+        }
+        return !block.isEmpty();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As with {@link Join}, the result is the concatenation of
+     * the matching outer and inner tuples, although not in the same order.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (innerTuple != null) {
+                while (blockIndex < block.size()) {
+                    Tuple outer = block.get(blockIndex++);
+                    if (_p.filter(outer, innerTuple)) {
+                        return new JoinedTuple(td, outer, innerTuple);
+                    }
+                }
+                innerTuple = null;
+            }
+            if (block.isEmpty()) {
+                if (!fillBlock()) {
+                    return null;
+                }
+                childIterator2.rewind();
+            }
+            if (childIterator2.hasNext()) {
+                innerTuple = childIterator2.next();
+                blockIndex = 0;
+            } else {
+                block.clear(); // inner exhausted for this block
+            }
+        }
+    }
+
+    private final JoinPredicate _p;
+    private final DbIterator childIterator1; // outer
+    private final DbIterator childIterator2; // inner
+    private final TupleDesc td;
+    private final int blockTuples;
+    private final ArrayList<Tuple> block;
+    private Tuple innerTuple;
+    private int blockIndex;
+}
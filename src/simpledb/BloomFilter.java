@@ -0,0 +1,82 @@
+package simpledb;
+
+/**
+ * BloomFilter is a compact, approximate set of fields.  A field that was
+ * added is always reported as possibly present; one that was not is
+ * reported as absent, except for a fraction of false positives set when
+ * the filter is sized.  {@link HashJoin} builds one over the keys of its
+ * build side and hands it to the probe side's {@link SeqScan}, which drops
+ * the tuples that cannot join before they go any further.
+ * <p>
+ * The filter is a bit array probed at k positions per field, derived from
+ * two halves of a 64 bit hash of the field by double hashing.
+ */
+public class BloomFilter {
+
+    /**
+     * Create an empty filter sized to hold the specified number of fields
+     * with about the specified rate of false positives.
+     *
+     * @param expectedFields the number of fields that will be added
+     * @param falsePositiveRate the fraction of absent fields to report as
+     *   possibly present once expectedFields have been added, in (0, 1)
+     */
+    public BloomFilter(int expectedFields, double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("false positive rate " + falsePositiveRate + " is not in (0, 1)");
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-Math.max(1, expectedFields) * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.numBits = (int) Math.min(MAX_BITS, Math.max(64, bits));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / Math.max(1, expectedFields) * ln2));
+        this.words = new long[(numBits + 63) / 64];
+    }
+
+    /** @return the number of bits in the filter */
+    public int numBits() {
+        return numBits;
+    }
+
+    /** @return the number of bits set for each field */
+    public int numHashes() {
+        return numHashes;
+    }
+
+    /** Add a field to the filter */
+    public void add(Field f) {
+        long h = hash(f);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /** @return false if the field was certainly never added to the filter */
+    public boolean mightContain(Field f) {
+        long h = hash(f);
+        int h1 = (int) h, h2 = (int) (h >>> 32) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            int bit = Math.floorMod(h1 + i * h2, numBits);
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Mix the hash code of a field into 64 well spread bits (the splitmix64 finalizer) */
+    private static long hash(Field f) {
+        long z = f.hashCode() * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** The largest filter, 128MB of bits */
+    static final int MAX_BITS = Integer.MAX_VALUE / 2;
+
+    private final int numBits;
+    private final int numHashes;
+    private final long[] words;
+}
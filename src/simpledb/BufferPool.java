@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Hashtable;
 
 /**
@@ -32,6 +34,11 @@ public class BufferPool {
         this.rc = new BufferPoolReplacementClock(numPages, !DbConfig.steal);
     }
 
+    /** @return the number of pages this buffer pool can hold */
+    public int getNumPages() {
+        return frames.length;
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -50,18 +57,20 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         Page result;
-        var entry = storedPages.get(pid.hashCode());
+        synchronized (this) { // several threads of one query may read pages at once
+            var entry = storedPages.get(pid.hashCode());
 
-        if (entry != null) { // cache hit
-            result = frames[entry.index()];
-        }
-        else { // cache miss
-            var file = Database.getCatalog().getDbFile(pid.getTableId());
-            Page page = file.readPage(pid);
-            var targetFrame = findUnusedFrameIndex();
-            storedPages.put(pid.hashCode(), new BufferPoolPageEntry(pid.hashCode(), targetFrame));
-            frames[targetFrame] = page;
-            result = page;
+            if (entry != null) { // cache hit
+                result = frames[entry.index()];
+            }
+            else { // cache miss
+                var file = Database.getCatalog().getDbFile(pid.getTableId());
+                Page page = file.readPage(pid);
+                var targetFrame = findUnusedFrameIndex();
+                storedPages.put(pid.hashCode(), new BufferPoolPageEntry(pid.hashCode(), targetFrame));
+                frames[targetFrame] = page;
+                result = page;
+            }
         }
         
         if (perm.equals(Permissions.READ_ONLY))
@@ -108,13 +117,7 @@ public class BufferPool {
     public   void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
         if (commit) {
-            // flush dirty pages associated with transaction
-            for (int i = 0; i <= lastUsedFrame; i++) {
-                var page = frames[i];
-                if (page.isDirty() == tid) {
-                    flushPage(page.getId());
-                }
-            }
+            flushPages(tid);
         } else {
             for (int i = 0; i <= lastUsedFrame; i++) {
                 var page = frames[i];
@@ -147,6 +150,9 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         var file = Database.getCatalog().getDbFile(tableId);
         file.addTuple(tid, t).forEach(page -> page.markDirty(true, tid));
+        for (var index : Database.getCatalog().getIndexes(tableId)) {
+            index.insert(tid, t);
+        }
     }
 
     /**
@@ -166,7 +172,16 @@ public class BufferPool {
         throws DbException, TransactionAbortedException {
         var tableId = t.getRecordId().getPageId().getTableId();
         var file = Database.getCatalog().getDbFile(tableId);
+        // the entries name the tuple's record id, which the delete clears
+        var indexes = Database.getCatalog().getIndexes(tableId);
+        var entries = new ArrayList<Tuple>(indexes.size());
+        for (var index : indexes) {
+            entries.add(index.entry(t));
+        }
         file.deleteTuple(tid, t).markDirty(true, tid);
+        for (int i = 0; i < indexes.size(); i++) {
+            indexes.get(i).deleteEntry(tid, entries.get(i));
+        }
     }
 
     /**
@@ -189,8 +204,55 @@ public class BufferPool {
         cache.
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // only necessary for lab5
+        var entry = storedPages.remove(pid.hashCode());
+        if (entry == null) return;
+
+        // keep frames [0, lastUsedFrame] packed by moving the last page into the hole
+        int hole = entry.index();
+        if (hole != lastUsedFrame) {
+            var moved = frames[lastUsedFrame];
+            var movedHash = moved.getId().hashCode();
+            frames[hole] = moved;
+            storedPages.put(movedHash, new BufferPoolPageEntry(movedHash, hole));
+        }
+        frames[lastUsedFrame--] = null;
+    }
+
+    /**
+     * Return the dirty page table: every dirty page in the buffer pool,
+     * mapped to the transaction that dirtied it.
+     */
+    public synchronized HashMap<PageId, TransactionId> dirtyPages() {
+        var dirty = new HashMap<PageId, TransactionId>();
+        for (int i = 0; i <= lastUsedFrame; i++) {
+            var page = frames[i];
+            if (page.isDirty() != null) {
+                dirty.put(page.getId(), page.isDirty());
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Flush the specified page if it is still cached and dirty, and the
+     * steal policy allows it to be written: without steal, only pages whose
+     * dirtying transaction has released its lock on them may go to disk.
+     *
+     * @return true if the page was written
+     */
+    public synchronized boolean flushPageIfSafe(PageId pid) throws IOException {
+        var entry = storedPages.get(pid.hashCode());
+        if (entry == null) return false;
+        var dirtier = frames[entry.index()].isDirty();
+        if (dirtier == null) return false;
+        if (!DbConfig.steal && holdsLock(dirtier, pid)) return false;
+        flushPage(pid);
+        return true;
+    }
+
+    /** Return the writer that drains dirty pages handed over by checkpoints */
+    public BackgroundWriter getBackgroundWriter() {
+        return writer;
     }
 
     /**
@@ -201,6 +263,12 @@ public class BufferPool {
         var pageEntry = storedPages.get(pid.hashCode());
         var page = frames[pageEntry.index()];
         var file = Database.getCatalog().getDbFile(pid.getTableId());
+        var dirtier = page.isDirty();
+        if (dirtier != null) {
+            // write ahead: the update record must be on disk before the page
+            Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
+            Database.getLogFile().force();
+        }
         file.writePage(page);
         page.markDirty(false, null);
     }
@@ -208,8 +276,13 @@ public class BufferPool {
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2|lab3
+        for (int i = 0; i <= lastUsedFrame; i++) {
+            var page = frames[i];
+            if (page.isDirty() == tid) {
+                flushPage(page.getId());
+                page.setBeforeImage();
+            }
+        }
     }
 
     /**
@@ -260,5 +333,6 @@ public class BufferPool {
     private final Hashtable<Integer, BufferPoolPageEntry> storedPages;
     private int lastUsedFrame = -1;
     private final BufferPoolReplacementClock rc;
+    private final BackgroundWriter writer = new BackgroundWriter(this);
     public final LockManager locks = new LockManager();
 }
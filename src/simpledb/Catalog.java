@@ -74,7 +74,7 @@ public class Catalog {
      *     function passed to addTable
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        return tables.get(tableid).getTupleDesc();
+        return getDbFile(tableid).getTupleDesc();
     }
 
     /**
@@ -84,12 +84,100 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
-        return tables.get(tableid).getFile();
+        var entry = tables.get(tableid);
+        if (entry == null) {
+            return indexFiles.get(tableid).getFile();
+        }
+        return entry.getFile();
     }
 
-    /** Delete all tables from the catalog */
+    /** Delete all tables and indexes from the catalog */
     public void clear() {
         tables.clear();
+        indexes.clear();
+        indexFiles.clear();
+    }
+
+    /**
+     * Create a secondary index on a field of a table stored in a HeapFile,
+     * and fill it with the entries of the tuples already in the table,
+     * leaving {@link DbConfig#indexFillFactor} of each page free.
+     *
+     * @see #createIndex(int, int, File, double)
+     */
+    public SecondaryIndex createIndex(int tableid, int field, File f)
+        throws DbException, IOException, TransactionAbortedException {
+        return createIndex(tableid, field, f, DbConfig.indexFillFactor);
+    }
+
+    /**
+     * Create a secondary index on a field of a table stored in a HeapFile,
+     * and fill it with the entries of the tuples already in the table.
+     * The entries are stored in a B+ tree in the specified file, which is
+     * overwritten.  They are sorted, externally if they do not fit in
+     * memory, and bulk loaded into the tree.  Only then is the index
+     * attached to the table, and from then on the BufferPool maintains it
+     * as tuples are inserted and deleted.  If building it fails, the table
+     * is left without it and the file is deleted.
+     *
+     * @param tableid the table to index
+     * @param field the index of the field to index
+     * @param f the file to store the index in
+     * @param fillFactor the fraction of each page of the index to fill
+     * @return the new index
+     * @throws IllegalArgumentException if the table is not stored in a HeapFile
+     * @see BTreeFile#bulkLoad
+     */
+    public SecondaryIndex createIndex(int tableid, int field, File f, double fillFactor)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile table = getDbFile(tableid);
+        if (!(table instanceof HeapFile)) {
+            throw new IllegalArgumentException("only tables stored in HeapFiles can have secondary indexes");
+        }
+        f.delete();
+        var index = new SecondaryIndex(tableid, field,
+            new BTreeFile(f, 0, SecondaryIndex.entryDesc(getTupleDesc(tableid).getType(field))));
+
+        // its pages can be read back while it is built, but it is not yet maintained or planned with
+        indexFiles.put(index.getFile().getId(), index);
+        var tid = new TransactionId();
+        try {
+            // entries with equal keys go in record id order
+            var sorted = new OrderBy(new int[] { 0, 1, 2 }, new boolean[] { true, true, true }, index.entries(tid));
+            index.getFile().bulkLoad(sorted, fillFactor);
+            // attached while the scan's locks still keep writers off the table
+            addIndex(index);
+        } catch (DbException | IOException | TransactionAbortedException | RuntimeException e) {
+            Database.getBufferPool().transactionComplete(tid, false);
+            indexFiles.remove(index.getFile().getId());
+            f.delete();
+            throw e;
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    /**
+     * Attach an existing secondary index to its table.  The index must
+     * hold an entry for every tuple of the table.
+     */
+    public void addIndex(SecondaryIndex index) {
+        indexes.computeIfAbsent(index.getTableId(), id -> new ArrayList<SecondaryIndex>()).add(index);
+        indexFiles.put(index.getFile().getId(), index);
+    }
+
+    /** @return the secondary indexes of the specified table; empty if it has none */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        var tableIndexes = indexes.get(tableid);
+        return tableIndexes == null ? Collections.<SecondaryIndex>emptyList() : tableIndexes;
+    }
+
+    /** @return the secondary index on a field of a table, or null if there is none */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (var index : getIndexes(tableid)) {
+            if (index.getField() == field) return index;
+        }
+        return null;
     }
 
     public String getPrimaryKey(int tableid) {
@@ -159,5 +247,8 @@ public class Catalog {
     }
 
     private HashMap<Integer, CatalogTableEntry> tables = new HashMap<>();
+    // the secondary indexes of each table, and the indexes by the ids of their files
+    private HashMap<Integer, ArrayList<SecondaryIndex>> indexes = new HashMap<>();
+    private HashMap<Integer, SecondaryIndex> indexFiles = new HashMap<>();
 }
 
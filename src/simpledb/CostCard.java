@@ -11,4 +11,6 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public Vector<LogicalJoinNode> plan;
+    /** The algorithm the last join of the subplan runs as */
+    JoinOptimizer.Algorithm algorithm;
 }
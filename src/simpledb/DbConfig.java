@@ -5,4 +5,18 @@ public class DbConfig {
     public static final Integer maxLockWaitMs = 300;
     public static final boolean steal = false;
     public static final  boolean force = true;
+    public static final double joinBlockFraction = 0.5;
+    public static final long joinMemoryBytes = 8 * 1024 * 1024;
+    public static final boolean joinBloomFilters = true;
+    public static final double bloomFalsePositiveRate = 0.01;
+    public static final double indexMaxSelectivity = 0.1;
+    public static final double indexFillFactor = 0.9;
+    public static final boolean zoneMaps = true;
+    public static final long sortMemoryBytes = 8 * 1024 * 1024;
+    public static final long aggregateMemoryBytes = 8 * 1024 * 1024;
+    public static final Integer aggregateThreads = Runtime.getRuntime().availableProcessors();
+    public static final int parallelAggregateMinPages = 16;
+    public static final boolean compressLogImages = true;
+    public static final long logSegmentSize = 16 * 1024 * 1024;
+    public static final Integer recoveryThreads = Runtime.getRuntime().availableProcessors();
 }
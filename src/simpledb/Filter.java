@@ -22,6 +22,16 @@ public class Filter extends AbstractDbIterator {
         return childIterator.getTupleDesc();
     }
 
+    /** @return the predicate this filter applies */
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    /** @return the operator whose tuples this filter selects from */
+    public DbIterator getChild() {
+        return childIterator;
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
         childIterator.open();
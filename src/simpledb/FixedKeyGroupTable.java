@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * FixedKeyGroupTable numbers the distinct keys it is given, as
+ * {@link IntGroupTable} does, for keys that are byte strings of a fixed
+ * width, such as the on-page encoding of a string field or of several
+ * group-by fields together.  Keys are stored back to back in one array,
+ * so a table of millions of groups holds a handful of objects.
+ */
+public class FixedKeyGroupTable {
+
+    /**
+     * @param width the length in bytes of every key
+     */
+    public FixedKeyGroupTable(int width) {
+        this.width = width;
+        slots = new int[16];
+        hashes = new int[8];
+        keys = new byte[8 * width];
+    }
+
+    /** @return the length in bytes of every key */
+    public int width() {
+        return width;
+    }
+
+    /** @return the number of groups in this table */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the array holding the keys; the key of group g starts at
+     * offset g * width().  The array is replaced as the table grows.
+     */
+    public byte[] keys() {
+        return keys;
+    }
+
+    /** @return the hash of the key of the specified group */
+    public int hash(int group) {
+        return hashes[group];
+    }
+
+    /**
+     * Return the group of the key in the first width() bytes of the
+     * specified array, adding a new group if the key has not been seen
+     * before.  The key is copied, so the array may be reused.
+     */
+    public int group(byte[] key) {
+        int h = hash(key);
+        int mask = slots.length - 1;
+        int i = h & mask;
+        while (true) {
+            int slot = slots[i];
+            if (slot == 0) {
+                break;
+            }
+            int g = slot - 1;
+            if (hashes[g] == h && Arrays.equals(keys, g * width, (g + 1) * width, key, 0, width)) {
+                return g;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            keys = Arrays.copyOf(keys, size * 2 * width);
+        }
+        hashes[size] = h;
+        System.arraycopy(key, 0, keys, size * width, width);
+        slots[i] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    private int hash(byte[] key) {
+        int h = 0;
+        for (int i = 0; i < width; i++) {
+            h = 31 * h + key[i];
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Double the number of slots, keeping the table at most half full */
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int i = hashes[g] & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = g + 1;
+        }
+    }
+
+    private final int width;
+    // slots hold group + 1, with 0 marking an empty slot
+    private int[] slots;
+    private int[] hashes;
+    private byte[] keys;
+    private int size = 0;
+}
@@ -0,0 +1,596 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * HashAggregator computes any number of aggregates over a stream of tuples
+ * in one pass, grouped by any number of fields.
+ * <p>
+ * Groups are numbered by a primitive open addressing hash table: an
+ * {@link IntGroupTable} when grouping by a single int field, and otherwise
+ * a {@link FixedKeyGroupTable} over a fixed-width encoding of the
+ * group-by fields.  The running count, sum, min or max of every group is
+ * kept in long arrays indexed by group number, so merging a tuple into an
+ * existing group allocates nothing and sums do not overflow.
+ * <p>
+ * Output tuples hold the group-by fields followed by one INT_TYPE field
+ * per aggregate.  A SUM that does not fit in an int fails with a
+ * DbException when its group is read, rather than wrapping; an AVG of the
+ * same values is exact.  Without grouping, the output is a single tuple, or no
+ * tuple at all if nothing was merged.
+ * <p>
+ * When a new group would take the table past its memory budget, the
+ * partial aggregates of every group in memory are written out to
+ * {@link #FANOUT} {@link TupleSpillFile}s, partitioned by a hash of the
+ * group key, and the table starts over empty.  The results are then
+ * produced one partition at a time by merging its partial aggregates in a
+ * new table.  A partition with too many groups for one table spills in
+ * turn, on different hash bits, up to {@link #MAX_PARTITION_LEVELS}
+ * times.  Once an aggregator has spilled, no more tuples may be merged
+ * after {@link #iterator} has been read.
+ */
+public class HashAggregator implements Aggregator {
+
+    /** Number of partitions the groups are split into when spilling */
+    public static final int FANOUT = 16;
+
+    /** How many times a partition that is still too large is split again */
+    public static final int MAX_PARTITION_LEVELS = 3;
+
+    /**
+     * Aggregate constructor for a single aggregate
+     * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
+     * @param gbfieldtype the type of the group by field (e.g., Type.INT_TYPE), or null if there is no grouping
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param what the aggregation operator
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[] { gbfield },
+             gbfield == NO_GROUPING ? new Type[0] : new Type[] { gbfieldtype },
+             new int[] { afield }, new Op[] { what });
+    }
+
+    /**
+     * Aggregate constructor
+     * @param gbfields the 0-based indexes of the group-by fields in the tuple; empty if there is no grouping
+     * @param gbfieldtypes the types of the group by fields
+     * @param afields the 0-based indexes of the aggregate fields in the tuple
+     * @param ops the aggregation operator for each aggregate field.  Only COUNT
+     *   may be applied to a string field.
+     */
+    public HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] ops) {
+        this(gbfields, gbfieldtypes, afields, ops, DbConfig.aggregateMemoryBytes);
+    }
+
+    /**
+     * Aggregate constructor with a memory budget
+     * @param gbfields the 0-based indexes of the group-by fields in the tuple; empty if there is no grouping
+     * @param gbfieldtypes the types of the group by fields
+     * @param afields the 0-based indexes of the aggregate fields in the tuple
+     * @param ops the aggregation operator for each aggregate field
+     * @param memoryBytes the number of bytes of groups to hold in memory before spilling
+     */
+    public HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] ops, long memoryBytes) {
+        this(gbfields, gbfieldtypes, afields, ops, memoryBytes, 0, false);
+    }
+
+    /**
+     * @param level how many times the groups being merged have been partitioned
+     * @param partial true if the merged tuples are partial aggregates, as
+     *   written by {@link #spill}, with the group-by fields first
+     */
+    private HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Op[] ops,
+                           long memoryBytes, int level, boolean partial) {
+        if (gbfields.length != gbfieldtypes.length || afields.length != ops.length) {
+            throw new IllegalArgumentException("every field needs a type and every aggregate an operator");
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.memoryBytes = memoryBytes;
+        this.level = level;
+        this.partial = partial;
+
+        int width = 0;
+        for (Type t : gbfieldtypes) {
+            width += keyLen(t);
+        }
+        keyBuffer = new byte[width];
+        // table slots, key, and accumulators, with room for the arrays to double
+        long groupBytes = 2L * (16 + width + 8L * (1 + ops.length));
+        maxGroups = (int) Math.min(Integer.MAX_VALUE / 4, Math.max(FANOUT, memoryBytes / groupBytes));
+        clear();
+
+        Type[] types = Arrays.copyOf(gbfieldtypes, gbfields.length + afields.length);
+        Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+        td = new TupleDesc(types);
+        // partial aggregates: the group-by fields, then each long as two ints
+        types = Arrays.copyOf(gbfieldtypes, gbfields.length + 2 * (1 + ops.length));
+        Arrays.fill(types, gbfields.length, types.length, Type.INT_TYPE);
+        stateTd = new TupleDesc(types);
+    }
+
+    /** Start over with no groups */
+    private void clear() {
+        if (gbfields.length == 1 && gbfieldtypes[0] == Type.INT_TYPE) {
+            intGroups = new IntGroupTable();
+        } else if (gbfields.length > 0) {
+            fixedGroups = new FixedKeyGroupTable(keyBuffer.length);
+        }
+        numGroups = 0;
+        counts = new long[16];
+        values = new long[ops.length][16];
+    }
+
+    /** @return the schema of the tuples returned by {@link #iterator} */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of groups held in memory */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    /** @return true if the groups outgrew the memory budget and were written to disk */
+    public boolean spilled() {
+        return parts != null;
+    }
+
+    /** Remove any spill files.  The results are lost. */
+    public void discard() {
+        if (parts != null) {
+            for (TupleSpillFile f : parts) {
+                if (f != null) f.delete();
+            }
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the constructor
+     * @param tup the Tuple containing the aggregate fields and the group-by fields
+     */
+    public void merge(Tuple tup) throws DbException {
+        int g = group(tup);
+        if (g == numGroups) {
+            if (g >= maxGroups && gbfields.length > 0 && level < MAX_PARTITION_LEVELS) {
+                spill();
+                g = group(tup);
+            }
+            if (g == counts.length) {
+                grow();
+            }
+            numGroups++;
+        }
+        if (partial) {
+            mergeState(g, tup);
+            return;
+        }
+        boolean first = counts[g] == 0;
+        counts[g]++;
+        for (int k = 0; k < ops.length; k++) {
+            if (ops[k] == Op.COUNT) {
+                continue;
+            }
+            Field f = tup.getField(afields[k]);
+            if (!(f instanceof IntField)) {
+                throw new IllegalArgumentException(ops[k] + " is not supported over " + f.getType());
+            }
+            long v = ((IntField) f).getValue();
+            long[] acc = values[k];
+            switch (ops[k]) {
+                case MIN:
+                    acc[g] = first ? v : Math.min(acc[g], v);
+                    break;
+                case MAX:
+                    acc[g] = first ? v : Math.max(acc[g], v);
+                    break;
+                case SUM:
+                case AVG:
+                    acc[g] += v;
+                    break;
+            }
+        }
+    }
+
+    /** Merge the partial aggregates of a group, as written by {@link #spill} */
+    private void mergeState(int g, Tuple state) {
+        boolean first = counts[g] == 0;
+        int f = gbfields.length;
+        counts[g] += getLong(state, f);
+        for (int k = 0; k < ops.length; k++) {
+            long v = getLong(state, f + 2 + 2 * k);
+            long[] acc = values[k];
+            switch (ops[k]) {
+                case MIN:
+                    acc[g] = first ? v : Math.min(acc[g], v);
+                    break;
+                case MAX:
+                    acc[g] = first ? v : Math.max(acc[g], v);
+                    break;
+                case SUM:
+                case AVG:
+                    acc[g] += v;
+                    break;
+            }
+        }
+    }
+
+    private static long getLong(Tuple t, int i) {
+        long hi = ((IntField) t.getField(i)).getValue();
+        long lo = ((IntField) t.getField(i + 1)).getValue();
+        return (hi << 32) | (lo & 0xffffffffL);
+    }
+
+    private static void setLong(Tuple t, int i, long v) {
+        t.setField(i, new IntField((int) (v >>> 32)));
+        t.setField(i + 1, new IntField((int) v));
+    }
+
+    /**
+     * Write the partial aggregates of every group in memory to the spill
+     * file of its partition, and empty the table.
+     */
+    private void spill() throws DbException {
+        if (parts == null) {
+            parts = new TupleSpillFile[FANOUT];
+        }
+        int shift = 32 - 4 * (level + 1);
+        for (int g = 0; g < numGroups; g++) {
+            int h = intGroups != null ? intGroups.hash(g) : fixedGroups.hash(g);
+            int part = (h >>> shift) & (FANOUT - 1);
+            if (parts[part] == null) {
+                parts[part] = new TupleSpillFile(stateTd);
+            }
+            parts[part].add(stateTuple(g));
+        }
+        clear();
+    }
+
+    /** @return the partial aggregates of group g, as written to a spill file */
+    private Tuple stateTuple(int g) {
+        Tuple state = new Tuple(stateTd);
+        setKeyFields(state, g);
+        setLong(state, gbfields.length, counts[g]);
+        for (int k = 0; k < ops.length; k++) {
+            setLong(state, gbfields.length + 2 + 2 * k, values[k][g]);
+        }
+        return state;
+    }
+
+    /**
+     * Create an empty aggregator that merges the partial aggregates of
+     * aggregators like this one, read from their {@link #partialIterator}.
+     * Averages are carried as a sum and a count, so partial results
+     * computed over disjoint parts of the input combine exactly.
+     */
+    public HashAggregator partialMerger() {
+        int[] keyFields = new int[gbfields.length];
+        for (int i = 0; i < keyFields.length; i++) {
+            keyFields[i] = i;
+        }
+        return new HashAggregator(keyFields, gbfieldtypes, afields, ops, memoryBytes, 0, true);
+    }
+
+    /**
+     * Create a DbIterator over the partial aggregates of every group
+     * merged so far, in memory or spilled, for a {@link #partialMerger}.
+     * A group may appear more than once if it was spilled.
+     */
+    public DbIterator partialIterator() {
+        return new PartialIterator();
+    }
+
+    private class PartialIterator extends AbstractDbIterator {
+        private int group = 0;
+        private int part = -1;
+        private DbIterator partIterator;
+
+        public void open() {
+            rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return stateTd;
+        }
+
+        public void rewind() {
+            close();
+            group = 0;
+            part = -1;
+        }
+
+        public void close() {
+            super.close();
+            if (partIterator != null) {
+                partIterator.close();
+                partIterator = null;
+            }
+            group = numGroups;
+            part = FANOUT;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (group < numGroups) {
+                return stateTuple(group++);
+            }
+            while (parts != null) {
+                if (partIterator != null && partIterator.hasNext()) {
+                    return partIterator.next();
+                }
+                if (partIterator != null) {
+                    partIterator.close();
+                    partIterator = null;
+                }
+                if (part + 1 >= FANOUT) {
+                    part = FANOUT;
+                    break;
+                }
+                if (parts[++part] != null) {
+                    partIterator = parts[part].iterator();
+                    partIterator.open();
+                }
+            }
+            return null;
+        }
+    }
+
+    /** @return the group of the specified tuple, which is numGroups if it starts a new one */
+    private int group(Tuple tup) {
+        if (intGroups != null) {
+            return intGroups.group(((IntField) tup.getField(gbfields[0])).getValue());
+        }
+        if (fixedGroups != null) {
+            int off = 0;
+            for (int i = 0; i < gbfields.length; i++) {
+                off = encode(tup.getField(gbfields[i]), keyBuffer, off);
+            }
+            return fixedGroups.group(keyBuffer);
+        }
+        return 0;
+    }
+
+    private void grow() {
+        int capacity = counts.length * 2;
+        counts = Arrays.copyOf(counts, capacity);
+        for (int k = 0; k < values.length; k++) {
+            values[k] = Arrays.copyOf(values[k], capacity);
+        }
+    }
+
+    /**
+     * @return the number of bytes {@link #encode} writes for a field of a type:
+     * an int, or a string's length and then two bytes per char
+     */
+    static int keyLen(Type t) {
+        return t == Type.INT_TYPE ? 4 : 4 + 2 * Type.STRING_LEN;
+    }
+
+    /**
+     * Write a field to buf at off, as a big-endian int, or as a string's
+     * length and then its chars, two bytes each so that no two strings
+     * encode alike, zero padded to their full length so that equal strings
+     * encode equally.
+     * @return the offset just past the field
+     */
+    static int encode(Field f, byte[] buf, int off) {
+        if (f instanceof IntField) {
+            int v = ((IntField) f).getValue();
+            buf[off] = (byte) (v >>> 24);
+            buf[off + 1] = (byte) (v >>> 16);
+            buf[off + 2] = (byte) (v >>> 8);
+            buf[off + 3] = (byte) v;
+            return off + 4;
+        }
+        String s = ((StringField) f).getValue();
+        int len = Math.min(s.length(), Type.STRING_LEN);
+        buf[off] = (byte) (len >>> 24);
+        buf[off + 1] = (byte) (len >>> 16);
+        buf[off + 2] = (byte) (len >>> 8);
+        buf[off + 3] = (byte) len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            buf[off + 4 + 2 * i] = (byte) (c >>> 8);
+            buf[off + 5 + 2 * i] = (byte) c;
+        }
+        Arrays.fill(buf, off + 4 + 2 * len, off + keyLen(Type.STRING_TYPE), (byte) 0);
+        return off + keyLen(Type.STRING_TYPE);
+    }
+
+    /** Read back a field written by {@link #encode} */
+    static Field decode(Type t, byte[] buf, int off) {
+        int v = ((buf[off] & 0xff) << 24) | ((buf[off + 1] & 0xff) << 16)
+            | ((buf[off + 2] & 0xff) << 8) | (buf[off + 3] & 0xff);
+        if (t == Type.INT_TYPE) {
+            return new IntField(v);
+        }
+        char[] chars = new char[v];
+        for (int i = 0; i < v; i++) {
+            chars[i] = (char) (((buf[off + 4 + 2 * i] & 0xff) << 8) | (buf[off + 5 + 2 * i] & 0xff));
+        }
+        return new StringField(new String(chars), Type.STRING_LEN);
+    }
+
+    /**
+     * @return the value of aggregate k for group g
+     * @throws DbException if the value does not fit in an int field
+     */
+    private int result(int k, int g) throws DbException {
+        long v;
+        switch (ops[k]) {
+            case COUNT:
+                v = counts[g];
+                break;
+            case AVG:
+                v = values[k][g] / counts[g];
+                break;
+            default:
+                v = values[k][g];
+        }
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+            throw new DbException(ops[k] + " of field " + afields[k] + " is " + v + ", outside the range of an int");
+        }
+        return (int) v;
+    }
+
+    /** @return the output tuple of group g */
+    private Tuple resultTuple(int g) throws DbException {
+        Tuple t = new Tuple(td);
+        setKeyFields(t, g);
+        for (int k = 0; k < ops.length; k++) {
+            t.setField(gbfields.length + k, new IntField(result(k, g)));
+        }
+        return t;
+    }
+
+    /** Set the first fields of t to the group-by fields of group g */
+    private void setKeyFields(Tuple t, int g) {
+        if (intGroups != null) {
+            t.setField(0, new IntField(intGroups.key(g)));
+        } else if (fixedGroups != null) {
+            byte[] keys = fixedGroups.keys();
+            int off = g * fixedGroups.width();
+            for (int i = 0; i < gbfields.length; i++) {
+                t.setField(i, decode(gbfieldtypes[i], keys, off));
+                off += keyLen(gbfieldtypes[i]);
+            }
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by fields followed by
+     *   the aggregate values, over the groups merged so far.
+     */
+    public DbIterator iterator() {
+        if (parts != null) {
+            return new SpilledIterator();
+        }
+        return new GroupIterator(numGroups);
+    }
+
+    /**
+     * Iterates over the results of a spilled aggregator, merging one
+     * partition at a time.  The groups still in memory are spilled too
+     * when the iterator is first read.
+     */
+    private class SpilledIterator extends AbstractDbIterator {
+        private int part = -1;
+        private HashAggregator merger;
+        private DbIterator results;
+
+        public void open() throws DbException {
+            closePartition();
+            part = -1;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() throws DbException {
+            open();
+        }
+
+        public void close() {
+            super.close();
+            closePartition();
+            part = FANOUT;
+        }
+
+        private void closePartition() {
+            if (results != null) {
+                results.close();
+                results = null;
+            }
+            if (merger != null) {
+                merger.discard();
+                merger = null;
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (numGroups > 0) {
+                spill();
+            }
+            while (true) {
+                if (results != null && results.hasNext()) {
+                    return results.next();
+                }
+                closePartition();
+                if (part + 1 >= FANOUT) {
+                    part = FANOUT;
+                    return null;
+                }
+                if (parts[++part] == null) {
+                    continue;
+                }
+                int[] keyFields = new int[gbfields.length];
+                for (int i = 0; i < keyFields.length; i++) {
+                    keyFields[i] = i;
+                }
+                merger = new HashAggregator(keyFields, gbfieldtypes, afields, ops, memoryBytes, level + 1, true);
+                DbIterator in = parts[part].iterator();
+                in.open();
+                while (in.hasNext()) {
+                    merger.merge(in.next());
+                }
+                in.close();
+                results = merger.iterator();
+                results.open();
+            }
+        }
+    }
+
+    private class GroupIterator extends AbstractDbIterator {
+        private final int groups;
+        private int next = 0;
+
+        GroupIterator(int groups) {
+            this.groups = groups;
+        }
+
+        public void open() {
+            next = 0;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() {
+            next = 0;
+        }
+
+        public void close() {
+            super.close();
+            next = groups;
+        }
+
+        protected Tuple readNext() throws DbException {
+            return next < groups ? resultTuple(next++) : null;
+        }
+    }
+
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Op[] ops;
+    private final TupleDesc td;
+    private final TupleDesc stateTd;
+    private final long memoryBytes;
+    private final int maxGroups;
+    private final int level;
+    private final boolean partial;
+
+    private IntGroupTable intGroups;
+    private FixedKeyGroupTable fixedGroups;
+    private byte[] keyBuffer;
+
+    private int numGroups = 0;
+    private long[] counts;
+    private long[][] values;
+    private TupleSpillFile[] parts;
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashBucketPage stores the tuples of a {@link HashFile} whose key hashes
+ * to one bucket.  A bucket that must hold more tuples than fit on a page
+ * -- because they share their hash value, so no split can separate
+ * them -- continues on a chain of overflow pages.
+ * <p>
+ * The format of a bucket page is three ints -- the local depth of the
+ * bucket, the next page of its overflow chain (0 for none) and the number
+ * of tuples -- followed by the tuples, packed, in no particular order.
+ * Free bucket pages are chained through their next pointers.  A tuple's
+ * record id is its position on the page, so it changes as tuples before
+ * it are deleted.
+ */
+public class HashBucketPage implements Page {
+
+    private static final int HEADER_BYTES = 12;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk.
+     *
+     * @see HashBucketPage for the format of the data
+     */
+    public HashBucketPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        localDepth = dis.readInt();
+        next = dis.readInt();
+        int n = dis.readInt();
+        tuples = new ArrayList<Tuple>(maxTuples());
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.setField(j, td.getType(j).parse(dis));
+                }
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("could not parse bucket page " + pid);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of tuples that fit on a bucket page of the specified schema */
+    public static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_BYTES) / td.getSize();
+    }
+
+    public int maxTuples() {
+        return maxTuples(td);
+    }
+
+    public int numTuples() {
+        return tuples.size();
+    }
+
+    public boolean isFull() {
+        return tuples.size() >= maxTuples();
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /** @return the number of low-order hash bits shared by the keys in this bucket */
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    /** @return the next page of this bucket's overflow chain, or of the free list; 0 at the end */
+    public int getNext() {
+        return next;
+    }
+
+    public void setNext(int next) {
+        this.next = next;
+    }
+
+    /**
+     * Add a tuple to this page.
+     * @throws DbException if the page is full
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (isFull()) {
+            throw new DbException("bucket page " + pid + " is full");
+        }
+        t.setRecordId(new RecordId(pid, tuples.size()));
+        tuples.add(t);
+    }
+
+    /**
+     * Remove the tuple from this page: the tuple itself, or else one with
+     * the same field values.
+     *
+     * @return true if the tuple was on this page
+     */
+    public boolean deleteTuple(Tuple t) {
+        int found = -1;
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple candidate = tuples.get(i);
+            if (candidate == t) {
+                found = i;
+                break;
+            }
+            if (found < 0 && sameFields(candidate, t)) {
+                found = i;
+            }
+        }
+        if (found < 0) {
+            return false;
+        }
+        tuples.remove(found);
+        for (int i = found; i < tuples.size(); i++) {
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+        }
+        t.setRecordId(null);
+        return true;
+    }
+
+    private static boolean sameFields(Tuple a, Tuple b) {
+        for (int i = 0; i < a.getTupleDesc().numFields(); i++) {
+            if (!a.getField(i).equals(b.getField(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Remove and return all the tuples on this page */
+    List<Tuple> removeAll() {
+        List<Tuple> all = new ArrayList<Tuple>(tuples);
+        tuples.clear();
+        return all;
+    }
+
+    /** Remove the contents of this page, to be put on or taken off the free list */
+    void clear() {
+        tuples.clear();
+        localDepth = 0;
+        next = 0;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, oldData);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(localDepth);
+            dos.writeInt(next);
+            dos.writeInt(tuples.size());
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return BTreePage.pad(baos);
+    }
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private int localDepth;
+    private int next;
+    private final ArrayList<Tuple> tuples;
+    private TransactionId dirtier;
+    private byte[] oldData;
+}
@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashDirectoryPage holds a run of the directory of a {@link HashFile}:
+ * the page numbers of the buckets that the hash values ending in each
+ * bit pattern belong to.  Entry i of the directory is entry
+ * i % ENTRIES of the (i / ENTRIES)-th directory page listed in the
+ * {@link HashHeaderPage}.  Several entries share a bucket when its local
+ * depth is less than the global depth.
+ * <p>
+ * The format is ENTRIES ints.
+ */
+public class HashDirectoryPage implements Page {
+
+    /** The number of directory entries on a page */
+    public static final int ENTRIES = BufferPool.PAGE_SIZE / 4;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     *
+     * @see HashDirectoryPage for the format of the data
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        for (int i = 0; i < ENTRIES; i++) {
+            buckets[i] = dis.readInt();
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /** @return the page number of the bucket of the i-th entry on this page */
+    public int getBucket(int i) {
+        return buckets[i];
+    }
+
+    public void setBucket(int i, int pgNo) {
+        buckets[i] = pgNo;
+    }
+
+    /** Copy the first n entries of another directory page to this one, starting at entry to */
+    void copyFrom(HashDirectoryPage other, int n, int to) {
+        System.arraycopy(other.buckets, 0, buckets, to, n);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        try {
+            return new HashDirectoryPage(pid, oldData);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < ENTRIES; i++) {
+                dos.writeInt(buckets[i]);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    private final HashPageId pid;
+    private final int[] buckets = new int[ENTRIES];
+    private TransactionId dirtier;
+    private byte[] oldData;
+}
@@ -0,0 +1,483 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is an implementation of a DbFile that stores a collection of
+ * tuples in an extendible hash table on one key field, so the tuples with
+ * a given key are found by reading a directory page and then the bucket
+ * they hash to, however large the file grows.
+ * <p>
+ * The low-order globalDepth bits of a key's hash pick an entry of the
+ * directory, which names the {@link HashBucketPage} holding the key.  A
+ * bucket whose keys share only localDepth &lt; globalDepth low-order bits
+ * is named by several entries.  When a bucket fills up it is split in two
+ * on its next hash bit and the entries naming it are divided between the
+ * halves; only when its local depth has reached the global depth does the
+ * directory double first, which copies the entries and leaves every other
+ * bucket where it is.  Tuples that share their whole hash value, and so
+ * can never be split apart, spill onto a chain of overflow pages instead,
+ * as do buckets once the directory has reached the most pages the
+ * {@link HashHeaderPage} can list.  Deletes do not merge buckets or shrink
+ * the directory; overflow pages they empty go on a free list and are
+ * reused before the file grows.
+ * <p>
+ * All pages are read and written through the BufferPool, and so are
+ * locked like the pages of a HeapFile.  Duplicate keys are allowed.
+ *
+ * @see IndexScan
+ */
+public class HashFile implements DbFile {
+
+    /** The deepest the directory grows: as many entries as the header's directory pages hold */
+    static final int MAX_GLOBAL_DEPTH = Integer.numberOfTrailingZeros(HashDirectoryPage.ENTRIES)
+        + 31 - Integer.numberOfLeadingZeros(HashHeaderPage.MAX_DIRECTORY_PAGES);
+
+    /**
+     * Constructs a hash file backed by the specified file, which may be
+     * empty.
+     *
+     * @param f the file that stores the on-disk backing store for this hash file.
+     * @param keyField the index of the field the file is hashed on
+     * @param td the schema of the tuples in the file
+     */
+    public HashFile(File f, int keyField, TupleDesc td) {
+        this.f = f;
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this HashFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /** @return the index of the field the file is hashed on */
+    public int keyField() {
+        return keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * The hash of a key.  The field's own hash code is mixed so that keys
+     * differing only in their high-order bits, such as small sequential
+     * integers times a power of two, still differ in the low-order bits
+     * that pick a directory entry.
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        HashPageId hpid = (HashPageId) pid;
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+            raf.seek((long) pid.pageno() * BufferPool.PAGE_SIZE);
+            int read = raf.read(pageData, 0, BufferPool.PAGE_SIZE);
+            raf.close();
+            // the header page of a new file has not been written yet
+            if (read == -1 && hpid.pgcateg() != HashPageId.HEADER) {
+                throw new IllegalArgumentException(pid.toString());
+            }
+            switch (hpid.pgcateg()) {
+            case HashPageId.HEADER:
+                return new HashHeaderPage(hpid, pageData);
+            case HashPageId.DIRECTORY:
+                return new HashDirectoryPage(hpid, pageData);
+            default:
+                return new HashBucketPage(hpid, pageData);
+            }
+        } catch (FileNotFoundException e) {
+            if (hpid.pgcateg() != HashPageId.HEADER) {
+                throw new IllegalArgumentException(pid.toString());
+            }
+            try {
+                return new HashHeaderPage(hpid, new byte[BufferPool.PAGE_SIZE]);
+            } catch (IOException e2) {
+                e2.printStackTrace();
+                System.exit(1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        return null; // should not get here
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.seek((long) page.getId().pageno() * BufferPool.PAGE_SIZE);
+        raf.write(page.getPageData(), 0, BufferPool.PAGE_SIZE);
+        raf.close();
+    }
+
+    /**
+     * Returns the number of pages in this HashFile, counting the header
+     * page even before it is written.
+     */
+    public int numPages() {
+        return (int) Math.max(1, f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    private HashHeaderPage getHeader(TransactionId tid, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (HashHeaderPage) Database.getBufferPool().getPage(tid,
+            new HashPageId(getId(), 0, HashPageId.HEADER), perm);
+    }
+
+    private HashDirectoryPage getDirectoryPage(TransactionId tid, HashHeaderPage header, int entry, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+            new HashPageId(getId(), header.getDirectoryPage(entry / HashDirectoryPage.ENTRIES), HashPageId.DIRECTORY),
+            perm);
+    }
+
+    private HashBucketPage getBucket(TransactionId tid, int pgNo, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        return (HashBucketPage) Database.getBufferPool().getPage(tid,
+            new HashPageId(getId(), pgNo, HashPageId.BUCKET), perm);
+    }
+
+    /** @return the page number of the bucket named by a directory entry */
+    private int bucketAt(TransactionId tid, HashHeaderPage header, int entry)
+        throws DbException, TransactionAbortedException {
+        return getDirectoryPage(tid, header, entry, Permissions.READ_ONLY)
+            .getBucket(entry % HashDirectoryPage.ENTRIES);
+    }
+
+    /** Mark a page dirty as soon as it changes, so the BufferPool will not evict it */
+    private static void dirty(TransactionId tid, Page p, Map<PageId, Page> dirtied) {
+        p.markDirty(true, tid);
+        dirtied.put(p.getId(), p);
+    }
+
+    /**
+     * Get an empty page of the specified category for writing: for a
+     * bucket, the first on the free list, or else a new one at the end of
+     * the file.
+     */
+    private Page newPage(TransactionId tid, int pgcateg, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        HashHeaderPage header = getHeader(tid, Permissions.READ_WRITE);
+        Page page;
+        if (pgcateg == HashPageId.BUCKET && header.getFreeBucket() != 0) {
+            HashBucketPage bucket = getBucket(tid, header.getFreeBucket(), Permissions.READ_WRITE);
+            header.setFreeBucket(bucket.getNext());
+            bucket.clear();
+            dirty(tid, header, dirtied);
+            page = bucket;
+        } else {
+            int pgNo;
+            synchronized (this) {
+                pgNo = numPages();
+                RandomAccessFile raf = new RandomAccessFile(f, "rw");
+                raf.seek((long) pgNo * BufferPool.PAGE_SIZE);
+                raf.write(new byte[BufferPool.PAGE_SIZE]);
+                raf.close();
+            }
+            page = Database.getBufferPool().getPage(tid, new HashPageId(getId(), pgNo, pgcateg), Permissions.READ_WRITE);
+        }
+        dirty(tid, page, dirtied);
+        return page;
+    }
+
+    /** Put an overflow page that is no longer in a chain on the free list */
+    private void freePage(TransactionId tid, HashBucketPage page, Map<PageId, Page> dirtied)
+        throws DbException, TransactionAbortedException {
+        HashHeaderPage header = getHeader(tid, Permissions.READ_WRITE);
+        page.clear();
+        page.setNext(header.getFreeBucket());
+        header.setFreeBucket(page.getId().pageno());
+        dirty(tid, page, dirtied);
+        dirty(tid, header, dirtied);
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        HashHeaderPage header = getHeader(tid, Permissions.READ_ONLY);
+        if (header.numDirectoryPages() == 0) {
+            header = getHeader(tid, Permissions.READ_WRITE);
+            HashDirectoryPage directory = (HashDirectoryPage) newPage(tid, HashPageId.DIRECTORY, dirtied);
+            HashBucketPage bucket = (HashBucketPage) newPage(tid, HashPageId.BUCKET, dirtied);
+            directory.setBucket(0, bucket.getId().pageno());
+            header.addDirectoryPage(directory.getId().pageno());
+            header.setGlobalDepth(0);
+            dirty(tid, header, dirtied);
+        }
+
+        int h = hash(t.getField(keyField));
+        while (true) {
+            int entry = h & (header.directorySize() - 1);
+            HashBucketPage bucket = getBucket(tid, bucketAt(tid, header, entry), Permissions.READ_WRITE);
+            HashBucketPage page = bucket;
+            while (page.isFull() && page.getNext() != 0) {
+                page = getBucket(tid, page.getNext(), Permissions.READ_WRITE);
+            }
+            if (!page.isFull()) {
+                page.insertTuple(t);
+                dirty(tid, page, dirtied);
+                return new ArrayList<Page>(dirtied.values());
+            }
+            if (bucket.getLocalDepth() >= MAX_GLOBAL_DEPTH || allHash(tid, bucket, h)) {
+                // splitting cannot make room: chain an overflow page
+                HashBucketPage overflow = (HashBucketPage) newPage(tid, HashPageId.BUCKET, dirtied);
+                overflow.setLocalDepth(bucket.getLocalDepth());
+                page.setNext(overflow.getId().pageno());
+                dirty(tid, page, dirtied);
+                overflow.insertTuple(t);
+                return new ArrayList<Page>(dirtied.values());
+            }
+            header = split(tid, header, entry, bucket, dirtied);
+        }
+    }
+
+    /** @return true if every tuple in the bucket's chain has the specified hash */
+    private boolean allHash(TransactionId tid, HashBucketPage bucket, int h)
+        throws DbException, TransactionAbortedException {
+        for (HashBucketPage page = bucket; ; page = getBucket(tid, page.getNext(), Permissions.READ_ONLY)) {
+            for (int i = 0; i < page.numTuples(); i++) {
+                if (hash(page.getTuple(i).getField(keyField)) != h) {
+                    return false;
+                }
+            }
+            if (page.getNext() == 0) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Split the bucket named by a directory entry on its next hash bit,
+     * doubling the directory first if the bucket's local depth has reached
+     * the global depth.  The overflow pages of the bucket are freed and
+     * its tuples divided between it and a new bucket, which takes over the
+     * entries whose next bit is set.
+     *
+     * @return the header, which the split may have changed
+     */
+    private HashHeaderPage split(TransactionId tid, HashHeaderPage header, int entry, HashBucketPage bucket,
+                                 Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        int depth = bucket.getLocalDepth();
+        if (depth == header.getGlobalDepth()) {
+            header = doubleDirectory(tid, dirtied);
+        }
+
+        List<Tuple> tuples = bucket.removeAll();
+        int next = bucket.getNext();
+        bucket.setNext(0);
+        dirty(tid, bucket, dirtied);
+        while (next != 0) {
+            HashBucketPage overflow = getBucket(tid, next, Permissions.READ_WRITE);
+            next = overflow.getNext();
+            tuples.addAll(overflow.removeAll());
+            freePage(tid, overflow, dirtied);
+        }
+
+        HashBucketPage sibling = (HashBucketPage) newPage(tid, HashPageId.BUCKET, dirtied);
+        bucket.setLocalDepth(depth + 1);
+        sibling.setLocalDepth(depth + 1);
+        List<Tuple> stay = new ArrayList<Tuple>();
+        List<Tuple> move = new ArrayList<Tuple>();
+        for (Tuple t : tuples) {
+            (((hash(t.getField(keyField)) >>> depth) & 1) == 0 ? stay : move).add(t);
+        }
+        fill(tid, bucket, stay, dirtied);
+        fill(tid, sibling, move, dirtied);
+
+        int step = 1 << (depth + 1);
+        for (int i = (entry & ((1 << depth) - 1)) | (1 << depth); i < header.directorySize(); i += step) {
+            HashDirectoryPage directory = getDirectoryPage(tid, header, i, Permissions.READ_WRITE);
+            directory.setBucket(i % HashDirectoryPage.ENTRIES, sibling.getId().pageno());
+            dirty(tid, directory, dirtied);
+        }
+        return header;
+    }
+
+    /** Put tuples into an empty bucket, chaining overflow pages as it fills */
+    private void fill(TransactionId tid, HashBucketPage bucket, List<Tuple> tuples, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage page = bucket;
+        for (Tuple t : tuples) {
+            if (page.isFull()) {
+                HashBucketPage overflow = (HashBucketPage) newPage(tid, HashPageId.BUCKET, dirtied);
+                overflow.setLocalDepth(bucket.getLocalDepth());
+                page.setNext(overflow.getId().pageno());
+                page = overflow;
+            }
+            page.insertTuple(t);
+        }
+        dirty(tid, page, dirtied);
+    }
+
+    /**
+     * Double the directory: the new upper half of the entries is a copy of
+     * the lower half, so every bucket is named by twice as many entries
+     * and no tuple moves.
+     */
+    private HashHeaderPage doubleDirectory(TransactionId tid, Map<PageId, Page> dirtied)
+        throws DbException, IOException, TransactionAbortedException {
+        HashHeaderPage header = getHeader(tid, Permissions.READ_WRITE);
+        int size = header.directorySize();
+        if (size < HashDirectoryPage.ENTRIES) {
+            HashDirectoryPage directory = getDirectoryPage(tid, header, 0, Permissions.READ_WRITE);
+            directory.copyFrom(directory, size, size);
+            dirty(tid, directory, dirtied);
+        } else {
+            int pages = header.numDirectoryPages();
+            for (int i = 0; i < pages; i++) {
+                HashDirectoryPage directory = getDirectoryPage(tid, header, i * HashDirectoryPage.ENTRIES,
+                                                               Permissions.READ_ONLY);
+                HashDirectoryPage copy = (HashDirectoryPage) newPage(tid, HashPageId.DIRECTORY, dirtied);
+                copy.copyFrom(directory, HashDirectoryPage.ENTRIES, 0);
+                header.addDirectoryPage(copy.getId().pageno());
+            }
+        }
+        header.setGlobalDepth(header.getGlobalDepth() + 1);
+        dirty(tid, header, dirtied);
+        return header;
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+        Map<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        HashHeaderPage header = getHeader(tid, Permissions.READ_ONLY);
+        if (header.numDirectoryPages() == 0) {
+            throw new DbException("Tuple not found.");
+        }
+        int entry = hash(t.getField(keyField)) & (header.directorySize() - 1);
+        HashBucketPage prev = null;
+        HashBucketPage page = getBucket(tid, bucketAt(tid, header, entry), Permissions.READ_WRITE);
+        while (!page.deleteTuple(t)) {
+            if (page.getNext() == 0) {
+                throw new DbException("Tuple not found.");
+            }
+            prev = page;
+            page = getBucket(tid, page.getNext(), Permissions.READ_WRITE);
+        }
+        dirty(tid, page, dirtied);
+        if (prev != null && page.numTuples() == 0) {
+            // unlink the emptied overflow page
+            prev.setNext(page.getNext());
+            dirty(tid, prev, dirtied);
+            freePage(tid, page, dirtied);
+        }
+        return page;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies a predicate,
+     * in no particular order.  EQUALS only reads the bucket the key hashes
+     * to; other operators scan the whole file.
+     *
+     * @param tid the transaction the iterator reads as part of
+     * @param op the comparison of the tuples' keys to key
+     * @param key the value to compare keys to
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new HashFileIterator(tid, op, key);
+    }
+
+    private class HashFileIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field key;
+        private HashHeaderPage header;
+        private int entry;
+        private int endEntry;
+        private HashBucketPage page;
+        private int index;
+
+        HashFileIterator(TransactionId tid, Predicate.Op op, Field key) {
+            this.tid = tid;
+            this.op = op;
+            this.key = key;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            header = getHeader(tid, Permissions.READ_ONLY);
+            page = null;
+            if (header.numDirectoryPages() == 0) {
+                entry = endEntry = 0;
+            } else if (op == Predicate.Op.EQUALS) {
+                entry = hash(key) & (header.directorySize() - 1);
+                endEntry = entry + 1;
+            } else {
+                entry = 0;
+                endEntry = header.directorySize();
+            }
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            page = null;
+            entry = endEntry = 0;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (page != null) {
+                    if (index < page.numTuples()) {
+                        Tuple t = page.getTuple(index++);
+                        if (op == null || t.getField(keyField).compare(op, key)) {
+                            return t;
+                        }
+                    } else {
+                        page = page.getNext() == 0 ? null
+                            : getBucket(tid, page.getNext(), Permissions.READ_ONLY);
+                        index = 0;
+                    }
+                    continue;
+                }
+                if (entry >= endEntry) {
+                    return null;
+                }
+                HashBucketPage bucket = getBucket(tid, bucketAt(tid, header, entry), Permissions.READ_ONLY);
+                // a scan reads each bucket from the lowest entry naming it
+                if (op == Predicate.Op.EQUALS || entry < 1 << bucket.getLocalDepth()) {
+                    page = bucket;
+                    index = 0;
+                }
+                entry++;
+            }
+        }
+    }
+
+    private final File f;
+    private final int keyField;
+    private final TupleDesc td;
+}
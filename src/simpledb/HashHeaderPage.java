@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * HashHeaderPage is page 0 of every {@link HashFile}.  It records the
+ * global depth of the directory -- the number of low-order hash bits that
+ * pick a directory entry -- where the pages holding the directory are,
+ * and the head of the list of free bucket pages.
+ * <p>
+ * The format is the global depth, the first free bucket page number (0
+ * for none), the number of directory pages (0 for an empty file) and
+ * their page numbers, in directory order.
+ */
+public class HashHeaderPage implements Page {
+
+    private static final int HEADER_BYTES = 12;
+
+    /** The most directory pages a header can list */
+    public static final int MAX_DIRECTORY_PAGES = (BufferPool.PAGE_SIZE - HEADER_BYTES) / 4;
+
+    /**
+     * Create a HashHeaderPage from a set of bytes of data read from disk.
+     *
+     * @see HashHeaderPage for the format of the data
+     */
+    public HashHeaderPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        globalDepth = dis.readInt();
+        freeBucket = dis.readInt();
+        numDirectoryPages = dis.readInt();
+        directoryPages = new int[MAX_DIRECTORY_PAGES];
+        for (int i = 0; i < numDirectoryPages; i++) {
+            directoryPages[i] = dis.readInt();
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of hash bits that pick a directory entry */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    public void setGlobalDepth(int globalDepth) {
+        this.globalDepth = globalDepth;
+    }
+
+    /** @return the number of directory entries */
+    public int directorySize() {
+        return 1 << globalDepth;
+    }
+
+    /** @return the number of pages holding the directory; 0 if the file is empty */
+    public int numDirectoryPages() {
+        return numDirectoryPages;
+    }
+
+    /** @return the page number of the i-th page of the directory */
+    public int getDirectoryPage(int i) {
+        return directoryPages[i];
+    }
+
+    /** Add a page to the end of the directory */
+    public void addDirectoryPage(int pgNo) {
+        if (numDirectoryPages == MAX_DIRECTORY_PAGES) {
+            throw new IllegalStateException("directory of " + pid + " is full");
+        }
+        directoryPages[numDirectoryPages++] = pgNo;
+    }
+
+    /** @return the first free bucket page, or 0 if there is none */
+    public int getFreeBucket() {
+        return freeBucket;
+    }
+
+    public void setFreeBucket(int pgNo) {
+        freeBucket = pgNo;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public HashHeaderPage getBeforeImage() {
+        try {
+            return new HashHeaderPage(pid, oldData);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(globalDepth);
+            dos.writeInt(freeBucket);
+            dos.writeInt(numDirectoryPages);
+            for (int i = 0; i < numDirectoryPages; i++) {
+                dos.writeInt(directoryPages[i]);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory does not fail
+            throw new RuntimeException(e);
+        }
+        return BTreePage.pad(baos);
+    }
+
+    private final HashPageId pid;
+    private int globalDepth;
+    private int freeBucket;
+    private int numDirectoryPages;
+    private final int[] directoryPages;
+    private TransactionId dirtier;
+    private byte[] oldData;
+}
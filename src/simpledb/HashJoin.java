@@ -0,0 +1,531 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The HashJoin operator implements an equality join by building an
+ * in-memory hash table over one input, keyed by its join field, and probing
+ * it with the tuples of the other input.  Each input is read exactly once.
+ * <p>
+ * Neither child can report its cardinality, so the build side is chosen
+ * while reading: tuples are pulled from the two children alternately until
+ * one of them runs out, and that (smaller) child becomes the build side.
+ * The tuples already read from the other child are probed first, then the
+ * rest of it is streamed through.
+ * <p>
+ * If both children outgrow the memory budget before either runs out, the
+ * join becomes a hybrid hash join with the right child as the build side.
+ * Both inputs are split into partitions by a hash of the join field.
+ * Partition 0 of the build side stays in memory as long as it fits, and
+ * probe tuples that hash to it are joined as they stream past.  Every
+ * other partition is written to a pair of {@link TupleSpillFile}s and
+ * joined afterwards, one pair at a time.  A build partition that still
+ * does not fit, because of skew, is partitioned again with a different
+ * hash, up to {@link #MAX_PARTITION_LEVELS} times.  After that it is
+ * joined a memory-sized chunk at a time, rescanning its probe partition
+ * once per chunk.
+ * <p>
+ * Once the build side is read, a {@link BloomFilter} of its keys is
+ * pushed down into the probe side if that is a {@link SeqScan}, possibly
+ * under {@link Filter}s, so that probe tuples that cannot match are
+ * dropped by the scan before they are filtered, buffered or hashed.  A
+ * partitioned join also checks the filter itself before spilling a probe
+ * tuple.
+ */
+public class HashJoin extends AbstractDbIterator {
+
+    /** Number of partitions each input is split into when spilling */
+    public static final int FANOUT = 16;
+
+    /** How many times a partition that is still too large is split again */
+    public static final int MAX_PARTITION_LEVELS = 3;
+
+    /**
+     * Constructor.  Accepts to children to join and the predicate
+     * to join them on
+     *
+     * @param p The predicate to use to join the children; its operator must be EQUALS
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DbConfig.joinMemoryBytes);
+    }
+
+    /**
+     * Constructor.  Accepts to children to join, the predicate to join
+     * them on, and the number of bytes of tuples the join may hold in memory
+     *
+     * @param p The predicate to use to join the children; its operator must be EQUALS
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     * @param memoryBytes The memory budget of the join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2, long memoryBytes) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("HashJoin only supports EQUALS, not " + p.getOperator());
+        }
+        this._p = p;
+        this.childIterator1 = child1;
+        this.childIterator2 = child2;
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.memoryBytes = memoryBytes;
+        this.leftBytes = estimateTupleBytes(child1.getTupleDesc());
+        this.rightBytes = estimateTupleBytes(child2.getTupleDesc());
+    }
+
+    /** Rough size of a tuple of the specified schema on the heap */
+    static long estimateTupleBytes(TupleDesc td) {
+        return td.getSize() + 16L * td.numFields() + 32;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return _p;
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        childIterator1.open();
+        childIterator2.open();
+        build();
+    }
+
+    public void close() {
+        super.close();
+        childIterator1.close();
+        childIterator2.close();
+        reset();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        reset();
+        childIterator1.rewind();
+        childIterator2.rewind();
+        build();
+    }
+
+    /** @return true if the last build ran out of memory and partitioned its inputs */
+    public boolean spilled() {
+        return partitioned;
+    }
+
+    /** @return the Bloom filter over the build side's keys, or null if the join has none */
+    public BloomFilter getProbeFilter() {
+        return probeFilter;
+    }
+
+    /**
+     * Push the Bloom filter over the build side's keys into the probe
+     * child, if it is a scan under nothing but Filters, which keep the
+     * fields where they are.
+     */
+    private void pushDownProbeFilter() {
+        SeqScan scan = SeqScan.underFilters(probeChild);
+        if (scan != null) {
+            scan.setSemiJoinFilter(probeField, probeFilter);
+            filteredScan = scan;
+        }
+    }
+
+    /** Drop the hash table and every spill file */
+    private void reset() {
+        table = null;
+        probeBuffer = null;
+        matches = null;
+        closeTask();
+        closeBacklog();
+        if (filteredScan != null) {
+            filteredScan.setSemiJoinFilter(0, null);
+            filteredScan = null;
+        }
+        probeFilter = null;
+        if (buildParts != null) {
+            for (int i = 0; i < FANOUT; i++) {
+                if (buildParts[i] != null) buildParts[i].delete();
+                if (probeParts[i] != null) probeParts[i].delete();
+            }
+            buildParts = null;
+            probeParts = null;
+        }
+        for (PartitionPair pair : pending) {
+            pair.delete();
+        }
+        pending.clear();
+        partitioned = false;
+    }
+
+    /**
+     * Read the smaller child into the hash table, leaving whatever was read
+     * of the larger child in probeBuffer.  If both children outgrow the
+     * memory budget, partition them instead.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        var left = new ArrayList<Tuple>();
+        var right = new ArrayList<Tuple>();
+        long bytes = 0;
+        while (true) {
+            if (!childIterator1.hasNext()) {
+                buildLeft = true;
+                break;
+            }
+            left.add(childIterator1.next());
+            if (!childIterator2.hasNext()) {
+                buildLeft = false;
+                break;
+            }
+            right.add(childIterator2.next());
+            bytes += leftBytes + rightBytes;
+            if (bytes > memoryBytes) {
+                buildPartitioned(left, right);
+                return;
+            }
+        }
+
+        var build = buildLeft ? left : right;
+        var buildField = buildLeft ? _p.getField1() : _p.getField2();
+        table = new HashMap<Field, ArrayList<Tuple>>(Math.max(16, build.size() * 4 / 3 + 1));
+        for (Tuple t : build) {
+            addToTable(t, buildField);
+        }
+        probeChild = buildLeft ? childIterator2 : childIterator1;
+        probeField = buildLeft ? _p.getField2() : _p.getField1();
+        probeBuffer = (buildLeft ? right : left).iterator();
+        matches = null;
+        if (DbConfig.joinBloomFilters) {
+            probeFilter = new BloomFilter(table.size(), DbConfig.bloomFalsePositiveRate);
+            for (Field key : table.keySet()) {
+                probeFilter.add(key);
+            }
+            pushDownProbeFilter();
+        }
+    }
+
+    private void addToTable(Tuple t, int buildField) {
+        table.computeIfAbsent(t.getField(buildField), k -> new ArrayList<Tuple>(1)).add(t);
+    }
+
+    /**
+     * Partition the right child, keeping partition 0 in memory while it
+     * fits, and set up the left child to be probed and partitioned as it
+     * streams.  left and right hold the tuples read so far.
+     */
+    private void buildPartitioned(ArrayList<Tuple> left, ArrayList<Tuple> right)
+        throws DbException, TransactionAbortedException {
+        partitioned = true;
+        buildLeft = false;
+        probeChild = childIterator1;
+        probeField = _p.getField1();
+        int buildField = _p.getField2();
+        long maxResident = Math.max(1, memoryBytes / rightBytes);
+
+        // the left tuples read so far can only be probed once the resident
+        // partition is complete; park them on disk until then
+        backlogFile = new TupleSpillFile(childIterator1.getTupleDesc());
+        for (Tuple t : left) {
+            backlogFile.add(t);
+        }
+        left.clear();
+        backlog = backlogFile.iterator();
+        backlog.open();
+        probeBuffer = null;
+
+        buildParts = new TupleSpillFile[FANOUT];
+        probeParts = new TupleSpillFile[FANOUT];
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        resident = true;
+        // sized for a build side up to FANOUT times the memory budget
+        probeFilter = DbConfig.joinBloomFilters ? new BloomFilter(
+            (int) Math.min(Integer.MAX_VALUE, maxResident * FANOUT), DbConfig.bloomFalsePositiveRate) : null;
+        long residentTuples = 0;
+        int buffered = 0;
+        while (true) {
+            Tuple t;
+            if (buffered < right.size()) {
+                t = right.get(buffered);
+                right.set(buffered++, null); // let it go once it's placed
+            } else if (childIterator2.hasNext()) {
+                t = childIterator2.next();
+            } else {
+                break;
+            }
+
+            if (probeFilter != null) {
+                probeFilter.add(t.getField(buildField));
+            }
+            int part = partition(t.getField(buildField), 0);
+            if (part == 0 && resident) {
+                addToTable(t, buildField);
+                if (++residentTuples > maxResident) {
+                    // partition 0 does not fit either; spill it like the rest
+                    buildParts[0] = new TupleSpillFile(childIterator2.getTupleDesc());
+                    for (ArrayList<Tuple> tuples : table.values()) {
+                        for (Tuple spilled : tuples) {
+                            buildParts[0].add(spilled);
+                        }
+                    }
+                    table.clear();
+                    resident = false;
+                }
+            } else {
+                if (buildParts[part] == null) {
+                    buildParts[part] = new TupleSpillFile(childIterator2.getTupleDesc());
+                }
+                buildParts[part].add(t);
+            }
+        }
+        matches = null;
+        if (probeFilter != null) {
+            pushDownProbeFilter();
+        }
+    }
+
+    /**
+     * Hash a join key to one of FANOUT partitions.  Each level mixes the
+     * key's hash differently, so that re-partitioning a partition spreads
+     * it out instead of sending everything to the same place again.
+     */
+    private static int partition(Field key, int level) {
+        int h = key.hashCode() ^ (0x9E3779B9 * (level + 1));
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, FANOUT);
+    }
+
+    /** Return the next tuple to probe the hash table with, or null if
+        the join is finished */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (probeChild != null) { // streaming the probe child
+                Tuple t;
+                if (probeBuffer != null && probeBuffer.hasNext()) {
+                    t = probeBuffer.next();
+                } else if (backlog != null && backlog.hasNext()) {
+                    t = backlog.next();
+                } else if (probeChild.hasNext()) {
+                    t = probeChild.next();
+                } else {
+                    finishStreaming();
+                    continue;
+                }
+                if (!partitioned) {
+                    return t;
+                }
+                if (probeFilter != null && !probeFilter.mightContain(t.getField(probeField))) {
+                    continue; // matches nothing; do not spill it
+                }
+                int part = partition(t.getField(probeField), 0);
+                if (part == 0 && resident) {
+                    return t;
+                }
+                if (buildParts[part] != null) { // no build tuples, no matches
+                    if (probeParts[part] == null) {
+                        probeParts[part] = new TupleSpillFile(childIterator1.getTupleDesc());
+                    }
+                    probeParts[part].add(t);
+                }
+                continue;
+            }
+
+            if (taskProbe != null) {
+                if (taskProbe.hasNext()) {
+                    return taskProbe.next();
+                }
+                if (loadChunk()) { // skewed partition: next chunk, rescan the probes
+                    taskProbe.rewind();
+                    continue;
+                }
+                closeTask();
+            }
+            if (!startNextTask()) {
+                return null;
+            }
+        }
+    }
+
+    /** The probe child is exhausted: queue up the spilled partitions */
+    private void finishStreaming() {
+        probeChild = null;
+        probeBuffer = null;
+        closeBacklog();
+        table = null;
+        if (!partitioned) {
+            return;
+        }
+        for (int i = 0; i < FANOUT; i++) {
+            if (buildParts[i] != null && probeParts[i] != null) {
+                pending.add(new PartitionPair(buildParts[i], probeParts[i], 0));
+            } else {
+                if (buildParts[i] != null) buildParts[i].delete();
+                if (probeParts[i] != null) probeParts[i].delete();
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+    }
+
+    /** Start joining the next pair of spilled partitions, splitting it
+        further first if it is too large.  Returns false if none is left. */
+    private boolean startNextTask() throws DbException, TransactionAbortedException {
+        long maxResident = Math.max(1, memoryBytes / rightBytes);
+        while (!pending.isEmpty()) {
+            PartitionPair pair = pending.poll();
+            if (pair.build.size() > maxResident && pair.level < MAX_PARTITION_LEVELS) {
+                repartition(pair);
+                continue;
+            }
+            task = pair;
+            taskBuild = pair.build.iterator();
+            taskBuild.open();
+            taskProbe = pair.probe.iterator();
+            taskProbe.open();
+            loadChunk();
+            return true;
+        }
+        return false;
+    }
+
+    /** Load the next memory-sized chunk of the current build partition
+        into the hash table.  Returns false if there was nothing left. */
+    private boolean loadChunk() throws DbException, TransactionAbortedException {
+        long maxResident = Math.max(1, memoryBytes / rightBytes);
+        table = new HashMap<Field, ArrayList<Tuple>>();
+        matches = null;
+        int loaded = 0;
+        while (loaded < maxResident && taskBuild.hasNext()) {
+            addToTable(taskBuild.next(), _p.getField2());
+            loaded++;
+        }
+        return loaded > 0;
+    }
+
+    private void closeBacklog() {
+        if (backlog != null) {
+            backlog.close();
+            backlogFile.delete();
+            backlog = null;
+            backlogFile = null;
+        }
+    }
+
+    private void closeTask() {
+        if (task != null) {
+            taskBuild.close();
+            taskProbe.close();
+            task.delete();
+            task = null;
+            taskBuild = null;
+            taskProbe = null;
+        }
+    }
+
+    /** Split both sides of a partition that is too large with the next
+        level's hash, queueing the resulting pairs */
+    private void repartition(PartitionPair pair) throws DbException, TransactionAbortedException {
+        TupleSpillFile[] builds = split(pair.build, _p.getField2(), pair.level + 1);
+        TupleSpillFile[] probes = split(pair.probe, _p.getField1(), pair.level + 1);
+        pair.delete();
+        for (int i = 0; i < FANOUT; i++) {
+            if (builds[i] != null && probes[i] != null) {
+                pending.add(new PartitionPair(builds[i], probes[i], pair.level + 1));
+            } else {
+                if (builds[i] != null) builds[i].delete();
+                if (probes[i] != null) probes[i].delete();
+            }
+        }
+    }
+
+    private TupleSpillFile[] split(TupleSpillFile f, int field, int level)
+        throws DbException, TransactionAbortedException {
+        TupleSpillFile[] parts = new TupleSpillFile[FANOUT];
+        DbIterator it = f.iterator();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int part = partition(t.getField(field), level);
+            if (parts[part] == null) {
+                parts[part] = new TupleSpillFile(f.getTupleDesc());
+            }
+            parts[part].add(t);
+        }
+        it.close();
+        return parts;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As with {@link Join}, the result is the concatenation of
+     * the matching left and right tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (matches == null || matchIndex == matches.size()) {
+            probeTuple = nextProbe();
+            if (probeTuple == null) {
+                return null;
+            }
+            matches = table.get(probeTuple.getField(probeField));
+            matchIndex = 0;
+        }
+        Tuple match = matches.get(matchIndex++);
+        return buildLeft ? new JoinedTuple(td, match, probeTuple) : new JoinedTuple(td, probeTuple, match);
+    }
+
+    /** A spilled build partition and the probe partition it joins with */
+    private static class PartitionPair {
+        PartitionPair(TupleSpillFile build, TupleSpillFile probe, int level) {
+            this.build = build;
+            this.probe = probe;
+            this.level = level;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+
+        final TupleSpillFile build;
+        final TupleSpillFile probe;
+        final int level;
+    }
+
+    private final JoinPredicate _p;
+    private final DbIterator childIterator1; // left
+    private final DbIterator childIterator2; // right
+    private final TupleDesc td;
+    private final long memoryBytes;
+    private final long leftBytes;
+    private final long rightBytes;
+
+    private HashMap<Field, ArrayList<Tuple>> table;
+    private boolean buildLeft;
+    private DbIterator probeChild;
+    private int probeField;
+    private Iterator<Tuple> probeBuffer;
+    private Tuple probeTuple;
+    private ArrayList<Tuple> matches;
+    private int matchIndex;
+    private BloomFilter probeFilter;
+    private SeqScan filteredScan;
+
+    // hybrid hash join state
+    private boolean partitioned = false;
+    private boolean resident;
+    private TupleSpillFile backlogFile;
+    private DbIterator backlog;
+    private TupleSpillFile[] buildParts;
+    private TupleSpillFile[] probeParts;
+    private final ArrayDeque<PartitionPair> pending = new ArrayDeque<PartitionPair>();
+    private PartitionPair task;
+    private DbIterator taskBuild;
+    private DbIterator taskProbe;
+}
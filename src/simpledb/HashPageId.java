@@ -0,0 +1,88 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a {@link HashFile}.  Besides the
+ * table and page number, the id records the category of the page, which
+ * tells the file how to parse it.  Page numbers are unique within a file,
+ * so the category is not part of the identity of the page.
+ */
+public class HashPageId implements PageId {
+
+    /** The header page, always page 0 of the file */
+    public static final int HEADER = 0;
+    /** A directory page, holding bucket page numbers */
+    public static final int DIRECTORY = 1;
+    /** A bucket page, primary or overflow, holding tuples */
+    public static final int BUCKET = 2;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash file.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param pgcateg The category of the page: HEADER, DIRECTORY or BUCKET
+     */
+    public HashPageId(int tableId, int pgNo, int pgcateg) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageno() {
+        return pgNo;
+    }
+
+    /** @return the category of this page: HEADER, DIRECTORY or BUCKET */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    /**
+     * @return a hash code for this page, built from the table number and
+     *   the page number
+     * @see BufferPool
+     */
+    public int hashCode() {
+        return 31 * tableId + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers and table
+     *   ids are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof PageId)) return false;
+        var pid = (PageId)o;
+        return this.pageno() == pid.pageno() &&
+            this.getTableId() == pid.getTableId();
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { tableId, pgNo, pgcateg };
+    }
+
+    public String toString() {
+        return "HashPageId(" + tableId + ", " + pgNo + ", " + pgcateg + ")";
+    }
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+}
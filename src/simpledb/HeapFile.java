@@ -23,6 +23,7 @@ public class HeapFile implements DbFile {
     public HeapFile(File f, TupleDesc td) {
         this.f = f;
         this.td = td;
+        this.zones = new ZoneMap(td);
     }
 
     /**
@@ -55,6 +56,11 @@ public class HeapFile implements DbFile {
     	return td;
     }
 
+    /** @return the per-page summaries of the int fields of this file */
+    public ZoneMap getZoneMap() {
+        return zones;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         HeapPageId hpid = (HeapPageId) pid;
@@ -69,6 +75,7 @@ public class HeapFile implements DbFile {
             }
             HeapPage page = new HeapPage(hpid, pageData);
             raf.close();
+            zones.summarize(page);
             return page;
         } catch (IOException e) {
             e.printStackTrace();
@@ -102,6 +109,7 @@ public class HeapFile implements DbFile {
         throws DbException, IOException, TransactionAbortedException {
         var pageForInsert = getPageForInsert(tid);
         pageForInsert.addTuple(t);
+        zones.include(pageForInsert.getId().pageno(), t);
         var result = new ArrayList<Page>();
         result.add(pageForInsert);
         return result;
@@ -119,6 +127,7 @@ public class HeapFile implements DbFile {
                 iTuples.close();
                 var page = (HeapPage)Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
                 page.deleteTuple(t);
+                zones.summarize(page);
                 return page;
             }
         }
@@ -130,6 +139,18 @@ public class HeapFile implements DbFile {
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that skips the
+     * pages its zone map shows cannot hold a tuple satisfying all of the
+     * predicates.  The tuples on the pages it reads are returned whether
+     * they satisfy the predicates or not.
+     *
+     * @see ZoneMap#mayMatch(int, List)
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(this, tid, predicates);
+    }
+
     private HeapPage getPageForInsert(TransactionId tid) throws IOException, TransactionAbortedException, DbException {
         var lastPageId = new HeapPageId(getId(), numPages() - 1);
         var page = (HeapPage)Database.getBufferPool().getPage(tid, lastPageId, Permissions.READ_WRITE);
@@ -144,5 +165,6 @@ public class HeapFile implements DbFile {
     
     private final File f;
     private final TupleDesc td;
+    private final ZoneMap zones;
 }
 
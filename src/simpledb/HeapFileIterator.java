@@ -1,16 +1,42 @@
 package simpledb;
 
 import java.io.Console;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 public class HeapFileIterator implements DbFileIterator {
 
     public HeapFileIterator(HeapFile hf, TransactionId tid) {
+        this(hf, tid, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Create an iterator that skips the pages whose zone map summaries
+     * show that no tuple on them satisfies all of the predicates.
+     */
+    public HeapFileIterator(HeapFile hf, TransactionId tid, List<Predicate> predicates) {
         this.tid = tid;
         bp = Database.getBufferPool();
         numPages = hf.numPages();
         fileId = hf.getId();
+        zones = hf.getZoneMap();
+        this.predicates = predicates;
+    }
+
+    /** @return the number of pages skipped without reading them since the iterator was opened */
+    public int pagesSkipped() {
+        return skipped.cardinality();
+    }
+
+    private boolean skip(int pgNo) {
+        if (predicates.isEmpty() || zones.mayMatch(pgNo, predicates)) {
+            return false;
+        }
+        skipped.set(pgNo);
+        return true;
     }
 
     @Override
@@ -26,6 +52,7 @@ public class HeapFileIterator implements DbFileIterator {
         if (curPageNo == -1) return false;
         if (curPageNo + 1 < numPages) {
             for (int i = curPageNo + 1; i < numPages; i++) {
+                if (skip(i)) continue;
                 PageId pageToPeak = new HeapPageId(fileId, i);
                 HeapPage peakPage = (HeapPage) bp.getPage(tid, pageToPeak, Permissions.READ_ONLY);
                 if (peakPage.getNumEmptySlots() < peakPage.numSlots) return true;
@@ -55,6 +82,10 @@ public class HeapFileIterator implements DbFileIterator {
         do {
             curPageNo++;
             if (curPageNo >= numPages) throw new NoSuchElementException();
+            if (skip(curPageNo)) {
+                curPage = null;
+                continue;
+            }
             PageId pageToRead = new HeapPageId(fileId, curPageNo);
             if (pageToRead.pageno() == 10) {
                 var foo = 10;
@@ -62,7 +93,7 @@ public class HeapFileIterator implements DbFileIterator {
             curPage = (HeapPage) bp.getPage(tid, pageToRead, Permissions.READ_ONLY);
             if (!curPage.getId().equals(pageToRead)) 
                 throw new DbException("The expected page was not read." + curPage.getId().hashCode() + " " + pageToRead.hashCode());
-        } while (curPage.getNumEmptySlots() == curPage.numSlots);
+        } while (curPage == null || curPage.getNumEmptySlots() == curPage.numSlots);
         
         curPageIterator = curPage.iterator();
     }
@@ -70,6 +101,7 @@ public class HeapFileIterator implements DbFileIterator {
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
         curPageIterator = null;
+        skipped.clear();
         curPageNo = -1;
         try {
             nextPage();
@@ -90,4 +122,7 @@ public class HeapFileIterator implements DbFileIterator {
     private int fileId;
     private int curPageNo = -1;
     private Iterator<Tuple> curPageIterator;
+    private final ZoneMap zones;
+    private final List<Predicate> predicates;
+    private final BitSet skipped = new BitSet();
 }
@@ -299,6 +299,14 @@ public class HeapPage implements Page {
         return (header[byteNum] & 1 << bitNum) > 0;
     }
 
+    /**
+     * Returns the tuple in the associated slot on this page, or null if
+     * the slot is empty.
+     */
+    public Tuple getTuple(int i) {
+        return getSlot(i) ? tuples[i] : null;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
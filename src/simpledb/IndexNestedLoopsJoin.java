@@ -0,0 +1,162 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The IndexNestedLoopsJoin operator joins an outer input to a table with
+ * an index on its join field by probing the index with each outer tuple's
+ * join key, instead of scanning the inner table for every outer tuple as
+ * {@link Join} does.  Each probe reads just the index pages and tuples
+ * matching the key, so the join is cheap when the outer input is small,
+ * however large the inner table is.
+ * <p>
+ * The inner input must be a {@link SeqScan}, possibly under
+ * {@link Filter}s, of a table the scan can be replaced by an
+ * {@link IndexScan} on; see {@link #canProbe}.  The scan itself is never
+ * read; the filters' predicates are applied to the tuples each probe
+ * returns.
+ */
+public class IndexNestedLoopsJoin extends AbstractDbIterator {
+
+    /**
+     * Constructor.  Accepts the outer input, the inner scan to probe, and
+     * the predicate to join them on
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 The right(inner) relation: a SeqScan, possibly under
+     *   Filters, of a table with an index on the predicate's right field
+     * @throws IllegalArgumentException if child2 cannot be probed for p
+     */
+    public IndexNestedLoopsJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!canProbe(child2, p.getField2(), p.getOperator())) {
+            throw new IllegalArgumentException("inner input has no index on field " + p.getField2()
+                                               + " supporting " + p.getOperator());
+        }
+        this._p = p;
+        this.childIterator1 = child1;
+        DbIterator inner = child2;
+        while (inner instanceof Filter) {
+            innerPredicates.add(((Filter) inner).getPredicate());
+            inner = ((Filter) inner).getChild();
+        }
+        this.innerScan = (SeqScan) inner;
+        this.probeOp = reverse(p.getOperator());
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the operator that compares an inner field to an outer one
+     * as op compares the outer field to the inner one
+     */
+    static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN: return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ: return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN: return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ: return Predicate.Op.LESS_THAN_OR_EQ;
+        default: return op;
+        }
+    }
+
+    /**
+     * @return true if an input can be the inner input of an index
+     * nested-loops join on one of its fields: it is a SeqScan, possibly
+     * under Filters, of a table with an index on the field that can find
+     * the tuples matching op
+     */
+    public static boolean canProbe(DbIterator inner, int field, Predicate.Op op) {
+        SeqScan scan = SeqScan.underFilters(inner);
+        return scan != null && IndexScan.supports(scan.getTableId(), field, reverse(op));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return _p;
+    }
+
+    /** @return the outer input, whose order the join's output keeps */
+    public DbIterator getOuter() {
+        return childIterator1;
+    }
+
+    /** @return the id of the table probed for each outer tuple */
+    public int getInnerTableId() {
+        return innerScan.getTableId();
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        childIterator1.open();
+        probe = null;
+    }
+
+    public void close() {
+        super.close();
+        childIterator1.close();
+        closeProbe();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        childIterator1.rewind();
+        closeProbe();
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As with {@link Join}, the result is the concatenation of
+     * the matching outer and inner tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null) {
+                while (probe.hasNext()) {
+                    Tuple inner = probe.next();
+                    if (passesInnerPredicates(inner)) {
+                        return new JoinedTuple(td, outerTuple, inner);
+                    }
+                }
+                closeProbe();
+            }
+            if (!childIterator1.hasNext()) {
+                return null;
+            }
+            outerTuple = childIterator1.next();
+            probe = new IndexScan(innerScan.getTransactionId(), innerScan.getTableId(), innerScan.getAlias(),
+                                  _p.getField2(), probeOp, outerTuple.getField(_p.getField1()));
+            probe.open();
+        }
+    }
+
+    private boolean passesInnerPredicates(Tuple t) {
+        for (Predicate p : innerPredicates) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final JoinPredicate _p;
+    private final DbIterator childIterator1; // outer
+    private final SeqScan innerScan;
+    private final ArrayList<Predicate> innerPredicates = new ArrayList<Predicate>();
+    private final Predicate.Op probeOp;
+    private final TupleDesc td;
+    private Tuple outerTuple;
+    private IndexScan probe;
+}
@@ -0,0 +1,166 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table stored
+ * in a {@link BTreeFile} whose key satisfies a predicate, in key order,
+ * visiting only the leaves that hold them for equality and range
+ * predicates.  Tables stored in a {@link HashFile} are probed for the
+ * tuples equal to a key, reading just the bucket it hashes to.  Tables
+ * stored in a {@link HeapFile} are read through a {@link SecondaryIndex}
+ * on the field, fetching just the heap pages holding the matching tuples.
+ */
+public class IndexScan implements DbIterator {
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan, which must be stored in a BTreeFile,
+     *   or in a HashFile if op is EQUALS.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param op the comparison of the key field to key
+     * @param key the value the key field is compared to
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, Predicate.Op op, Field key) {
+        this(tid, tableid, tableAlias, keyFieldOf(tableid), op, key);
+    }
+
+    /**
+     * Creates an index scan over the specified table, comparing the
+     * specified field, as a part of the specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan, which must be stored in a BTreeFile
+     *   keyed on field, in a HashFile keyed on field if op is EQUALS, or have
+     *   a SecondaryIndex on field.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param field the index of the field compared to key
+     * @param op the comparison of the field to key
+     * @param key the value the field is compared to
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int field, Predicate.Op op, Field key) {
+        var file = Database.getCatalog().getDbFile(tableid);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field) {
+            this.dbFileIterator = ((BTreeFile) file).indexIterator(tid, op, key);
+        } else if (file instanceof HashFile && ((HashFile) file).keyField() == field) {
+            if (op != Predicate.Op.EQUALS) {
+                throw new IllegalArgumentException("hash index on table " + tableid + " only supports EQUALS, not " + op);
+            }
+            this.dbFileIterator = ((HashFile) file).indexIterator(tid, op, key);
+        } else {
+            var index = Database.getCatalog().getIndex(tableid, field);
+            if (index == null) {
+                throw new IllegalArgumentException("table " + tableid + " has no index on field " + field);
+            }
+            this.dbFileIterator = index.iterator(tid, op, key);
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.op = op;
+        this.key = key;
+        this.keyField = field;
+    }
+
+    /**
+     * @return true if an IndexScan can find the tuples of a table whose
+     * field satisfies op: the table is stored in a B+ tree keyed on the
+     * field or has a secondary index on it, and op is an equality or range
+     * comparison, or the table is stored in a hash file keyed on the field
+     * and op is EQUALS
+     */
+    public static boolean supports(int tableid, int field, Predicate.Op op) {
+        if (op == Predicate.Op.LIKE || op == Predicate.Op.NOT_EQUALS) {
+            return false;
+        }
+        var file = Database.getCatalog().getDbFile(tableid);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyField() == field) {
+            return true;
+        }
+        if (file instanceof HashFile && ((HashFile) file).keyField() == field) {
+            return op == Predicate.Op.EQUALS;
+        }
+        return Database.getCatalog().getIndex(tableid, field) != null;
+    }
+
+    private static int keyFieldOf(int tableid) {
+        var file = Database.getCatalog().getDbFile(tableid);
+        if (file instanceof BTreeFile) {
+            return ((BTreeFile) file).keyField();
+        }
+        if (file instanceof HashFile) {
+            return ((HashFile) file).keyField();
+        }
+        throw new IllegalArgumentException("table " + tableid + " is not stored in a B+ tree or hash file");
+    }
+
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the id of the table this scan reads */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the alias the field names of this scan are prefixed with */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the index of the key field, which the output is sorted on in ascending order
+        (trivially so for a hash probe, whose tuples all share the key) */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    public void open()
+        throws DbException, TransactionAbortedException {
+        dbFileIterator.open();
+    }
+
+    /**
+     * Returns the TupleDesc with field names from the underlying BTreeFile,
+     * prefixed with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        return Database.getCatalog().getTupleDesc(tableid).withPrefix(tableAlias);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return dbFileIterator.hasNext();
+    }
+
+    public Tuple next()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        return dbFileIterator.next();
+    }
+
+    public void close() {
+        dbFileIterator.close();
+    }
+
+    public void rewind()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        dbFileIterator.rewind();
+    }
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final Predicate.Op op;
+    private final Field key;
+    private final int keyField;
+    private final DbFileIterator dbFileIterator;
+}
@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * IntGroupTable numbers the distinct int keys it is given, assigning
+ * groups 0, 1, 2, ... in order of first appearance.  It is an open
+ * addressing hash table over primitive arrays, so looking up a key
+ * allocates nothing, and callers keep their per-group state in arrays
+ * indexed by group number.
+ */
+public class IntGroupTable {
+
+    public IntGroupTable() {
+        slots = new int[16];
+        keys = new int[8];
+    }
+
+    /** @return the number of groups in this table */
+    public int size() {
+        return size;
+    }
+
+    /** @return the key of the specified group */
+    public int key(int group) {
+        return keys[group];
+    }
+
+    /** @return the hash of the key of the specified group */
+    public int hash(int group) {
+        return mix(keys[group]);
+    }
+
+    /**
+     * Return the group of the specified key, adding a new group if the key
+     * has not been seen before.
+     */
+    public int group(int key) {
+        int mask = slots.length - 1;
+        int i = mix(key) & mask;
+        while (true) {
+            int slot = slots[i];
+            if (slot == 0) {
+                break;
+            }
+            if (keys[slot - 1] == key) {
+                return slot - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        keys[size] = key;
+        slots[i] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Double the number of slots, keeping the table at most half full */
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int i = mix(keys[g]) & mask;
+            while (slots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = g + 1;
+        }
+    }
+
+    // slots hold group + 1, with 0 marking an empty slot
+    private int[] slots;
+    private int[] keys;
+    private int size = 0;
+}
@@ -1,61 +1,163 @@
 package simpledb;
 
-import java.util.ArrayList;
-
 /** A class to represent a fixed-width histogram over a single integer-based field.
+ * <p>
+ * The range [min, max] is split into buckets of equal width, a whole
+ * number of values each, except that the last bucket may be narrower.
+ * Within a bucket, values are assumed to be spread uniformly.
  */
 public class IntHistogram {
 
     /**
      * Create a new IntHistogram.
-     * 
+     *
      * This IntHistogram should maintain a histogram of integer values that it receives.
      * It should split the histogram into "buckets" buckets.
-     * 
+     *
      * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
+     *
      * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
+     * constant with respect to the number of values being histogrammed.  For example, you shouldn't
      * simply store every value that you see in a sorted list.
-     * 
+     *
      * @param buckets The number of buckets to split the input value into.
+     *   Fewer are used if the range holds fewer values.
      * @param min The minimum integer value that will ever be passed to this class for histogramming
      * @param max The maximum integer value that will ever be passed to this class for histogramming
      */
     public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
+        if (buckets < 1 || min > max) {
+            throw new IllegalArgumentException("no histogram of " + buckets + " buckets over [" + min + ", " + max + "]");
+        }
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.width = (range + buckets - 1) / buckets;
+        this.counts = new long[(int) ((range + width - 1) / width)];
     }
 
     /**
      * Add a value to the set of values that you are keeping a histogram of.
+     * Values outside [min, max] are counted in the nearest bucket.
      * @param v Value to add to the histogram
      */
     public void addValue(int v) {
-    	// some code goes here
+        counts[bucket(Math.max(min, Math.min(max, v)))]++;
+        total++;
+    }
+
+    /** @return the number of values added */
+    public long numValues() {
+        return total;
+    }
+
+    /** @return the bucket holding a value in the range */
+    private int bucket(int v) {
+        return (int) (((long) v - min) / width);
+    }
+
+    /** @return the least value in a bucket */
+    private long bucketLow(int b) {
+        return min + b * width;
+    }
+
+    /** @return the number of values a bucket covers */
+    private long bucketWidth(int b) {
+        return Math.min(width, max - bucketLow(b) + 1);
     }
 
     /**
      * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
      * return your estimate of the fraction of elements that are greater than 5.
-     * 
+     *
      * @param op Operator
      * @param v Value
      * @return Predicted selectivity of this particular operator and value
      */
     public double estimateSelectivity(Predicate.Op op, int v) {
+        if (total == 0) {
+            return op == Predicate.Op.NOT_EQUALS ? 1.0 : 0.0;
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(v);
+        case NOT_EQUALS:
+            return 1.0 - equal(v);
+        case GREATER_THAN:
+            return greater(v);
+        case GREATER_THAN_OR_EQ:
+            return greater(v) + equal(v);
+        case LESS_THAN:
+            return less(v);
+        case LESS_THAN_OR_EQ:
+            return less(v) + equal(v);
+        default:
+            throw new IllegalArgumentException("unsupported operator " + op);
+        }
+    }
+
+    /** @return the estimated fraction of values equal to v */
+    private double equal(int v) {
+        if (v < min || v > max) {
+            return 0.0;
+        }
+        int b = bucket(v);
+        return (double) counts[b] / bucketWidth(b) / total;
+    }
+
+    /** @return the estimated fraction of values greater than v */
+    private double greater(int v) {
+        if (v < min) {
+            return 1.0;
+        }
+        if (v >= max) {
+            return 0.0;
+        }
+        int b = bucket(v);
+        long above = bucketLow(b) + bucketWidth(b) - 1 - v;
+        double n = (double) counts[b] * above / bucketWidth(b);
+        for (int i = b + 1; i < counts.length; i++) {
+            n += counts[i];
+        }
+        return n / total;
+    }
 
-    	// some code goes here
-        return -1.0;
+    /** @return the estimated fraction of values less than v */
+    private double less(int v) {
+        if (v > max) {
+            return 1.0;
+        }
+        if (v <= min) {
+            return 0.0;
+        }
+        int b = bucket(v);
+        long below = v - bucketLow(b);
+        double n = (double) counts[b] * below / bucketWidth(b);
+        for (int i = 0; i < b; i++) {
+            n += counts[i];
+        }
+        return n / total;
     }
-    
+
     /**
      * @return A string describing this histogram, for debugging purposes
      */
     public String toString() {
-
-        // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder();
+        sb.append("IntHistogram(").append(total).append(" values in [").append(min).append(", ").append(max).append("]:");
+        for (int b = 0; b < counts.length; b++) {
+            sb.append(' ').append(bucketLow(b)).append('=').append(counts[b]);
+        }
+        return sb.append(')').toString();
     }
+
+    private final int min;
+    private final int max;
+    /** the number of values each bucket but perhaps the last covers */
+    private final long width;
+    private final long[] counts;
+    private long total;
 }
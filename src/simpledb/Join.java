@@ -18,13 +18,14 @@ public class Join extends AbstractDbIterator {
         this._p = p;
         this.childIterator1 = child1;
         this.childIterator2 = child2;
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     /**
      * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        return TupleDesc.combine(childIterator1.getTupleDesc(), childIterator2.getTupleDesc());
+        return td;
     }
 
     public void open()
@@ -71,15 +72,7 @@ public class Join extends AbstractDbIterator {
                 if (childIterator2.hasNext()) {
                     Tuple child2Next = childIterator2.next();
                     if (_p.filter(currentOuterTuple, child2Next)) {
-                        Tuple newTuple = new Tuple(getTupleDesc());
-                        for (int i = 0; i < getTupleDesc().numFields(); i++) {
-                            if (i < currentOuterTuple.getTupleDesc().numFields()) {
-                                newTuple.setField(i, currentOuterTuple.getField(i));
-                            } else {
-                                newTuple.setField(i, child2Next.getField(i - currentOuterTuple.getTupleDesc().numFields()));
-                            }
-                        }
-                        return newTuple;
+                        return new JoinedTuple(td, currentOuterTuple, child2Next);
                     }
                 } else {
                     currentOuterTuple = childIterator1.next();
@@ -94,5 +87,6 @@ public class Join extends AbstractDbIterator {
     private JoinPredicate _p;
     private DbIterator childIterator1; // outer
     private DbIterator childIterator2; // inner
+    private TupleDesc td;
     private Tuple currentOuterTuple;
 }
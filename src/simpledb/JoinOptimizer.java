@@ -10,6 +10,8 @@ import javax.swing.tree.*;
 public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    /** The algorithm of the last join of the best plan found for each set of joins */
+    private final HashMap<Set<LogicalJoinNode>, Algorithm> lastAlgorithms = new HashMap<Set<LogicalJoinNode>, Algorithm>();
 
     /** Constructor
         @param p the logical plan being optimized
@@ -54,13 +56,196 @@ public class JoinOptimizer {
         }
         
         JoinPredicate p = new JoinPredicate(t1id,lj.p,t2id);
-       
-        j = new Join(p,plan1,plan2);
+
+        Boolean order1 = sortOrder(plan1, t1id);
+        boolean sorted = order1 != null && order1.equals(sortOrder(plan2, t2id));
+        switch (chooseJoin(lj, plan1, plan2, t2id, sorted, stats)) {
+        case INDEX_NESTED_LOOPS:
+            // few enough outer tuples that probing the inner's index beats reading it
+            j = new IndexNestedLoopsJoin(p,plan1,plan2);
+            break;
+        case SORT_MERGE:
+            // both inputs already arrive sorted on the join fields
+            j = new SortMergeJoin(p,plan1,plan2,order1);
+            break;
+        case HASH:
+            // reads each input once, building on whichever is smaller
+            j = new HashJoin(p,plan1,plan2);
+            break;
+        default:
+            // scans plan2 once per buffer-pool-sized block of plan1
+            j = new BlockNestedLoopsJoin(p,plan1,plan2);
+        }
         
         return j;
 
     }
     
+    /**
+     * Choose the algorithm to run a join of two subplans as, by the same
+     * costs {@link #estimateJoinCost} charges.  An index nested-loops join
+     * is only considered if the inner can be probed and the cardinalities
+     * of both inputs can be estimated.
+     *
+     * @param sorted true if both inputs arrive in the same order of their join fields
+     */
+    private Algorithm chooseJoin(LogicalJoinNode lj, DbIterator plan1, DbIterator plan2, int t2id, boolean sorted,
+                                 HashMap<String, TableStats> stats) {
+        int blockTuples = BlockNestedLoopsJoin.defaultBlockTuples(plan1.getTupleDesc());
+        SeqScan inner = SeqScan.underFilters(plan2);
+        TableStats innerStats = inner == null ? null : stats.get(inner.getAlias());
+        double card1 = estimatePlanCardinality(plan1, stats);
+        double card2 = estimatePlanCardinality(plan2, stats);
+        if (lj instanceof LogicalSubplanJoinNode || !IndexNestedLoopsJoin.canProbe(plan2, t2id, lj.p)
+            || innerStats == null || card1 < 0 || card2 < 0) {
+            return chooseJoin(lj.p, sorted, -1, 0, 0, 0, 0, blockTuples);
+        }
+        double cost2 = innerStats.estimateScanCost();
+        double probe = indexProbeCost(inner.getTableId(), t2id, IndexNestedLoopsJoin.reverse(lj.p),
+                                      (int) card2, cost2, isPkey(lj.t2, lj.f2));
+        // every algorithm reads the outer once, so its cost does not sway the choice
+        return chooseJoin(lj.p, sorted, probe, (int) card1, (int) card2, 0, cost2, blockTuples);
+    }
+
+    /**
+     * Estimate the number of tuples a scan of a base table produces,
+     * through any filters applied to it, or -1 for other plans.
+     */
+    static double estimatePlanCardinality(DbIterator plan, HashMap<String, TableStats> stats) {
+        if (plan instanceof SeqScan) {
+            TableStats s = stats.get(((SeqScan) plan).getAlias());
+            return s == null ? -1 : s.estimateTableCardinality(1.0);
+        }
+        if (plan instanceof IndexScan) {
+            IndexScan scan = (IndexScan) plan;
+            TableStats s = stats.get(scan.getAlias());
+            return s == null ? -1 : s.estimateTableCardinality(
+                s.estimateSelectivity(scan.getKeyField(), scan.getOp(), scan.getKey()));
+        }
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            double card = estimatePlanCardinality(filter.getChild(), stats);
+            SeqScan scan = SeqScan.underFilters(filter);
+            TableStats s = scan == null ? null : stats.get(scan.getAlias());
+            if (card < 0 || s == null) {
+                return -1;
+            }
+            Predicate pred = filter.getPredicate();
+            return card * s.estimateSelectivity(pred.getField(), pred.getOp(), pred.getOperand());
+        }
+        return -1;
+    }
+
+    /** Fraction of a table assumed to match an equality on a non-key field, as in System R */
+    static final double EQUALITY_SELECTIVITY = 0.1;
+    /** Fraction of a table assumed to match a range comparison, as in System R */
+    static final double RANGE_SELECTIVITY = 1.0 / 3;
+
+    /**
+     * Estimate the cost of one probe of the index on a field of a table,
+     * for the tuples whose field satisfies op: the pages read, at the cost
+     * per page implied by the cost of a full scan, plus one per tuple
+     * found.
+     *
+     * @param tableid the table probed
+     * @param field the index of the field probed
+     * @param op the comparison of the field to the probe key
+     * @param card the number of tuples in the table
+     * @param scanCost the cost of a full scan of the table
+     * @param unique true if the field is a key of the table
+     * @return the estimated cost, or -1 if the table has no index on the
+     *   field that supports op
+     */
+    static double indexProbeCost(int tableid, int field, Predicate.Op op, int card, double scanCost, boolean unique) {
+        if (!IndexScan.supports(tableid, field, op)) {
+            return -1;
+        }
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        Type keyType = file.getTupleDesc().getType(field);
+        int pages = numPages(file);
+        double pageCost = scanCost / pages;
+        double matches = op != Predicate.Op.EQUALS ? card * RANGE_SELECTIVITY
+            : unique ? Math.min(1, card) : card * EQUALITY_SELECTIVITY;
+        double tuplesPerPage = Math.max(1.0, (double) card / pages);
+        double pagesRead;
+        if (file instanceof HashFile) {
+            // a directory page, then the bucket and its overflow chain
+            pagesRead = 1 + Math.max(1, Math.ceil(matches / tuplesPerPage));
+        } else if (file instanceof BTreeFile) {
+            // the internal pages down to the first match, then the leaves holding the matches
+            pagesRead = treeHeight(pages, keyType) + Math.ceil(matches / tuplesPerPage);
+        } else {
+            // the index's internal pages and leaves, then a heap page per match
+            int indexPages = numPages(Database.getCatalog().getIndex(tableid, field).getFile());
+            double entriesPerPage = Math.max(1.0, (double) card / indexPages);
+            pagesRead = treeHeight(indexPages, keyType) + Math.ceil(matches / entriesPerPage) + matches;
+        }
+        return pagesRead * pageCost + matches;
+    }
+
+    /** @return the number of internal levels of a B+ tree of the specified size */
+    private static int treeHeight(int pages, Type keyType) {
+        double fanout = BTreeInternalPage.maxKeys(keyType) + 1;
+        return Math.max(1, (int) Math.ceil(Math.log(pages) / Math.log(fanout)));
+    }
+
+    /** @return the number of pages in a file, at least 1 */
+    static int numPages(DbFile file) {
+        int pages = 1;
+        if (file instanceof HeapFile) {
+            pages = ((HeapFile) file).numPages();
+        } else if (file instanceof BTreeFile) {
+            pages = ((BTreeFile) file).numPages();
+        } else if (file instanceof HashFile) {
+            pages = ((HashFile) file).numPages();
+        }
+        return Math.max(1, pages);
+    }
+
+    /**
+     * Return the order in which a plan produces its tuples with respect to
+     * one of its fields: TRUE if ascending, FALSE if descending, or null
+     * if the plan makes no promise.  Plans that sort their output, and
+     * operators that keep their input's order, are recognized.
+     *
+     * @param plan the plan producing tuples
+     * @param field the index of the field in the plan's output
+     */
+    public static Boolean sortOrder(DbIterator plan, int field) {
+        if (plan instanceof OrderBy) {
+            OrderBy ob = (OrderBy) plan;
+            return ob.getOrderByField() == field ? ob.isAscending() : null;
+        }
+        if (plan instanceof Filter) {
+            return sortOrder(((Filter) plan).getChild(), field);
+        }
+        if (plan instanceof SortMergeJoin) {
+            SortMergeJoin smj = (SortMergeJoin) plan;
+            return smj.isSortedOn(field) ? smj.isAscending() : null;
+        }
+        if (plan instanceof IndexNestedLoopsJoin) {
+            // the matches of each outer tuple follow it, in the outer's order
+            IndexNestedLoopsJoin inl = (IndexNestedLoopsJoin) plan;
+            JoinPredicate jp = inl.getJoinPredicate();
+            int outerFields = inl.getOuter().getTupleDesc().numFields();
+            if (field < outerFields) {
+                return sortOrder(inl.getOuter(), field);
+            }
+            if (jp.getOperator() == Predicate.Op.EQUALS && field == outerFields + jp.getField2()) {
+                return sortOrder(inl.getOuter(), jp.getField1());
+            }
+            return null;
+        }
+        if (plan instanceof IndexScan) {
+            return ((IndexScan) plan).getKeyField() == field ? Boolean.TRUE : null;
+        }
+        if (plan instanceof SeqScan) {
+            DbFile file = Database.getCatalog().getDbFile(((SeqScan) plan).getTableId());
+            return file instanceof BTreeFile && ((BTreeFile) file).keyField() == field ? Boolean.TRUE : null;
+        }
+        return null;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -71,6 +256,18 @@ public class JoinOptimizer {
      * performed by your join.  Assume that the cost of a single predicate application
      * is roughly 1.
      *
+     * A join is costed as the algorithm {@link #instantiateJoin} runs it
+     * as.  An equality join is a {@link HashJoin}: one read of each input,
+     * a hash table insert per tuple of the smaller input, and a probe per
+     * tuple of the larger comparing it with the build tuples sharing its
+     * key.  Other joins are a {@link BlockNestedLoopsJoin}: one read of the
+     * inner per block of outer tuples, and a predicate application per
+     * pair.  The inputs are taken to be the base tables themselves, so an
+     * equality join of two tables stored in B+ trees keyed on the join
+     * fields is a merge join.  Either way, the join is an
+     * {@link IndexNestedLoopsJoin} instead if the inner (t2) table has an
+     * index on its join field and probing it once per outer tuple is
+     * cheaper.
      * 
      * @param j A LogicalJoinNode representing the join operation being performed.
      * @param card1 Estimated cardinality of the left-hand side of the query
@@ -80,16 +277,228 @@ public class JoinOptimizer {
      * @return An estimate of the cost of this query, in terms of cost1 and cost2
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, mergeable(j, new Vector<LogicalJoinNode>()));
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}
+     * does, given whether both inputs arrive sorted on the join fields.
+     * An equality join of sorted inputs is costed as the
+     * {@link SortMergeJoin} that {@link #instantiateJoin} then runs it as,
+     * which needs no hash table.
+     *
+     * @param sorted true if both inputs arrive in ascending order of their join fields
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2, boolean sorted) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, sorted, true);
+    }
+
+    /**
+     * Estimate the cost of a join, as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean)}
+     * does, given whether its inner is the t2 table itself, which an index
+     * nested-loops join can probe, or a plan joining it to other tables.
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2,
+                                    boolean sorted, boolean innerIsTable) {
         if (j instanceof LogicalSubplanJoinNode) {
         	// A LogicalSubplanJoinNode represents a subquery.
         	// You do not need to implement proper support for these for Lab 4.
         	return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT:  You may need to use the variable "j" if you implemented a join
-            //        algorithm that's more complicated than a basic nested-loops join.
-            return -1.0;
+            double probe = innerIsTable ? indexProbeCost(j, card2, cost2) : -1;
+            int blockTuples = blockTuples(j.t1);
+            Algorithm a = chooseJoin(j.p, sorted, probe, card1, card2, cost1, cost2, blockTuples);
+            return joinCost(a, probe, card1, card2, cost1, cost2, blockTuples);
+        }
+    }
+
+    /**
+     * @return the algorithm {@link #instantiateJoin} runs a join as, as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double, boolean, boolean)}
+     * costs it
+     */
+    private Algorithm chooseJoin(LogicalJoinNode j, int card1, int card2, double cost1, double cost2,
+                                 boolean sorted, boolean innerIsTable) {
+        double probe = innerIsTable ? indexProbeCost(j, card2, cost2) : -1;
+        return chooseJoin(j.p, sorted, probe, card1, card2, cost1, cost2, blockTuples(j.t1));
+    }
+
+    /** The algorithms {@link #instantiateJoin} runs joins as */
+    enum Algorithm { INDEX_NESTED_LOOPS, SORT_MERGE, HASH, BLOCK_NESTED_LOOPS }
+
+    /**
+     * Choose the algorithm to run a join as: a merge join if it is an
+     * equality of sorted inputs, a hash join if it is any other equality,
+     * and a block nested-loops join otherwise, unless probing the inner's
+     * index once per outer tuple is estimated to cost less.
+     *
+     * @param op the join predicate
+     * @param sorted true if both inputs arrive in the same order of their join fields
+     * @param probe the cost of one probe of the inner's index, or -1 if it cannot be probed
+     * @param blockTuples the number of outer tuples per block of a block nested-loops join
+     */
+    static Algorithm chooseJoin(Predicate.Op op, boolean sorted, double probe, int card1, int card2,
+                                double cost1, double cost2, int blockTuples) {
+        Algorithm a = op != Predicate.Op.EQUALS ? Algorithm.BLOCK_NESTED_LOOPS
+            : sorted ? Algorithm.SORT_MERGE : Algorithm.HASH;
+        if (probe >= 0 && joinCost(Algorithm.INDEX_NESTED_LOOPS, probe, card1, card2, cost1, cost2, blockTuples)
+                < joinCost(a, probe, card1, card2, cost1, cost2, blockTuples)) {
+            return Algorithm.INDEX_NESTED_LOOPS;
         }
+        return a;
+    }
+
+    /**
+     * Estimate the cost of running a join as an algorithm.
+     *
+     * @see #chooseJoin(Predicate.Op, boolean, double, int, int, double, double, int)
+     */
+    static double joinCost(Algorithm a, double probe, int card1, int card2, double cost1, double cost2, int blockTuples) {
+        switch (a) {
+        case INDEX_NESTED_LOOPS:
+            return cost1 + card1 * probe;
+        case SORT_MERGE:
+            return mergeJoinCost(card1, card2, cost1, cost2);
+        case HASH:
+            return hashJoinCost(card1, card2, cost1, cost2);
+        default:
+            return blockNestedLoopsCost(card1, card2, cost1, cost2, blockTuples);
+        }
+    }
+
+    /** Cost of inserting one tuple into a hash table, relative to one predicate application */
+    static final double HASH_BUILD_COST = 2;
+
+    /**
+     * Estimate the cost of a hash join: reading both inputs, building on
+     * the smaller, and probing with the larger, each probe comparing its
+     * tuple with the build tuples of the same key, assumed to be a
+     * fraction {@link #EQUALITY_SELECTIVITY} of them.
+     */
+    static double hashJoinCost(int card1, int card2, double cost1, double cost2) {
+        double build = Math.min(card1, card2), probe = Math.max(card1, card2);
+        return cost1 + cost2 + HASH_BUILD_COST * build + probe * (1 + build * EQUALITY_SELECTIVITY);
+    }
+
+    /**
+     * Estimate the cost of a merge join of inputs already sorted on the
+     * join fields: reading both inputs, advancing past each tuple once,
+     * and comparing the tuples of equal keys as a hash join's probes do.
+     */
+    static double mergeJoinCost(int card1, int card2, double cost1, double cost2) {
+        double build = Math.min(card1, card2), probe = Math.max(card1, card2);
+        return cost1 + cost2 + build + probe * (1 + build * EQUALITY_SELECTIVITY);
+    }
+
+    /**
+     * Estimate the cost of a block nested-loops join: reading the outer
+     * once, the inner once per block of outer tuples, and comparing every
+     * pair.
+     *
+     * @param blockTuples the number of outer tuples per block
+     */
+    static double blockNestedLoopsCost(int card1, int card2, double cost1, double cost2, int blockTuples) {
+        return cost1 + Math.ceil((double) card1 / blockTuples) * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * @return the number of tuples of a table that a
+     * {@link BlockNestedLoopsJoin} with it as the outer buffers per block,
+     * or 1 if the table is unknown
+     */
+    private int blockTuples(String table) {
+        Integer tableid = p.getTableId(table);
+        if (tableid == null) {
+            return 1;
+        }
+        return BlockNestedLoopsJoin.defaultBlockTuples(Database.getCatalog().getTupleDesc(tableid));
+    }
+
+    /**
+     * Return true if the plan instantiated from a left-deep join order
+     * produces its tuples in ascending order of a field, as
+     * {@link #sortOrder} will find: a base table stored in a B+ tree keyed
+     * on the field, a plan whose last join is a merge join on it, or one
+     * whose last join is an index nested-loops join with an outer input
+     * sorted on it.  The algorithm of the last join is the one chosen for
+     * it when the plan was costed by {@link #orderJoins}.
+     *
+     * @param plan the joins already made, or an empty vector for the base table alone
+     * @param table the alias of the table the field belongs to
+     * @param field the field, qualified by the alias or not
+     */
+    private boolean producesSorted(Vector<LogicalJoinNode> plan, String table, String field) {
+        if (plan.isEmpty()) {
+            int fieldId = fieldIndex(table, field);
+            if (fieldId < 0) {
+                return false;
+            }
+            DbFile file = Database.getCatalog().getDbFile(p.getTableId(table));
+            return file instanceof BTreeFile && ((BTreeFile) file).keyField() == fieldId;
+        }
+        LogicalJoinNode last = plan.lastElement();
+        Vector<LogicalJoinNode> prev = new Vector<LogicalJoinNode>(plan.subList(0, plan.size() - 1));
+        Algorithm a = lastAlgorithms.get(new HashSet<LogicalJoinNode>(plan));
+        if (a == Algorithm.SORT_MERGE) {
+            return (last.t1.equals(table) && fieldIndex(last.t1, last.f1) == fieldIndex(table, field))
+                || (table.equals(last.t2) && fieldIndex(last.t2, last.f2) == fieldIndex(table, field));
+        }
+        if (a == Algorithm.INDEX_NESTED_LOOPS) {
+            // the outer is the joins before it, or its t1 table if there are none
+            if (prev.isEmpty() ? last.t1.equals(table) : doesJoin(prev, table)) {
+                return producesSorted(prev, table, field);
+            }
+            return last.p == Predicate.Op.EQUALS && table.equals(last.t2)
+                && fieldIndex(last.t2, last.f2) == fieldIndex(table, field)
+                && producesSorted(prev, last.t1, last.f1);
+        }
+        return false;
+    }
+
+    /**
+     * Return true if a join of a left-deep plan with one more base table
+     * will be run as a merge join: it is an equality, and both of its
+     * inputs arrive sorted on the join fields.
+     *
+     * @param j the join, one of whose tables is in prev unless prev is empty
+     * @param prev the joins already made
+     */
+    private boolean mergeable(LogicalJoinNode j, Vector<LogicalJoinNode> prev) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2 == null || j.p != Predicate.Op.EQUALS) {
+            return false;
+        }
+        boolean left = prev.isEmpty() || doesJoin(prev, j.t1);
+        Vector<LogicalJoinNode> none = new Vector<LogicalJoinNode>();
+        return producesSorted(left ? prev : none, j.t1, j.f1) && producesSorted(left ? none : prev, j.t2, j.f2);
+    }
+
+    /** @return the index of a field in the schema of a table, by its alias, or -1 if there is no such field */
+    private int fieldIndex(String table, String field) {
+        Integer tableid = table == null ? null : p.getTableId(table);
+        if (tableid == null) {
+            return -1;
+        }
+        String name = field.startsWith(table + ".") ? field.substring(table.length() + 1) : field;
+        try {
+            return Database.getCatalog().getTupleDesc(tableid).nameToId(name);
+        } catch (NoSuchElementException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Estimate the cost of probing the index on the inner (t2) join field
+     * of a join for one outer tuple, or -1 if there is no such index.
+     *
+     * @see #indexProbeCost(int, int, Predicate.Op, int, double, boolean)
+     */
+    private double indexProbeCost(LogicalJoinNode j, int card2, double cost2) {
+        int fieldId = fieldIndex(j.t2, j.f2);
+        if (fieldId < 0) {
+            return -1;
+        }
+        return indexProbeCost(p.getTableId(j.t2), fieldId, IndexNestedLoopsJoin.reverse(j.p), card2, cost2, isPkey(j.t2, j.f2));
     }
 
     /**
@@ -109,9 +518,20 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // each tuple of the other side matches at most one key tuple
+            if (t1pkey && t2pkey) {
+                return Math.min(card1, card2);
+            } else if (t1pkey) {
+                return card2;
+            } else if (t2pkey) {
+                return card1;
+            }
+            return Math.max(card1, card2);
+        } else if (j.p == Predicate.Op.NOT_EQUALS) {
+            return (int) Math.min(Integer.MAX_VALUE, (long) card1 * card2);
         } else {
-            // some code goes here
-            return -1;
+            return (int) Math.min(Integer.MAX_VALUE, (double) card1 * card2 * RANGE_SELECTIVITY);
         }
     }
 
@@ -166,11 +586,35 @@ public class JoinOptimizer {
                                               boolean explain) throws ParsingException 
     {
 
-        // See the Lab 4 writeup for some hints as to how this function should work.
-
-        // some code goes here
-        //Replace the following
-        return joins;
+        // best left-deep order of each subset of the joins, smallest subsets first
+        PlanCache pc = new PlanCache();
+        lastAlgorithms.clear();
+        for (int size = 1; size <= joins.size(); size++) {
+            for (Set<LogicalJoinNode> joinSet : enumerateSubsets(joins, size)) {
+                double bestCost = Double.MAX_VALUE;
+                CostCard best = null;
+                for (LogicalJoinNode j : joinSet) {
+                    CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, j, joinSet, bestCost, pc);
+                    if (cc != null) {
+                        bestCost = cc.cost;
+                        best = cc;
+                    }
+                }
+                if (best != null) {
+                    pc.addPlan(joinSet, best.cost, best.card, best.plan);
+                    lastAlgorithms.put(joinSet, best.algorithm);
+                }
+            }
+        }
+        Vector<LogicalJoinNode> order = pc.getOrder(new HashSet<LogicalJoinNode>(joins));
+        if (order == null) {
+            // only cross products join every table
+            return joins;
+        }
+        if (explain) {
+            printJoins(order, pc, stats, filterSelectivities);
+        }
+        return order;
     } 
  
     //===================== Private Methods =================================
@@ -223,6 +667,7 @@ public class JoinOptimizer {
         double t1cost,t2cost;
         int t1card,t2card;
         boolean leftPkey, rightPkey;
+        boolean t1IsTable = true, t2IsTable = true;
 
         if (news.isEmpty()) { //base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -255,10 +700,16 @@ public class JoinOptimizer {
                 t2cost = j.t2 == null?0:stats.get(j.t2).estimateScanCost();
                 t2card = j.t2 == null?0:stats.get(j.t2).estimateTableCardinality(filterSelectivities.get(j.t2));
                 rightPkey = j.t2 == null?false:isPkey(j.t2,j.f2);
+                t1IsTable = false;
             } else if (doesJoin(prevBest, j.t2)) { //j.t2 is in prevbest (both shouldn't be)
-                t2cost = stats.get(j.t1).estimateScanCost();
-                t2card = stats.get(j.t1).estimateTableCardinality(filterSelectivities.get(j.t1));
-                rightPkey = isPkey(j.t1,j.f1);
+                // prevBest is the right side of j, as LogicalPlan will join them
+                t2cost = t1cost;
+                t2card = t1card;
+                rightPkey = leftPkey;
+                t2IsTable = false;
+                t1cost = stats.get(j.t1).estimateScanCost();
+                t1card = stats.get(j.t1).estimateTableCardinality(filterSelectivities.get(j.t1));
+                leftPkey = isPkey(j.t1,j.f1);
 
             } else {
                 //don't consider this plan if one of j.t1 or j.t2
@@ -267,13 +718,18 @@ public class JoinOptimizer {
             }
         }
                     
-        //case where prevbest is left
-        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost);
+        // a merge join if both sides arrive sorted on the join fields, either way round
+        boolean sorted = mergeable(j, prevBest);
+
+        // an index nested-loops join can only probe an inner that is a base table, not prevBest
+        double cost1 = estimateJoinCost(j,t1card,t2card, t1cost,t2cost, sorted, t2IsTable);
+        Algorithm algorithm = chooseJoin(j,t1card,t2card, t1cost,t2cost, sorted, t2IsTable);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost);
+        double cost2 = estimateJoinCost(j2,t2card,t1card, t2cost,t1cost, sorted, t1IsTable);
         if (cost2 < cost1) {
             boolean tmp;
+            algorithm = chooseJoin(j2,t2card,t1card, t2cost,t1cost, sorted, t1IsTable);
             j = j2;
             cost1 = cost2;
             tmp = rightPkey;
@@ -286,6 +742,7 @@ public class JoinOptimizer {
         CostCard cc = new CostCard();
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey, rightPkey);
         cc.cost = cost1;
+        cc.algorithm = algorithm;
         cc.plan = (Vector<LogicalJoinNode>)prevBest.clone();
         cc.plan.addElement(j);  //prevbest is left -- add new join to end
         return cc;
@@ -33,6 +33,18 @@ public class JoinPredicate {
         return field1.compare(op, field2);
     }
 
+    public int getField1() {
+        return field1Index;
+    }
+
+    public int getField2() {
+        return field2Index;
+    }
+
+    public Predicate.Op getOperator() {
+        return op;
+    }
+
     private int field1Index;
     private Predicate.Op op;
     private int field2Index;
@@ -0,0 +1,49 @@
+package simpledb;
+
+/**
+ * JoinedTuple is the concatenation of a left and a right tuple, as returned
+ * by the join operators.  Instead of copying every field into a new array
+ * it reads through to the two input tuples, so an output row costs one
+ * small object however wide the inputs are.  The combined TupleDesc is
+ * computed once by the operator and shared by all of its output.
+ * <p>
+ * Setting a field first copies the fields into the joined tuple, so the
+ * input tuples are never modified.
+ */
+public class JoinedTuple extends Tuple {
+
+    /**
+     * @param td the combined schema of the left and right tuples
+     * @param left the tuple supplying the first fields
+     * @param right the tuple supplying the remaining fields
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        this.left = left;
+        this.right = right;
+        this.leftFields = left.getTupleDesc().numFields();
+    }
+
+    public Field getField(int i) {
+        if (copy != null) {
+            return copy[i];
+        }
+        return i < leftFields ? left.getField(i) : right.getField(i - leftFields);
+    }
+
+    public void setField(int i, Field f) {
+        if (copy == null) {
+            Field[] fields = new Field[getTupleDesc().numFields()];
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = getField(j);
+            }
+            copy = fields;
+        }
+        copy[i] = f;
+    }
+
+    private final Tuple left;
+    private final Tuple right;
+    private final int leftFields;
+    private Field[] copy;
+}
@@ -0,0 +1,60 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * Limit returns the first n tuples of its child, in the child's order,
+ * and stops reading the child after that.
+ */
+public class Limit extends AbstractDbIterator {
+
+    /**
+     * Constructor.
+     *
+     * @param limit the number of tuples to return.
+     * @param child the tuples to limit.
+     */
+    public Limit(int limit, DbIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.limit = limit;
+        this.child = child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /** @return the most tuples this operator returns */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        returned = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (returned < limit && child.hasNext()) {
+            returned++;
+            return child.next();
+        }
+        return null;
+    }
+
+    private final int limit;
+    private final DbIterator child;
+    private int returned;
+}
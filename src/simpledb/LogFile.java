@@ -3,6 +3,8 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
 import java.lang.reflect.*;
 
 /**
@@ -18,7 +20,7 @@ Many of the methods here are synchronized (to prevent concurrent log
 writes from happening); many of the methods in BufferPool are also
 synchronized (for similar reasons.)  Problem is that BufferPool writes
 log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
+pages (on recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
 must not be declared synchronized and must begin with a block like:
 
@@ -39,17 +41,30 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
+<li> The log file itself holds a single long integer: the LSN of the
 last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> Log records live in segment files next to it, named after the log
+file with the segment number appended (log.0, log.1, ...).  Every
+segment covers a fixed-size range of LSNs: segment n holds LSNs
+[n * segmentSize, (n + 1) * segmentSize), and a record's LSN is that
+of its first byte.  Records never span segments; when a record does not
+fit in the remainder of a segment it starts the next one.  Truncating
+the log after a checkpoint is therefore just deleting the segments
+that lie entirely before the oldest LSN still needed.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Log records are variable length.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record begins with an integer type, a long integer
+transaction id, and the long integer LSN of the previous record written
+by the same transaction (-1 if there is none.)  Following these prevLSNs
+walks a transaction's records backwards without reading anyone else's.
+
+<li> Each log record ends with an integer CRC32C checksum of everything
+before it in the record, followed by a long integer LSN representing
+the position in the log where the record began.  Recovery stops at the
+first record whose checksum or LSN does not match, so a record torn by
+a crash is never mistaken for valid data.
 
 <li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
 CHECKPOINT
@@ -59,22 +74,34 @@ CHECKPOINT
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+methods.  See LogFile.print() for an example.  The page data of an
+image is Deflate-compressed when {@link DbConfig#compressLogImages} is
+set and compression makes it smaller; the stored length then differs
+from the page size written before it.
 
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
-for each active transaction.
+for each active transaction.  Offsets are LSNs.  This is followed by
+the dirty page table: an integer count of dirty pages, and for each one
+its page id (serialized as in UPDATE records) and a long integer recLSN,
+the earliest LSN from which the page's updates may need to be redone.
 
 </ul>
 
+<p> Checkpoints are fuzzy: they capture the active transaction and dirty
+page tables without writing any pages, and hand the dirty pages to the
+buffer pool's {@link BackgroundWriter}, so transactions keep running
+while pages drain to disk.  Recovery and truncation start from the
+oldest LSN either table still references.
+
 */
 
 public class LogFile {
 
     File logFile;
-    RandomAccessFile raf;
+    RandomAccessFile raf; // holds the LSN of the last checkpoint
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -83,15 +110,30 @@ public class LogFile {
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_TID = -1;
+    static final long NO_PREV_LSN = -1;
 
     static int INT_SIZE = 4;
     static int LONG_SIZE = 8;
 
-    long currentOffset = -1;
+    long currentOffset = -1; // LSN the next record will be written at
     int pageSize;
     int totalRecords = 0; // for PatchTest
 
+    final long segmentSize;
+    TreeMap<Long,LogSegment> segments = new TreeMap<Long,LogSegment>();
+    LogSegment tail; // the segment being appended to
+
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    HashMap<Long,Long> tidToLastLogRecord = new HashMap<Long,Long>();
+
+    boolean compressImages = DbConfig.compressLogImages;
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    int checkpointCount = 0;
+    long lastCheckpointNanos = 0;
+    long maxCheckpointNanos = 0;
+    long totalCheckpointNanos = 0;
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -105,10 +147,34 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DbConfig.logSegmentSize);
+    }
+
+    /** Constructor.
+        Initialize and back the log file with the specified file, splitting
+        the log into segments covering segmentSize LSNs each.
+
+        @param f The log file's name
+        @param segmentSize The size of each log segment in bytes
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
+        this.segmentSize = segmentSize;
         raf = new RandomAccessFile(f, "rw");
         recoveryUndecided = true;
 
+        File dir = f.getAbsoluteFile().getParentFile();
+        String prefix = f.getName() + ".";
+        for (String name : dir.list()) {
+            if (name.startsWith(prefix) && name.substring(prefix.length()).matches("[0-9]+")) {
+                long number = Long.parseLong(name.substring(prefix.length()));
+                segments.put(number, new LogSegment(new File(dir, name), number, segmentSize));
+            }
+        }
+        if (!segments.isEmpty()) {
+            tail = segments.lastEntry().getValue();
+        }
+
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
                 // public void run() { shutdown(); }
@@ -130,9 +196,88 @@ public class LogFile {
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            for (LogSegment segment : segments.values()) {
+                segment.delete();
+            }
+            segments.clear();
+            tail = openSegment(0);
+            currentOffset = tail.endLsn();
+        }
+    }
+
+    /** Create (or open) the segment with the specified number and make it
+        part of the log. */
+    LogSegment openSegment(long number) throws IOException {
+        File f = new File(logFile.getAbsoluteFile().getParentFile(), logFile.getName() + "." + number);
+        LogSegment segment = new LogSegment(f, number, segmentSize);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    /** Return the segment containing the specified LSN, or null if
+        nothing has been written there. */
+    LogSegment segmentFor(long lsn) {
+        LogSegment segment = segments.get(lsn / segmentSize);
+        if (segment == null || !segment.contains(lsn)) return null;
+        return segment;
+    }
+
+    /** Position the log at the specified LSN, returning the file of the
+        segment containing it. */
+    RandomAccessFile seek(long lsn) throws IOException {
+        LogSegment segment = segmentFor(lsn);
+        if (segment == null) {
+            throw new IOException("LSN " + lsn + " is not in the log");
+        }
+        return segment.seek(lsn);
+    }
+
+    /** Start a record of the specified type for the specified
+        transaction, writing its header to body.
+
+        @return a stream for writing the rest of the record into body
+    */
+    DataOutputStream startRecord(ByteArrayOutputStream body, int type, long tid) throws IOException {
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(type);
+        out.writeLong(tid);
+        Long prevLsn = tidToLastLogRecord.get(tid);
+        out.writeLong(prevLsn == null ? NO_PREV_LSN : prevLsn);
+        return out;
+    }
+
+    /** Append a record started with {@link #startRecord} to the log.  The
+        body holds everything except the trailing checksum and start LSN,
+        which are added here once it is known where the record lands.
+
+        @return the LSN of the record
+    */
+    long appendRecord(ByteArrayOutputStream body, long tid) throws IOException {
+        int size = body.size() + INT_SIZE + LONG_SIZE;
+        if (tail.length() > 0 && tail.length() + size > segmentSize) {
+            // records don't span segments; make sure the old one is durable before moving on
+            tail.force();
+            tail = openSegment(tail.number() + 1);
+        }
+        long lsn = tail.endLsn();
+        CRC32C crc = new CRC32C();
+        body.writeTo(new CheckedOutputStream(OutputStream.nullOutputStream(), crc));
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt((int) crc.getValue());
+        out.writeLong(lsn);
+        tail.append(body.toByteArray());
+        currentOffset = tail.endLsn();
+        if (tidToFirstLogRecord.containsKey(tid)) {
+            tidToLastLogRecord.put(tid, lsn);
         }
+        return lsn;
+    }
+
+    /** Write a record that has no body beyond its header */
+    long appendRecord(int type, long tid) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(2 * INT_SIZE + 3 * LONG_SIZE);
+        startRecord(body, type, tid);
+        return appendRecord(body, tid);
     }
 
     public int getTotalRecords() {
@@ -158,12 +303,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                appendRecord(ABORT_RECORD, tid.getId());
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLogRecord.remove(tid.getId());
             }
         }
     }
@@ -178,12 +321,10 @@ public class LogFile {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        appendRecord(COMMIT_RECORD, tid.getId());
         force();
         tidToFirstLogRecord.remove(tid.getId());
+        tidToLastLogRecord.remove(tid.getId());
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -197,30 +338,30 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + currentOffset);
         preAppend();
         /* update record conists of
 
            record type
            transaction id
+           previous LSN of the transaction
            before page data (see writePageData)
            after page data
+           checksum
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        ByteArrayOutputStream body = new ByteArrayOutputStream(2 * BufferPool.PAGE_SIZE + 256);
+        DataOutputStream out = startRecord(body, UPDATE_RECORD, tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(out,before);
+        writePageData(out,after);
+        appendRecord(body, tid.getId());
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
 
         //page data is:
         // page class name
@@ -228,34 +369,100 @@ public class LogFile {
         // id class bytes
         // id class data
         // page class bytes
-        // page class data
+        // stored bytes
+        // page class data, possibly compressed
 
         String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
 
         raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        writePageId(raf, pid);
+        byte[] pageData = p.getPageData();
+        byte[] stored = compressImages ? compress(pageData) : pageData;
+        raf.writeInt(pageData.length);
+        raf.writeInt(stored.length);
+        raf.write(stored);
+        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    }
 
+    /** Write a page id as its class name followed by its serialized form */
+    void writePageId(DataOutput raf, PageId pid) throws IOException {
+        int pageInfo[] = pid.serialize();
+        raf.writeUTF(pid.getClass().getName());
         raf.writeInt(pageInfo.length);
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
+    Page readPageData(DataInput raf) throws IOException {
         String pageClassName = raf.readUTF();
         String idClassName = raf.readUTF();
+        PageId pid = readPageId(raf, idClassName);
+
+        int pageSize = raf.readInt();
+        byte[] stored = new byte[raf.readInt()];
+        raf.readFully(stored); //read before image
+
+        return instantiatePage(pageClassName, pid, decompress(stored, pageSize));
+    }
+
+    /** Compress a page image, returning it unchanged if compression does
+        not make it smaller.  Only called with the log monitor held. */
+    byte[] compress(byte[] pageData) {
+        deflater.reset();
+        deflater.setInput(pageData);
+        deflater.finish();
+        byte[] buf = new byte[pageData.length];
+        int len = 0;
+        while (!deflater.finished() && len < buf.length) {
+            len += deflater.deflate(buf, len, buf.length - len);
+        }
+        if (!deflater.finished() || len >= pageData.length) {
+            return pageData;
+        }
+        return Arrays.copyOf(buf, len);
+    }
+
+    /** Undo {@link #compress}: stored is the image as written to the log
+        and pageSize the length of the page it holds.  Safe to call from
+        several threads at once. */
+    static byte[] decompress(byte[] stored, int pageSize) throws IOException {
+        if (stored.length == pageSize) {
+            return stored;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] pageData = new byte[pageSize];
+            int len = 0;
+            while (len < pageSize && !inflater.finished()) {
+                int n = inflater.inflate(pageData, len, pageSize - len);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                len += n;
+            }
+            if (len != pageSize) {
+                throw new IOException("Compressed page image is " + len + " bytes, expected " + pageSize);
+            }
+            return pageData;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed page image", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Turn compression of the page images in UPDATE records on or off.
+        Records already in the log are unaffected; they can be read
+        either way. */
+    public synchronized void setCompressImages(boolean compressImages) {
+        this.compressImages = compressImages;
+    }
 
+    PageId readPageId(DataInput raf, String idClassName) throws IOException {
         try {
             Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
 
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
@@ -263,20 +470,32 @@ public class LogFile {
             for (int i = 0; i<numIdArgs;i++) {
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            return (PageId)idConsts[0].newInstance(idArgs);
+        } catch (ClassNotFoundException e){
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InstantiationException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (IllegalAccessException e) {
+            e.printStackTrace();
+            throw new IOException();
+        } catch (InvocationTargetException e) {
+            e.printStackTrace();
+            throw new IOException();
+        }
+    }
 
+    Page instantiatePage(String pageClassName, PageId pid, byte[] pageData) throws IOException {
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
             Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
+            return (Page)pageConsts[0].newInstance(pageArgs);
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
             e.printStackTrace();
@@ -291,8 +510,31 @@ public class LogFile {
             e.printStackTrace();
             throw new IOException();
         }
-        return newPage;
+    }
 
+    /** Read the body of an UPDATE record, positioned in the specified
+        segment, without reading either page image into memory; the images
+        are skipped and only their LSNs are remembered.
+    */
+    LogUpdateRecord readUpdateRecord(LogSegment segment, long tid) throws IOException {
+        RandomAccessFile in = segment.seek(segment.position());
+        String pageClassName = in.readUTF();
+        PageId pid = readPageId(in, in.readUTF());
+        int pageSize = in.readInt();
+        int beforeLength = in.readInt();
+        long beforeOffset = segment.position();
+        in.seek(in.getFilePointer() + beforeLength);
+
+        //the after image has the same page and id classes
+        in.readUTF();
+        readPageId(in, in.readUTF());
+        in.readInt();
+        int afterLength = in.readInt();
+        long afterOffset = segment.position();
+        in.seek(in.getFilePointer() + afterLength);
+
+        return new LogUpdateRecord(tid, pid, pageClassName, beforeOffset, beforeLength,
+                                   afterOffset, afterLength, pageSize);
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -307,150 +549,156 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = appendRecord(BEGIN_RECORD, tid.getId());
+        tidToFirstLogRecord.put(tid.getId(), lsn);
+        tidToLastLogRecord.put(tid.getId(), lsn);
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.  The checkpoint
+        is fuzzy: no pages are flushed while it is taken.  The dirty pages
+        are instead handed to the background writer afterwards.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+        long startTime = System.nanoTime();
+        // must not hold the log monitor while taking the buffer pool's
+        HashMap<PageId, TransactionId> dirtyPages = Database.getBufferPool().dirtyPages();
+
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + currentOffset);
+            preAppend();
+            long startCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            //no tid , but leave space for convenience
+            DataOutputStream out = startRecord(body, CHECKPOINT_RECORD, NO_TID);
+
+            //write list of outstanding transactions
+            out.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                out.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                out.writeLong(tidToFirstLogRecord.get(key));
+            }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+            //write the dirty page table; a page can only have been
+            // dirtied after the transaction that dirtied it began
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, TransactionId> dirty : dirtyPages.entrySet()) {
+                writePageId(out, dirty.getKey());
+                Long recLsn = tidToFirstLogRecord.get(dirty.getValue().getId());
+                out.writeLong(recLsn == null ? currentOffset : recLsn);
             }
+            startCpOffset = appendRecord(body, NO_TID);
+            force();
+
+            //once the CP is written, make sure the CP location in
+            // the log file is updated
+            raf.seek(0);
+            raf.writeLong(startCpOffset);
+            raf.getChannel().force(true);
+            //Debug.log("CP OFFSET = " + currentOffset);
+
+            long elapsed = System.nanoTime() - startTime;
+            checkpointCount++;
+            lastCheckpointNanos = elapsed;
+            totalCheckpointNanos += elapsed;
+            maxCheckpointNanos = Math.max(maxCheckpointNanos, elapsed);
         }
 
+        Database.getBufferPool().getBackgroundWriter().schedule(dirtyPages.keySet());
         logTruncate();
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+    /** Read the body of a checkpoint record, positioned just after its
+        header, adding the transactions active at the checkpoint to
+        live (if it is not null.)
 
+        @return the oldest LSN referenced by the active transaction or
+        dirty page tables, or cpLoc if both are empty
+    */
+    long readCheckpoint(DataInput in, long cpLoc, Set<Long> live) throws IOException {
         long minLogRecord = cpLoc;
-
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
+        int numOutstanding = in.readInt();
+        for (int i = 0; i < numOutstanding; i++) {
+            long tid = in.readLong();
+            long firstLogRecord = in.readLong();
+            if (live != null) {
+                live.add(tid);
             }
+            minLogRecord = Math.min(minLogRecord, firstLogRecord);
         }
+        int numDirty = in.readInt();
+        for (int i = 0; i < numDirty; i++) {
+            readPageId(in, in.readUTF());
+            long recLsn = in.readLong();
+            minLogRecord = Math.min(minLogRecord, recLsn);
+        }
+        return minLogRecord;
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
+    /** @return the number of checkpoints taken since this log was opened */
+    public synchronized int getCheckpointCount() {
+        return checkpointCount;
+    }
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+    /** @return how long the last checkpoint took, in microseconds */
+    public synchronized long getLastCheckpointMicros() {
+        return lastCheckpointNanos / 1000;
+    }
 
-                Debug.log("NEW START = " + newStart);
+    /** @return the longest any checkpoint has taken, in microseconds */
+    public synchronized long getMaxCheckpointMicros() {
+        return maxCheckpointNanos / 1000;
+    }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+    /** @return the total time spent taking checkpoints, in microseconds */
+    public synchronized long getTotalCheckpointMicros() {
+        return totalCheckpointNanos / 1000;
+    }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption.  Everything before the last checkpoint and the first
+        record of every transaction active at that checkpoint, and the
+        recLSN of every page dirty at that checkpoint, is no longer
+        needed; since LSNs never change, the segments holding only such
+        records are simply deleted, and nothing is copied.
+    */
+    public synchronized void logTruncate() throws IOException {
+        preAppend();
+        raf.seek(0);
+        long cpLoc = raf.readLong();
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
+        if (cpLoc == NO_CHECKPOINT_ID) {
+            return;
+        }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+        RandomAccessFile in = seek(cpLoc);
+        int cpType = in.readInt();
+        @SuppressWarnings("unused")
+        long cpTid = in.readLong();
+        in.readLong(); // prevLSN
 
-            } catch (EOFException e) {
-                break;
-            }
+        if (cpType != CHECKPOINT_RECORD) {
+            throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
+        long minLogRecord = readCheckpoint(in, cpLoc, null);
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        // we can truncate every segment that ends before minLogRecord
+        long firstNeeded = minLogRecord / segmentSize;
+        int deleted = 0;
+        while (segments.firstKey() < firstNeeded) {
+            segments.pollFirstEntry().getValue().delete();
+            deleted++;
+        }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+        Debug.log("TRUNCATING LOG;  DELETED " + deleted + " SEGMENTS ; NEW START : " + minLogRecord + " FIRST SEGMENT: " + segments.firstKey());
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -466,7 +714,26 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not live");
+                }
+
+                // walk this transaction's records from newest to oldest;
+                // the before image installed last is that of its first
+                // update to each page
+                Long lsn = tidToLastLogRecord.get(tid.getId());
+                while (lsn != null && lsn != NO_PREV_LSN) {
+                    RandomAccessFile in = seek(lsn);
+                    int type = in.readInt();
+                    in.readLong();
+                    long prevLsn = in.readLong();
+                    if (type == UPDATE_RECORD) {
+                        Page before = readPageData(in);
+                        Database.getCatalog().getDbFile(before.getId().getTableId()).writePage(before);
+                        Database.getBufferPool().discardPage(before.getId());
+                    }
+                    lsn = prevLsn;
+                }
             }
         }
     }
@@ -475,10 +742,15 @@ public class LogFile {
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+                for (LogSegment segment : segments.values()) {
+                    segment.close();
+                }
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,23 +760,212 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        The log is scanned once to find the outcome of every transaction
+        and the updates made to each page.  The redo phase is then
+        partitioned by PageId: every page's updates are replayed, in log
+        order, by exactly one of {@link DbConfig#recoveryThreads} worker
+        threads, so pages are restored in parallel without any ordering
+        constraints between workers.
     */
     public void recover() throws IOException {
+        recover(DbConfig.recoveryThreads);
+    }
+
+    /** Recover the database system, running the redo phase on the
+        specified number of worker threads.
+
+        @param numThreads The number of redo workers
+        @see #recover()
+    */
+    public void recover(int numThreads) throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                long startTime = System.currentTimeMillis();
+
+                if (raf.length() < LONG_SIZE || tail == null) { // nothing was ever logged
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    if (tail == null) {
+                        tail = openSegment(0);
+                    }
+                    currentOffset = tail.endLsn();
+                    return;
+                }
+
+                // analysis: transactions active at the last checkpoint
+                // bound how far back the log has to be read
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                long start = segments.firstEntry().getValue().firstLsn();
+                HashSet<Long> live = new HashSet<Long>();
+                HashSet<Long> committed = new HashSet<Long>();
+                HashMap<PageId, ArrayList<LogUpdateRecord>> updatesByPage = new HashMap<PageId, ArrayList<LogUpdateRecord>>();
+
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    RandomAccessFile in = seek(cpLoc);
+                    in.readInt();
+                    in.readLong();
+                    in.readLong();
+                    start = readCheckpoint(in, cpLoc, live);
+                }
+
+                long end = start;
+                scan:
+                for (LogSegment segment : segments.tailMap(start / segmentSize).values()) {
+                    for (long lsn = Math.max(start, segment.firstLsn()); lsn < segment.endLsn(); lsn = end) {
+                        RandomAccessFile in = segment.seek(lsn);
+                        int type;
+                        long record_tid;
+                        LogUpdateRecord update = null;
+                        // a record torn by the crash is not part of the log
+                        try {
+                            type = in.readInt();
+                            if (type < ABORT_RECORD || type > CHECKPOINT_RECORD) break scan;
+                            record_tid = in.readLong();
+                            in.readLong(); // prevLSN, only needed for rollback
+                            if (type == UPDATE_RECORD) {
+                                update = readUpdateRecord(segment, record_tid);
+                            } else if (type == CHECKPOINT_RECORD) {
+                                readCheckpoint(in, lsn, null);
+                            }
+                            long crcLsn = segment.position();
+                            int checksum = in.readInt();
+                            if (in.readLong() != lsn) break scan;
+                            CRC32C crc = new CRC32C();
+                            crc.update(segment.read(lsn, (int) (crcLsn - lsn)));
+                            if ((int) crc.getValue() != checksum) break scan;
+                        } catch (EOFException e) {
+                            break scan;
+                        }
+                        end = segment.position();
+
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            ArrayList<LogUpdateRecord> updates = updatesByPage.get(update.pid());
+                            if (updates == null) {
+                                updates = new ArrayList<LogUpdateRecord>();
+                                updatesByPage.put(update.pid(), updates);
+                            }
+                            updates.add(update);
+                            live.add(record_tid);
+                            break;
+                        case BEGIN_RECORD:
+                            live.add(record_tid);
+                            break;
+                        case COMMIT_RECORD:
+                            committed.add(record_tid);
+                            live.remove(record_tid);
+                            break;
+                        case ABORT_RECORD:
+                            live.remove(record_tid);
+                            break;
+                        }
+                    }
+                }
+
+                // cut the log back to the last complete record
+                Long lastNumber = segments.floorKey(Math.max(end - 1, 0) / segmentSize);
+                tail = segments.get(lastNumber == null ? segments.firstKey() : lastNumber);
+                if (tail.contains(end)) {
+                    tail.truncate(end);
+                }
+                while (segments.lastKey() > tail.number()) {
+                    segments.pollLastEntry().getValue().delete();
+                }
+
+                // redo: each worker owns the pages that hash to it
+                ArrayList<ArrayList<PageId>> partitions = new ArrayList<ArrayList<PageId>>();
+                for (int i = 0; i < numThreads; i++) {
+                    partitions.add(new ArrayList<PageId>());
+                }
+                for (PageId pid : updatesByPage.keySet()) {
+                    partitions.get(Math.floorMod(pid.hashCode(), numThreads)).add(pid);
+                }
+
+                ExecutorService workers = Executors.newFixedThreadPool(numThreads);
+                try {
+                    ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                    for (ArrayList<PageId> partition : partitions) {
+                        tasks.add(() -> redoPartition(partition, updatesByPage, committed));
+                    }
+                    for (Future<Void> done : workers.invokeAll(tasks)) {
+                        done.get();
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted during recovery", e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Redo failed", e.getCause());
+                } finally {
+                    workers.shutdown();
+                }
+
+                for (PageId pid : updatesByPage.keySet()) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+
+                // transactions that never finished have now been rolled
+                // back; record that so they are not considered again
+                currentOffset = tail.endLsn();
+                for (Long tid : live) {
+                    appendRecord(ABORT_RECORD, tid);
+                }
+                force();
+                tidToFirstLogRecord.clear();
+                tidToLastLogRecord.clear();
+
+                Debug.log("RECOVERED " + updatesByPage.size() + " PAGES FROM " + (end - start) + " BYTES OF LOG ON " + numThreads + " THREADS IN " + (System.currentTimeMillis() - startTime) + " MS");
             }
          }
     }
 
+    /** Install the recovered image of every page in a redo partition.  A
+        page ends up with the after image of the last committed update to
+        it, unless an uncommitted transaction updated it afterwards, in
+        which case it gets the before image of that transaction's first
+        update (under strict two-phase locking nobody else can have
+        touched the page in between.)
+
+        Only the image being installed is read from the log, using
+        positional reads so that workers do not share a file pointer.
+    */
+    private Void redoPartition(List<PageId> pids,
+                               HashMap<PageId, ArrayList<LogUpdateRecord>> updatesByPage,
+                               Set<Long> committed) throws IOException {
+        for (PageId pid : pids) {
+            LogUpdateRecord installed = null;
+            long imageOffset = -1;
+            int imageLength = 0;
+            HashSet<Long> undone = new HashSet<Long>();
+            for (LogUpdateRecord update : updatesByPage.get(pid)) {
+                if (committed.contains(update.tid())) {
+                    installed = update;
+                    imageOffset = update.afterOffset();
+                    imageLength = update.afterLength();
+                } else if (undone.add(update.tid())) {
+                    installed = update;
+                    imageOffset = update.beforeOffset();
+                    imageLength = update.beforeLength();
+                }
+            }
+
+            byte[] stored = segmentFor(imageOffset).read(imageOffset, imageLength);
+            Page page = instantiatePage(installed.pageClassName(), pid, decompress(stored, installed.pageSize()));
+            Database.getCatalog().getDbFile(pid.getTableId()).writePage(page);
+        }
+        return null;
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        if (tail != null) {
+            tail.force();
+        }
     }
 
 }
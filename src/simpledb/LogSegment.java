@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * LogSegment is one fixed-size piece of the write ahead log.  Segment n
+ * covers the LSNs [n * segmentSize, (n + 1) * segmentSize), so the segment
+ * holding any log record, and the record's offset within it, follow
+ * directly from its LSN.  Records never span segments; a segment may end
+ * short of segmentSize if the next record did not fit.
+ *
+ * @see LogFile
+ */
+public class LogSegment {
+
+    /**
+     * Open (creating it if necessary) the segment with the given number.
+     *
+     * @param f the file backing this segment
+     * @param number the position of this segment in the log
+     * @param segmentSize the number of LSNs covered by each segment
+     */
+    public LogSegment(File f, long number, long segmentSize) throws IOException {
+        this.f = f;
+        this.number = number;
+        this.firstLsn = number * segmentSize;
+        this.raf = new RandomAccessFile(f, "rw");
+        this.length = raf.length();
+    }
+
+    /** @return the position of this segment in the log */
+    public long number() {
+        return number;
+    }
+
+    /** @return the LSN of the first byte of this segment */
+    public long firstLsn() {
+        return firstLsn;
+    }
+
+    /** @return the LSN just past the last record written to this segment */
+    public long endLsn() {
+        return firstLsn + length;
+    }
+
+    /** @return the number of bytes written to this segment */
+    public long length() {
+        return length;
+    }
+
+    /** @return true if the given LSN falls in the bytes written to this segment */
+    public boolean contains(long lsn) {
+        return lsn >= firstLsn && lsn < endLsn();
+    }
+
+    /**
+     * Position this segment's file at the given LSN and return it, so that
+     * records can be read from there.
+     */
+    public RandomAccessFile seek(long lsn) throws IOException {
+        raf.seek(lsn - firstLsn);
+        return raf;
+    }
+
+    /** @return the LSN corresponding to the current position of the file returned by {@link #seek} */
+    public long position() throws IOException {
+        return firstLsn + raf.getFilePointer();
+    }
+
+    /**
+     * Read len bytes starting at the given LSN without moving the file
+     * pointer, so several threads may read from the segment at once.
+     */
+    public byte[] read(long lsn, int len) throws IOException {
+        byte[] data = new byte[len];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining()) {
+            if (raf.getChannel().read(buf, lsn - firstLsn + buf.position()) < 0) {
+                throw new EOFException("Read past the end of log segment " + number);
+            }
+        }
+        return data;
+    }
+
+    /** Append a complete record to the end of this segment. */
+    public void append(byte[] record) throws IOException {
+        raf.seek(length);
+        raf.write(record);
+        length += record.length;
+    }
+
+    /** Discard everything in this segment from the given LSN on. */
+    public void truncate(long lsn) throws IOException {
+        length = lsn - firstLsn;
+        raf.setLength(length);
+    }
+
+    /** Force everything written to this segment to disk. */
+    public void force() throws IOException {
+        raf.getChannel().force(true);
+    }
+
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /** Close this segment and remove its file. */
+    public void delete() throws IOException {
+        raf.close();
+        f.delete();
+    }
+
+    public String toString() {
+        return f.getName() + " [" + firstLsn + ", " + endLsn() + ")";
+    }
+
+    private final File f;
+    private final long number;
+    private final long firstLsn;
+    private final RandomAccessFile raf;
+    private long length;
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+/*
+ * Value object for an UPDATE record found while scanning the log during
+ * recovery.  The page images are not read into memory; only their offsets
+ * and stored (possibly compressed) lengths in the log are kept, so that
+ * redo workers can fetch just the image they end up installing.
+ */
+public class LogUpdateRecord {
+
+    public LogUpdateRecord(long tid, PageId pid, String pageClassName,
+                           long beforeOffset, int beforeLength,
+                           long afterOffset, int afterLength, int pageSize) {
+        this.tid = tid;
+        this.pid = pid;
+        this.pageClassName = pageClassName;
+        this.beforeOffset = beforeOffset;
+        this.beforeLength = beforeLength;
+        this.afterOffset = afterOffset;
+        this.afterLength = afterLength;
+        this.pageSize = pageSize;
+    }
+
+    public long tid() { return tid; }
+    public PageId pid() { return pid; }
+    public String pageClassName() { return pageClassName; }
+    public long beforeOffset() { return beforeOffset; }
+    public int beforeLength() { return beforeLength; }
+    public long afterOffset() { return afterOffset; }
+    public int afterLength() { return afterLength; }
+    public int pageSize() { return pageSize; }
+
+    public String toString() {
+        return "TID: " + tid + " Page: " + pid.getTableId() + ":" + pid.pageno();
+    }
+
+    private final long tid;
+    private final PageId pid;
+    private final String pageClassName;
+    private final long beforeOffset;
+    private final int beforeLength;
+    private final long afterOffset;
+    private final int afterLength;
+    private final int pageSize;
+}
@@ -16,9 +16,9 @@ import java.awt.*;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * Any number of aggregates, each over a single field, may be computed
+ * over the groups.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -34,12 +34,12 @@ public  class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
+    private Vector<LogicalSelectListNode> aggregates;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> oByFields;
+    private Vector<Boolean> oByAscs;
+    private int limit = -1;
     private String query;
 
     /** Constructor -- generate an empty logical plan */
@@ -51,6 +51,10 @@ public  class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggregates = new Vector<LogicalSelectListNode>();
+        oByFields = new Vector<String>();
+        oByAscs = new Vector<Boolean>();
         this.query = "";
     }
 
@@ -76,7 +80,7 @@ public  class LogicalPlan {
         @param alias the table alias to return a table id for
         @return the id of the table corresponding to alias, or null if the alias is unknown
      */
-    public int getTableId(String alias) {
+    public Integer getTableId(String alias) {
         return tableMap.get(alias);
     }
 
@@ -178,28 +182,52 @@ public  class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
     */
     public void addAggregate(String op, String afield, String gfield) {
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        addAggregate(op, afield);
+        if (gfield != null && !groupByFields.contains(gfield)) {
+            addGroupByField(gfield);
+        }
+    }
+
+    /** Add an aggregate over the field to the query.  All the aggregates
+        of a query are computed in a single pass, over the groups given by
+        {@link #addGroupByField}.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+    */
+    public void addAggregate(String op, String afield) {
+        aggregates.addElement(new LogicalSelectListNode(op, afield));
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a field to the GROUP BY list of the query.
+        @param gfield the field to group by
+    */
+    public void addGroupByField(String gfield) {
+        groupByFields.addElement(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields
+        added earlier are more significant.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
     */
     public void addOrderBy(String field, boolean asc) {
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
+    }
+
+    /** Return at most the specified number of rows: the first ones in the
+        ORDER BY order if there is one, otherwise any of them.
+        @param limit the number of rows to return, or -1 for all of them
+    */
+    public void setLimit(int limit) {
+        this.limit = limit;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -243,6 +271,34 @@ public  class LogicalPlan {
 
     }
 
+    /** @return the position among the aggregates of the query of the
+        aggregate in the specified select list clause
+        @throws ParsingException if the aggregate was not added via {@link #addAggregate}
+    */
+    private int aggregateIndex(LogicalSelectListNode si) throws ParsingException {
+        String name = disambiguateName(si.fname);
+        for (int i = 0; i < aggregates.size(); i++) {
+            LogicalSelectListNode agg = aggregates.elementAt(i);
+            if (agg.aggOp.equalsIgnoreCase(si.aggOp) && disambiguateName(agg.fname).equals(name)) {
+                return i;
+            }
+        }
+        throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") is not computed by the query");
+    }
+
+    /** @return the position in the GROUP BY list of the specified field
+        @throws ParsingException if the field is not grouped by
+    */
+    private int groupByIndex(String fname) throws ParsingException {
+        String name = disambiguateName(fname);
+        for (int i = 0; i < groupByFields.size(); i++) {
+            if (disambiguateName(groupByFields.elementAt(i)).equals(name)) {
+                return i;
+            }
+        }
+        throw new ParsingException("Field " + fname + " does not appear in GROUP BY list");
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -256,6 +312,30 @@ public  class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Return true if a scan can be replaced by an IndexScan that applies
+        a predicate on one of its fields.  The predicate must be an equality
+        or range comparison, and the scan must read a table stored in a B+
+        tree keyed on the field, or in a hash file keyed on the field if the
+        predicate is an equality, or one with a secondary index on the field
+        and a predicate selective enough that fetching the matching tuples
+        one by one beats reading the whole table: one estimated to keep at
+        most {@link DbConfig#indexMaxSelectivity} of the tuples, whether it
+        is an equality or a range.
+    */
+    static boolean isIndexScanOn(DbIterator scan, int field, Predicate.Op op, double selectivity) {
+        if (!(scan instanceof SeqScan)) {
+            return false;
+        }
+        int tableId = ((SeqScan) scan).getTableId();
+        if (!IndexScan.supports(tableId, field, op)) {
+            return false;
+        }
+        if (!(Database.getCatalog().getDbFile(tableId) instanceof HeapFile)) {
+            return true; // the table is stored in the index
+        }
+        return selectivity <= DbConfig.indexMaxSelectivity;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -319,13 +399,23 @@ public  class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.f);
             }
-            subplanMap.put(lf.t, new Filter(p, subplan));
-
             TableStats s = statsMap.get(lf.t);
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().nameToId(disambiguateName(lf.f)), lf.p, f);
             filterSelectivities.put(lf.t, filterSelectivities.get(lf.t) * sel);
 
+            if (isIndexScanOn(subplan, p.getField(), lf.p, sel)) {
+                // the index finds the matching tuples itself
+                subplanMap.put(lf.t, new IndexScan(t, ((SeqScan) subplan).getTableId(), lf.t, p.getField(), lf.p, f));
+            } else {
+                SeqScan scan = SeqScan.underFilters(subplan);
+                if (DbConfig.zoneMaps && scan != null) {
+                    // the scan need not read pages holding no tuple the filter keeps
+                    scan.skipPagesFailing(p);
+                }
+                subplanMap.put(lf.t, new Filter(p, subplan));
+            }
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
@@ -399,7 +489,7 @@ public  class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                outFields.add(groupByFields.size() + aggregateIndex(si));
                 TupleDesc td = node.getTupleDesc();
                 int  id;
                 try {
@@ -410,16 +500,14 @@ public  class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
-                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
-                    }
-                    outFields.add(0);
+                    int gb = groupByIndex(si.fname);
+                    outFields.add(gb);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.nameToId(disambiguateName(groupByField));
+                        id = td.nameToId(disambiguateName(groupByFields.elementAt(gb)));
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  groupByFields.elementAt(gb) + " in GROUP BY statement");
                     }
                     outTypes.add(td.getType(id));
             } else if (si.fname.equals("null.*")) {
@@ -446,10 +534,21 @@ public  class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.nameToId(disambiguateName(aggField)),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.nameToId(disambiguateName(groupByField)),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggregates.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggregates.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.nameToId(disambiguateName(aggregates.elementAt(i).fname));
+                    aops[i] = getAggOp(aggregates.elementAt(i).aggOp);
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.nameToId(disambiguateName(groupByFields.elementAt(i)));
+                }
+                if (ParallelAggregate.worthParallelizing(node)) {
+                    aggNode = new ParallelAggregate((SeqScan) node, afields, aops, gfields);
+                } else {
+                    aggNode = new Aggregate(node, afields, aops, gfields);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -458,8 +557,20 @@ public  class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().nameToId(disambiguateName(oByField)), oByAsc, node);
+        if (oByFields.size() > 0) {
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                oByIndexes[i] = node.getTupleDesc().nameToId(disambiguateName(oByFields.elementAt(i)));
+                asc[i] = oByAscs.elementAt(i);
+            }
+            if (limit >= 0) {
+                node = new TopN(oByIndexes, asc, limit, node);
+            } else {
+                node = new OrderBy(oByIndexes, asc, node);
+            }
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
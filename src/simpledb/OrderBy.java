@@ -2,15 +2,30 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or
+ * more fields.  Tuples are compared through a {@link TupleComparator},
+ * mostly by their normalized keys, which are computed once per tuple as
+ * it is read and kept next to it while it is in memory.
+ * <p>
+ * Inputs that fit in the memory budget are sorted in memory.  Larger
+ * inputs are sorted externally: replacement selection writes sorted runs
+ * of about twice the budget to {@link TupleSpillFile}s, and the runs are
+ * merged k ways at a time, with intermediate merge passes if there are
+ * more than {@link #MERGE_FANIN} of them.  The final merge is streamed to
+ * the parent.
  */
 public class OrderBy extends AbstractDbIterator {
+    /** The most runs merged at once */
+    public static final int MERGE_FANIN = 64;
+    /** The memory a normalized key and its holder add to a tuple */
+    static final int KEYED_TUPLE_BYTES = 32;
+
     DbIterator child;
     TupleDesc td;
     ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    int orderByField;
+    int[] orderByFields;
     Iterator<Tuple> it;
-    boolean asc;
+    boolean[] asc;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -20,32 +35,264 @@ public class OrderBy extends AbstractDbIterator {
      * @param child the tuples to sort.
      */
     public OrderBy(int orderbyField,  boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DbConfig.sortMemoryBytes);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator that
+     * holds at most memoryBytes of tuples in memory.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc true if the sort order is ascending.
+     * @param child the tuples to sort.
+     * @param memoryBytes the memory budget of the sort
+     */
+    public OrderBy(int orderbyField,  boolean asc, DbIterator child, long memoryBytes) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memoryBytes);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorted
+     * on several fields, the first of which is the most significant.
+     *
+     * @param orderbyFields the fields to which the sort is applied.
+     * @param asc for each field, true if it sorts in ascending order.
+     * @param child the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        this(orderbyFields, asc, child, DbConfig.sortMemoryBytes);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator, sorted
+     * on several fields, that holds at most memoryBytes of tuples in memory.
+     *
+     * @param orderbyFields the fields to which the sort is applied.
+     * @param asc for each field, true if it sorts in ascending order.
+     * @param child the tuples to sort.
+     * @param memoryBytes the memory budget of the sort
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child, long memoryBytes) {
         this.child = child;
         td= child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.asc = asc;
+        this.comparator = new TupleComparator(td, orderbyFields, asc);
+        this.orderByFields = comparator.getFields();
+        this.asc = comparator.getAscending();
+        this.maxTuples = (int) Math.max(2, Math.min(Integer.MAX_VALUE,
+            memoryBytes / (HashJoin.estimateTupleBytes(td) + KEYED_TUPLE_BYTES)));
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the index of the field the tuples are sorted on first */
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    /** @return true if the sort order of the first field is ascending */
+    public boolean isAscending() {
+        return asc[0];
+    }
+
+    /** @return the indexes of the fields the tuples are sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return the number of sorted runs the last open wrote to disk; 0 if it sorted in memory */
+    public int numRuns() {
+        return initialRuns;
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
         child.open();
-        //load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        initialRuns = 0;
+        //load tuples into memory until they run out or overflow the budget
+        while (child.hasNext() && childTups.size() < maxTuples)
             childTups.add((Tuple)child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        if (!child.hasNext()) {
+            sortInMemory();
+            it = childTups.iterator();
+            return;
+        }
+        generateRuns();
+        initialRuns = runs.size();
+        while (runs.size() > MERGE_FANIN) {
+            mergePass();
+        }
+        startMerge();
+    }
+
+    /** A tuple and its normalized key */
+    private static class KeyedTuple {
+        final long key;
+        final Tuple t;
+
+        KeyedTuple(long key, Tuple t) {
+            this.key = key;
+            this.t = t;
+        }
+    }
+
+    private static class HeapEntry extends KeyedTuple {
+        final int run;
+
+        HeapEntry(int run, long key, Tuple t) {
+            super(key, t);
+            this.run = run;
+        }
+    }
+
+    private KeyedTuple keyed(Tuple t) {
+        return new KeyedTuple(comparator.normalizedKey(t), t);
+    }
+
+    private int compare(KeyedTuple a, KeyedTuple b) {
+        return comparator.compare(a.key, a.t, b.key, b.t);
+    }
+
+    /** Sort childTups, comparing normalized keys first */
+    private void sortInMemory() {
+        KeyedTuple[] sorted = new KeyedTuple[childTups.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = keyed(childTups.get(i));
+        }
+        Arrays.sort(sorted, this::compare);
+        for (int i = 0; i < sorted.length; i++) {
+            childTups.set(i, sorted[i].t);
+        }
+    }
+
+    /**
+     * Replacement selection: keep a heap of the tuples in memory, always
+     * writing out the least one that can still extend the current run.
+     * Tuples smaller than the last one written wait for the next run.
+     */
+    private void generateRuns() throws DbException, TransactionAbortedException {
+        PriorityQueue<HeapEntry> heap = new PriorityQueue<HeapEntry>(childTups.size(), (a, b) ->
+            a.run != b.run ? Integer.compare(a.run, b.run) : compare(a, b));
+        for (Tuple t : childTups) {
+            heap.add(new HeapEntry(0, comparator.normalizedKey(t), t));
+        }
+        childTups.clear();
+        TupleSpillFile current = null;
+        int currentRun = -1;
+        while (!heap.isEmpty()) {
+            HeapEntry e = heap.poll();
+            if (e.run != currentRun) {
+                current = new TupleSpillFile(td);
+                runs.add(current);
+                currentRun = e.run;
+            }
+            current.add(e.t);
+            if (child.hasNext()) {
+                Tuple next = child.next();
+                long key = comparator.normalizedKey(next);
+                int run = comparator.compare(key, next, e.key, e.t) >= 0 ? e.run : e.run + 1;
+                heap.add(new HeapEntry(run, key, next));
+            }
+        }
+    }
+
+    /** Merge the runs MERGE_FANIN at a time into fewer, longer runs */
+    private void mergePass() throws DbException, TransactionAbortedException {
+        ArrayList<TupleSpillFile> merged = new ArrayList<TupleSpillFile>();
+        for (int i = 0; i < runs.size(); i += MERGE_FANIN) {
+            List<TupleSpillFile> group = runs.subList(i, Math.min(runs.size(), i + MERGE_FANIN));
+            TupleSpillFile out = new TupleSpillFile(td);
+            merged.add(out);
+            PriorityQueue<MergeInput> inputs = openInputs(group);
+            Tuple t;
+            while ((t = nextMerged(inputs)) != null) {
+                out.add(t);
+            }
+            for (TupleSpillFile f : group) {
+                f.delete();
+            }
+        }
+        runs = merged;
+    }
+
+    private static class MergeInput {
+        final DbIterator it;
+        Tuple head;
+        long headKey;
+
+        MergeInput(DbIterator it) {
+            this.it = it;
+        }
+    }
+
+    private PriorityQueue<MergeInput> openInputs(List<TupleSpillFile> files)
+        throws DbException, TransactionAbortedException {
+        PriorityQueue<MergeInput> inputs = new PriorityQueue<MergeInput>(Math.max(1, files.size()),
+            (a, b) -> comparator.compare(a.headKey, a.head, b.headKey, b.head));
+        for (TupleSpillFile f : files) {
+            MergeInput in = new MergeInput(f.iterator());
+            in.it.open();
+            if (in.it.hasNext()) {
+                in.head = in.it.next();
+                in.headKey = comparator.normalizedKey(in.head);
+                inputs.add(in);
+            } else {
+                in.it.close();
+            }
+        }
+        return inputs;
+    }
+
+    /** @return the least head of the merge inputs, advancing its input; null when all are exhausted */
+    private Tuple nextMerged(PriorityQueue<MergeInput> inputs) throws DbException, TransactionAbortedException {
+        MergeInput in = inputs.poll();
+        if (in == null) {
+            return null;
+        }
+        Tuple t = in.head;
+        if (in.it.hasNext()) {
+            in.head = in.it.next();
+            in.headKey = comparator.normalizedKey(in.head);
+            inputs.add(in);
+        } else {
+            in.it.close();
+        }
+        return t;
+    }
+
+    private void startMerge() throws DbException, TransactionAbortedException {
+        closeMerge();
+        merge = openInputs(runs);
+    }
+
+    private void closeMerge() {
+        if (merge != null) {
+            for (MergeInput in : merge) {
+                in.it.close();
+            }
+            merge = null;
+        }
     }
 
     public void close() {
+        super.close();
+        child.close();
         it = null;
+        childTups.clear();
+        closeMerge();
+        for (TupleSpillFile f : runs) {
+            f.delete();
+        }
+        runs.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merge != null) {
+            startMerge();
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
@@ -56,31 +303,18 @@ public class OrderBy extends AbstractDbIterator {
      */
     protected Tuple readNext()
         throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (merge != null) {
+            return nextMerged(merge);
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
     }
-}
-
- class TupleComparator implements Comparator<Tuple> {
-     int field;
-     boolean asc;
-
-     public TupleComparator(int field, boolean asc) {
-         this.field = field;
-     this.asc = asc;
-     }
-
-     public int compare(Tuple o1, Tuple o2) {
-         Field t1 = (o1).getField(field);
-         Field t2 = (o2).getField(field);
-         if (t1.compare(Predicate.Op.EQUALS, t2))
-             return 0;
-         if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-             return asc?1:-1;
-         else
-             return asc?-1:1;
-     }
 
+    private final TupleComparator comparator;
+    private final int maxTuples;
+    private ArrayList<TupleSpillFile> runs = new ArrayList<TupleSpillFile>();
+    private PriorityQueue<MergeInput> merge;
+    private int initialRuns = 0;
 }
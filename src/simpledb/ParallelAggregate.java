@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * ParallelAggregate computes the same result as {@link Aggregate} over a
+ * sequential scan of a heap file, using several threads.  The page range
+ * of the file is split recursively on a fork-join pool; each leaf task
+ * reads its pages through the buffer pool and aggregates them into its
+ * own {@link HashAggregator}.  The partial aggregates of all tasks are
+ * then merged, with averages carried as a sum and a count, into the
+ * aggregator that produces the output.  The tasks of every
+ * ParallelAggregate run on one pool of {@link DbConfig#aggregateThreads}
+ * threads.
+ * <p>
+ * Tables that are not heap files, and heap files of fewer than
+ * {@link DbConfig#parallelAggregateMinPages} pages, are aggregated
+ * sequentially.
+ */
+public class ParallelAggregate extends Aggregate {
+
+    /**
+     * Constructor.
+     *
+     * @param child The scan of the table to aggregate.
+     * @param afields The columns over which we are computing aggregates.
+     * @param aops The aggregation operator to apply to each of afields
+     * @param gfields The columns over which we are grouping the result; empty if there is no grouping
+     */
+    public ParallelAggregate(SeqScan child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        this(child, afields, aops, gfields, DbConfig.aggregateThreads);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child The scan of the table to aggregate.
+     * @param afields The columns over which we are computing aggregates.
+     * @param aops The aggregation operator to apply to each of afields
+     * @param gfields The columns over which we are grouping the result; empty if there is no grouping
+     * @param threads The number of threads to split the work among, of
+     *   those in the shared pool
+     */
+    public ParallelAggregate(SeqScan child, int[] afields, Aggregator.Op[] aops, int[] gfields, int threads) {
+        super(child, afields, aops, gfields);
+        this.scan = child;
+        this.threads = Math.max(1, threads);
+    }
+
+    /** @return the number of threads this aggregate splits its work among */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return true if an aggregate over a plan is worth running in
+     * parallel: the plan is a scan of a heap file of at least
+     * {@link DbConfig#parallelAggregateMinPages} pages, and there is more
+     * than one thread to run it on
+     */
+    public static boolean worthParallelizing(DbIterator plan) {
+        return DbConfig.aggregateThreads > 1 && plan instanceof SeqScan
+            && isLarge(Database.getCatalog().getDbFile(((SeqScan) plan).getTableId()));
+    }
+
+    private static boolean isLarge(DbFile file) {
+        return file instanceof HeapFile && ((HeapFile) file).numPages() >= DbConfig.parallelAggregateMinPages;
+    }
+
+    public void open()
+        throws NoSuchElementException, DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDbFile(scan.getTableId());
+        if (threads == 1 || !isLarge(file)) {
+            super.open();
+            return;
+        }
+        int numPages = ((HeapFile) file).numPages();
+        // a few tasks per thread, so that threads finishing early can steal work
+        int grain = Math.max(1, numPages / (4 * threads));
+        long workerBytes = DbConfig.aggregateMemoryBytes / threads;
+
+        List<HashAggregator> partials = Collections.synchronizedList(new ArrayList<HashAggregator>());
+        PageRangeTask root = new PageRangeTask(0, numPages, grain, workerBytes, partials);
+        POOL.invoke(root);
+
+        HashAggregator merged = new HashAggregator(gfields, gfieldTypes, afields, aops).partialMerger();
+        try {
+            if (root.failure instanceof TransactionAbortedException) {
+                throw (TransactionAbortedException) root.failure;
+            } else if (root.failure != null) {
+                throw (DbException) root.failure;
+            }
+            for (HashAggregator partial : partials) {
+                DbIterator it = partial.partialIterator();
+                it.open();
+                while (it.hasNext()) {
+                    merged.merge(it.next());
+                }
+                it.close();
+            }
+        } finally {
+            for (HashAggregator partial : partials) {
+                partial.discard();
+            }
+        }
+        aggregator = merged;
+        aggregatorIterator = aggregator.iterator();
+        aggregatorIterator.open();
+    }
+
+    /**
+     * Aggregates the pages [lo, hi) of the scanned table, splitting the
+     * range in two until it is at most grain pages long.
+     */
+    @SuppressWarnings("serial") // tasks are never serialized
+    private class PageRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int lo;
+        private final int hi;
+        private final int grain;
+        private final long memoryBytes;
+        private final List<HashAggregator> partials;
+        // set on the root task by whichever leaf fails first
+        volatile Exception failure;
+        private final PageRangeTask root;
+
+        PageRangeTask(int lo, int hi, int grain, long memoryBytes, List<HashAggregator> partials) {
+            this(lo, hi, grain, memoryBytes, partials, null);
+        }
+
+        private PageRangeTask(int lo, int hi, int grain, long memoryBytes, List<HashAggregator> partials, PageRangeTask root) {
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+            this.memoryBytes = memoryBytes;
+            this.partials = partials;
+            this.root = root == null ? this : root;
+        }
+
+        protected void compute() {
+            if (hi - lo > grain) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new PageRangeTask(lo, mid, grain, memoryBytes, partials, root),
+                          new PageRangeTask(mid, hi, grain, memoryBytes, partials, root));
+                return;
+            }
+            HashAggregator partial = new HashAggregator(gfields, gfieldTypes, afields, aops, memoryBytes);
+            partials.add(partial);
+            try {
+                BufferPool bp = Database.getBufferPool();
+                for (int pageno = lo; pageno < hi && root.failure == null; pageno++) {
+                    PageId pid = new HeapPageId(scan.getTableId(), pageno);
+                    HeapPage page = (HeapPage) bp.getPage(scan.getTransactionId(), pid, Permissions.READ_ONLY);
+                    Iterator<Tuple> tuples = page.iterator();
+                    while (tuples.hasNext()) {
+                        partial.merge(tuples.next());
+                    }
+                }
+            } catch (DbException | TransactionAbortedException e) {
+                root.failure = e;
+            }
+        }
+    }
+
+    /** The pool every ParallelAggregate runs its tasks on; its threads are daemons */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, DbConfig.aggregateThreads));
+
+    private final SeqScan scan;
+    private final int threads;
+}
@@ -3,6 +3,8 @@ package simpledb;
 import Zql.*;
 import java.io.*;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,6 +14,67 @@ public class Parser {
     static boolean explain = false;
      static HashMap<String, TableStats> statsMap = new HashMap<String,TableStats>();
     private static final int IOCOSTPERPAGE = 1000;
+
+    /** A trailing LIMIT clause, which Zql does not understand */
+    private static final Pattern LIMIT_CLAUSE =
+        Pattern.compile("\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @return the row count of the trailing LIMIT clause of the statement,
+     * or -1 if it has none
+     * @throws ParsingException if the row count does not fit in an int
+     */
+    static int parseLimit(String s) throws simpledb.ParsingException {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1) + " is too large");
+        }
+    }
+
+    /** @return the statement with its trailing LIMIT clause, if any, removed */
+    static String withoutLimit(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        return m.find() ? s.substring(0, m.start()) + m.group(2) : s;
+    }
+
+    /** CREATE INDEX ON table (field), which Zql does not understand either */
+    private static final Pattern CREATE_INDEX =
+        Pattern.compile("^\\s*CREATE\\s+INDEX\\s+ON\\s+(\\w+)\\s*\\(\\s*(\\w+)\\s*\\)\\s*;?\\s*$",
+                        Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Create a secondary index on a field of a table, stored in the file
+     * table.field.idx.
+     */
+    public static void handleCreateIndexStatement(String table, String field)
+        throws simpledb.ParsingException, TransactionAbortedException, DbException, IOException {
+        int id;
+        try {
+            id = Database.getCatalog().getTableId(table);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table : " + table);
+        }
+        int fieldIndex;
+        try {
+            fieldIndex = Database.getCatalog().getTupleDesc(id).nameToId(field);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown field " + field);
+        }
+        if (Database.getCatalog().getIndex(id, fieldIndex) != null) {
+            throw new simpledb.ParsingException("Table " + table + " already has an index on " + field);
+        }
+        try {
+            Database.getCatalog().createIndex(id, fieldIndex, new File(table + "." + field + ".idx"));
+        } catch (IllegalArgumentException e) {
+            throw new simpledb.ParsingException(e.getMessage());
+        }
+        System.out.println("Created index on " + table + "." + field);
+    }
     
     public static void setStatsMap(HashMap<String, TableStats> _statsMap) {
     	statsMap = _statsMap;
@@ -150,20 +213,17 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException("At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (! (gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException("Complex grouping expressions (" + gbe + ") not supported.");
                 }
-                groupByField = ((ZConstant)gbe).getValue();
+                String groupByField = ((ZConstant)gbe).getValue();
                 System.out.println ("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -171,8 +231,7 @@ public class Parser {
         // walk the select list, pick out aggregates, and check for query validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -180,43 +239,40 @@ public class Parser {
                 throw new simpledb.ParsingException("Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException("Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant)((ZExpression)si.getExpression()).getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggField = ((ZConstant)((ZExpression)si.getExpression()).getOperand(0)).getValue();
+                String aggFun = si.getAggregate();
                 System.out.println ("Aggregate field is " + aggField + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField);
+                hasAgg = true;
             } else {
-                if (groupByField != null && ! (groupByField.equals(si.getTable() + "." + si.getColumn()) || groupByField.equals(si.getColumn()))) {
+                if (!groupByFields.isEmpty() && ! (groupByFields.contains(si.getTable() + "." + si.getColumn()) || groupByFields.contains(si.getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field " + si.getColumn() + " does not appear in GROUP BY list.");
                 }
                 lp.addProjectField(si.getTable() + "." + si.getColumn(), null);
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
-        
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+
+        for (String groupByField : groupByFields) {
+            lp.addGroupByField(groupByField);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
                 Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1)  {
-                throw new simpledb.ParsingException("Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException("Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant)oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException("Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant)oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -229,9 +285,18 @@ public class Parser {
     static Transaction curtrans = null;
 
     public static void handleQueryStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
+        handleQueryStatement(s, -1);
+    }
+
+    /**
+     * Run a query, returning at most limit rows, or all of them if limit
+     * is negative.
+     */
+    public static void handleQueryStatement(ZQuery s, int limit) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
         // and run it
-        DbIterator node;
-        node = parseQuery(curtrans.getId(), s);
+        LogicalPlan lp = parseQueryLogicalPlan(curtrans.getId(), s);
+        lp.setLimit(limit);
+        DbIterator node = lp.physicalPlan(curtrans.getId(), statsMap, explain);
 
         Query sdbq = new Query(node, curtrans.getId());
         TupleDesc td = node.getTupleDesc();
@@ -366,12 +431,13 @@ public class Parser {
     }
 
     public static LogicalPlan generateLogicalPlan(TransactionId tid, String s) throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(withoutLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                     LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery)stmt);
+                    lp.setLimit(parseLimit(s));
                     return lp;
             }
         }
@@ -394,8 +460,26 @@ public class Parser {
     }
 
     public static void processNextStatement(String s) {
+        Matcher m = CREATE_INDEX.matcher(s);
+        if (m.matches()) {
+            try {
+                handleCreateIndexStatement(m.group(1), m.group(2));
+            } catch (simpledb.ParsingException e) {
+                System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            } catch (TransactionAbortedException | DbException | IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        int limit;
+        try {
+            limit = parseLimit(s);
+        } catch (simpledb.ParsingException e) {
+            System.out.println("Invalid SQL expression: \n \t" + e.getMessage());
+            return;
+        }
     	try {
-			processNextStatement(new ByteArrayInputStream(s.getBytes("UTF-8")));
+			processNextStatement(new ByteArrayInputStream(withoutLimit(s).getBytes("UTF-8")), limit);
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 			throw new RuntimeException(e);
@@ -403,10 +487,22 @@ public class Parser {
     }
     
     public static void processNextStatement(InputStream is) {
+        processNextStatement(is, -1);
+    }
+
+    /**
+     * Run the next statement from the stream; a query returns at most
+     * limit rows, or all of them if limit is negative.  Other statements
+     * cannot be limited, and are rejected if limit is not negative.
+     */
+    public static void processNextStatement(InputStream is, int limit) {
         try {
             ZqlParser p = new ZqlParser(is);
             ZStatement s = p.readStatement();
 
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT applies only to SELECT statements");
+
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt)s);
             else if (s instanceof ZInsert)
@@ -414,7 +510,7 @@ public class Parser {
             else if (s instanceof ZDelete)
                 handleDeleteStatement((ZDelete)s);
             else if (s instanceof ZQuery)
-                handleQueryStatement((ZQuery)s);
+                handleQueryStatement((ZQuery)s, limit);
             else {
                 System.out.println("Can't parse " + s + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
             }
@@ -520,7 +616,6 @@ public class Parser {
                 while (line.indexOf(';') >= 0) {
                     int split = line.indexOf(';');
                     buffer.append(line.substring(0, split+1));
-                    byte[] statementBytes = buffer.toString().getBytes("UTF-8");
 
                     //create a transaction for the query
                     if (curtrans == null) {
@@ -529,7 +624,7 @@ public class Parser {
                         System.out.println("Started a new transaction tid = " + curtrans.getId().getId());
                     }
                     long startTime = System.currentTimeMillis();
-                    processNextStatement(new ByteArrayInputStream(statementBytes));
+                    processNextStatement(buffer.toString());
                     long time = System.currentTimeMillis() - startTime;
                     System.out.printf("----------------\n%.2f seconds\n\n", ((double)time/1000.0));
                     // Grab the remainder of the line
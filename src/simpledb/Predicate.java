@@ -42,6 +42,21 @@ public class Predicate {
         this.operand = operand;
     }
 
+    /** @return the field number */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the operator */
+    public Op getOp() {
+        return op;
+    }
+
+    /** @return the operand */
+    public Field getOperand() {
+        return operand;
+    }
+
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific
@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * SecondaryIndex maps the values of one field of a {@link HeapFile} to the
+ * record ids of the tuples holding them.  The entries -- key, page number
+ * and slot -- are stored in a {@link BTreeFile} keyed on the key, so the
+ * tuples matching an equality or range predicate are found by reading the
+ * leaves that hold their entries and then just the heap pages they are on.
+ * <p>
+ * Indexes are attached to their table through the {@link Catalog}, and the
+ * {@link BufferPool} keeps them in step with the table as tuples are
+ * inserted and deleted.
+ */
+public class SecondaryIndex {
+
+    /**
+     * Create an index on a field of a table, whose entries are stored in
+     * the specified B+ tree.
+     *
+     * @param tableid the table the index is on, stored in a HeapFile
+     * @param field the index of the field the index is on
+     * @param file the B+ tree holding the entries, with schema
+     *   {@link #entryDesc} of the field's type
+     */
+    public SecondaryIndex(int tableid, int field, BTreeFile file) {
+        this.tableid = tableid;
+        this.field = field;
+        this.file = file;
+    }
+
+    /** @return the schema of the entries of an index on a field of the specified type */
+    public static TupleDesc entryDesc(Type keyType) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                             new String[] { "key", "page", "slot" });
+    }
+
+    /** @return the table the index is on */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the field the index is on */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the B+ tree holding the entries */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    /** @return the entry for a tuple of the table, which must be stored in it */
+    Tuple entry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(field));
+        e.setField(1, new IntField(rid.getPageId().pageno()));
+        e.setField(2, new IntField(rid.tupleno()));
+        return e;
+    }
+
+    /**
+     * Returns an iterator over the entries of every tuple in the table, in
+     * the order the tuples are stored, for building the index in bulk.
+     */
+    public DbIterator entries(TransactionId tid) {
+        return new EntryIterator(Database.getCatalog().getDbFile(tableid).iterator(tid));
+    }
+
+    /** Add the entry for a tuple just added to the table */
+    public void insert(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        addEntry(tid, entry(t));
+    }
+
+    /** Add an entry to the index */
+    void addEntry(TransactionId tid, Tuple entry)
+        throws DbException, IOException, TransactionAbortedException {
+        for (Page p : file.addTuple(tid, entry)) {
+            p.markDirty(true, tid);
+        }
+    }
+
+    /** Remove an entry, made by {@link #entry} before its tuple was deleted from the table */
+    void deleteEntry(TransactionId tid, Tuple entry)
+        throws DbException, TransactionAbortedException {
+        file.deleteTuple(tid, entry).markDirty(true, tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the table whose field
+     * satisfies a predicate, in the order of the field.
+     *
+     * @see BTreeFile#indexIterator
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate.Op op, Field key) {
+        return new LookupIterator(tid, file.indexIterator(tid, op, key));
+    }
+
+    private class EntryIterator extends AbstractDbIterator {
+        private final DbFileIterator tuples;
+
+        EntryIterator(DbFileIterator tuples) {
+            this.tuples = tuples;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return file.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            tuples.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            tuples.rewind();
+        }
+
+        public void close() {
+            super.close();
+            tuples.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            return tuples.hasNext() ? entry(tuples.next()) : null;
+        }
+    }
+
+    private class LookupIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final DbFileIterator entries;
+
+        LookupIterator(TransactionId tid, DbFileIterator entries) {
+            this.tid = tid;
+            this.entries = entries;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            entries.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            entries.rewind();
+        }
+
+        public void close() {
+            super.close();
+            entries.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (!entries.hasNext()) {
+                return null;
+            }
+            Tuple e = entries.next();
+            HeapPageId pid = new HeapPageId(tableid, ((IntField) e.getField(1)).getValue());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            Tuple t = page.getTuple(((IntField) e.getField(2)).getValue());
+            if (t == null) {
+                throw new DbException("index on field " + field + " of table " + tableid
+                                      + " points to an empty slot " + pid + ":" + e.getField(2));
+            }
+            return t;
+        }
+    }
+
+    private final int tableid;
+    private final int field;
+    private final BTreeFile file;
+}
@@ -28,6 +28,53 @@ public class SeqScan implements DbIterator {
         this.dbFileIterator = file.iterator(tid);
     }
 
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /** @return the id of the table this scan reads */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the alias the field names of this scan are prefixed with */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /**
+     * @return the SeqScan a plan reads from under a chain of Filters, which
+     * keep its fields where they are, or null if the plan is not one
+     */
+    public static SeqScan underFilters(DbIterator plan) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChild();
+        }
+        return plan instanceof SeqScan ? (SeqScan) plan : null;
+    }
+
+    /**
+     * Skip the pages of the table that cannot hold a tuple satisfying a
+     * predicate, according to the table's {@link ZoneMap}, for a scan
+     * whose tuples are filtered on the predicate anyway.  Tuples on the
+     * pages that are read are still returned whether they satisfy it or
+     * not.  Has no effect on tables not stored in HeapFiles.  Must be
+     * called before the scan is opened.
+     */
+    public void skipPagesFailing(Predicate p) {
+        var file = Database.getCatalog().getDbFile(tableid);
+        if (file instanceof HeapFile) {
+            pagePredicates.add(p);
+            dbFileIterator = ((HeapFile) file).iterator(tid, pagePredicates);
+        }
+    }
+
+    /** @return the predicates pages are skipped on; empty if the scan reads every page */
+    public List<Predicate> getPagePredicates() {
+        return Collections.unmodifiableList(pagePredicates);
+    }
+
     public void open()
         throws DbException, TransactionAbortedException {
         dbFileIterator.open();
@@ -43,21 +90,62 @@ public class SeqScan implements DbIterator {
         return Database.getCatalog().getTupleDesc(tableid).withPrefix(tableAlias);
     }
 
+    /**
+     * Drop the tuples whose field is not in a Bloom filter from now on, for
+     * a scan feeding the probe side of a join with the filter's fields as
+     * the keys of its build side.  A null filter stops the filtering.
+     *
+     * @param field the index of the field to look up in the filter
+     * @param filter the filter; null to return every tuple again
+     */
+    public void setSemiJoinFilter(int field, BloomFilter filter) {
+        this.semiJoinField = field;
+        this.semiJoinFilter = filter;
+    }
+
+    /** @return the Bloom filter tuples are dropped on, or null if there is none */
+    public BloomFilter getSemiJoinFilter() {
+        return semiJoinFilter;
+    }
+
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        return dbFileIterator.hasNext();
+        if (lookahead != null) {
+            return true;
+        }
+        if (semiJoinFilter == null) {
+            return dbFileIterator.hasNext();
+        }
+        while (dbFileIterator.hasNext()) {
+            Tuple t = dbFileIterator.next();
+            if (semiJoinFilter.mightContain(t.getField(semiJoinField))) {
+                lookahead = t;
+                return true;
+            }
+        }
+        return false;
     }
 
     public Tuple next()
         throws NoSuchElementException, TransactionAbortedException, DbException {
-        return dbFileIterator.next();
+        if (lookahead == null && semiJoinFilter == null) {
+            return dbFileIterator.next();
+        }
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = lookahead;
+        lookahead = null;
+        return t;
     }
 
     public void close() {
+        lookahead = null;
         dbFileIterator.close();
     }
 
     public void rewind()
         throws DbException, NoSuchElementException, TransactionAbortedException {
+        lookahead = null;
         dbFileIterator.rewind();
     }
 
@@ -65,4 +153,8 @@ public class SeqScan implements DbIterator {
     private int tableid; 
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    private final ArrayList<Predicate> pagePredicates = new ArrayList<Predicate>();
+    private int semiJoinField;
+    private BloomFilter semiJoinFilter;
+    private Tuple lookahead;
 }
@@ -0,0 +1,187 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements an equality join of two inputs
+ * that are already sorted on their join fields, in the same direction.
+ * Both inputs are read once, in step; the only tuples held in memory are
+ * the right tuples sharing the current join key, which are replayed for
+ * every left tuple with that key.
+ * <p>
+ * The output is sorted on the join key in the direction of the inputs.
+ * Inputs found to be out of order make the join fail with a DbException
+ * rather than silently lose matches.
+ */
+public class SortMergeJoin extends AbstractDbIterator {
+
+    /**
+     * Constructor.  Accepts to children sorted in ascending order on their
+     * join fields and the predicate to join them on
+     *
+     * @param p The predicate to use to join the children; its operator must be EQUALS
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, true);
+    }
+
+    /**
+     * Constructor.  Accepts to children sorted on their join fields, the
+     * predicate to join them on, and the direction they are sorted in
+     *
+     * @param p The predicate to use to join the children; its operator must be EQUALS
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     * @param asc true if the children are sorted in ascending order
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean asc) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("SortMergeJoin only supports EQUALS, not " + p.getOperator());
+        }
+        this._p = p;
+        this.childIterator1 = child1;
+        this.childIterator2 = child2;
+        this.asc = asc;
+        this.td = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return _p;
+    }
+
+    /** @return true if the inputs, and so the output, are in ascending order */
+    public boolean isAscending() {
+        return asc;
+    }
+
+    /** @return true if the output is sorted on the specified field, that
+        is, if it is the left or right copy of the join key */
+    public boolean isSortedOn(int field) {
+        return field == _p.getField1()
+            || field == childIterator1.getTupleDesc().numFields() + _p.getField2();
+    }
+
+    /**
+     * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        childIterator1.open();
+        childIterator2.open();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        childIterator1.close();
+        childIterator2.close();
+        group.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        childIterator1.rewind();
+        childIterator2.rewind();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        leftTuple = null;
+        lastLeftKey = null;
+        group.clear();
+        groupKey = null;
+        groupIndex = 0;
+        rightLookahead = null;
+        lastRightKey = null;
+        nextRight();
+    }
+
+    /**
+     * Compare two join keys in the order of the inputs: negative if a
+     * comes before b.
+     */
+    private int compareKeys(Field a, Field b) {
+        if (a.equals(b)) {
+            return 0;
+        }
+        boolean less = a.compare(Predicate.Op.LESS_THAN, b);
+        return (less == asc) ? -1 : 1;
+    }
+
+    /** Move the right lookahead to the next right tuple, checking order */
+    private void nextRight() throws DbException, TransactionAbortedException {
+        if (!childIterator2.hasNext()) {
+            rightLookahead = null;
+            return;
+        }
+        rightLookahead = childIterator2.next();
+        Field key = rightLookahead.getField(_p.getField2());
+        if (lastRightKey != null && compareKeys(lastRightKey, key) > 0) {
+            throw new DbException("right input of SortMergeJoin is not sorted on field " + _p.getField2());
+        }
+        lastRightKey = key;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As with {@link Join}, the result is the concatenation of
+     * the matching left and right tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (leftTuple != null && groupIndex < group.size()) {
+                return new JoinedTuple(td, leftTuple, group.get(groupIndex++));
+            }
+
+            if (!childIterator1.hasNext()) {
+                return null;
+            }
+            leftTuple = childIterator1.next();
+            groupIndex = 0;
+            Field key = leftTuple.getField(_p.getField1());
+            if (lastLeftKey != null && compareKeys(lastLeftKey, key) > 0) {
+                throw new DbException("left input of SortMergeJoin is not sorted on field " + _p.getField1());
+            }
+            lastLeftKey = key;
+            if (groupKey != null && key.equals(groupKey)) {
+                continue; // same key as the last left tuple: replay the group
+            }
+
+            // gather the right tuples matching this key
+            group.clear();
+            groupKey = null;
+            while (rightLookahead != null && compareKeys(rightLookahead.getField(_p.getField2()), key) < 0) {
+                nextRight();
+            }
+            if (rightLookahead != null && rightLookahead.getField(_p.getField2()).equals(key)) {
+                groupKey = key;
+                while (rightLookahead != null && rightLookahead.getField(_p.getField2()).equals(key)) {
+                    group.add(rightLookahead);
+                    nextRight();
+                }
+            } else if (rightLookahead == null) {
+                return null; // nothing left on the right can match
+            }
+        }
+    }
+
+    private final JoinPredicate _p;
+    private final DbIterator childIterator1; // left
+    private final DbIterator childIterator2; // right
+    private final boolean asc;
+    private final TupleDesc td;
+
+    private Tuple leftTuple;
+    private Field lastLeftKey;
+    private final ArrayList<Tuple> group = new ArrayList<Tuple>();
+    private Field groupKey;
+    private int groupIndex;
+    private Tuple rightLookahead;
+    private Field lastRightKey;
+}
@@ -1,6 +1,17 @@
 package simpledb;
 
-/** TableStats represents statistics (e.g., histograms) about base tables in a query */
+import java.io.IOException;
+
+/** TableStats represents statistics (e.g., histograms) about base tables in a query
+ * <p>
+ * Each field of the table gets an equi-width histogram: an
+ * {@link IntHistogram} over the range of an int field, or a
+ * {@link StringHistogram}.  Sizing the int histograms needs the range of
+ * each field before any value is counted, so the table is read twice, once
+ * for the ranges and once to fill the histograms, except that a heap file
+ * whose pages are all summarized by its {@link ZoneMap} gives the ranges
+ * without the first read.
+ */
 public class TableStats {
     
     /**
@@ -18,11 +29,94 @@ public class TableStats {
      * 		                This doesn't differentiate between sequential-scan IO and disk seeks.
      */
     public TableStats (int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the DbFile for the table in question,
-    	// then scan through its tuples and calculate the values that you need.
-    	// You should try to do this reasonably efficiently, but you don't necessarily
-    	// have to (for example) do everything in a single scan of the table.
-    	// some code goes here
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = JoinOptimizer.numPages(file);
+        TupleDesc td = file.getTupleDesc();
+        intHistograms = new IntHistogram[td.numFields()];
+        stringHistograms = new StringHistogram[td.numFields()];
+
+        TransactionId tid = new TransactionId();
+        try {
+            int[][] ranges = fieldRanges(file, tid);
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getType(i) == Type.INT_TYPE) {
+                    intHistograms[i] = new IntHistogram(NUM_HIST_BINS, ranges[i][0], ranges[i][1]);
+                } else {
+                    stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+                }
+            }
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (intHistograms[i] != null) {
+                        intHistograms[i].addValue(((IntField) t.getField(i)).getValue());
+                    } else {
+                        stringHistograms[i].addValue(((StringField) t.getField(i)).getValue());
+                    }
+                }
+                numTuples++;
+            }
+            it.close();
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * @return for each int field of a file, the least and greatest value
+     * in it, from the zone map of a fully summarized heap file or else by
+     * reading the file; {0, 0} if the file is empty
+     */
+    private static int[][] fieldRanges(DbFile file, TransactionId tid)
+        throws DbException, TransactionAbortedException {
+        TupleDesc td = file.getTupleDesc();
+        int[][] ranges = new int[td.numFields()][];
+        if (file instanceof HeapFile) {
+            HeapFile hf = (HeapFile) file;
+            boolean summarized = true;
+            for (int i = 0; i < td.numFields() && summarized; i++) {
+                if (td.getType(i) == Type.INT_TYPE) {
+                    ranges[i] = hf.getZoneMap().range(i, hf.numPages());
+                    summarized = ranges[i] != null;
+                }
+            }
+            if (summarized) {
+                return ranges;
+            }
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            ranges[i] = new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE };
+        }
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getType(i) == Type.INT_TYPE) {
+                    int v = ((IntField) t.getField(i)).getValue();
+                    ranges[i][0] = Math.min(ranges[i][0], v);
+                    ranges[i][1] = Math.max(ranges[i][1], v);
+                }
+            }
+        }
+        it.close();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (ranges[i][0] > ranges[i][1]) {
+                ranges[i] = new int[] { 0, 0 };
+            }
+        }
+        return ranges;
     }
 
     /** 
@@ -39,8 +133,7 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */ 
     public double estimateScanCost() {
-    	// some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /** 
@@ -52,8 +145,7 @@ public class TableStats {
      * @return The estimated cardinality of the scan with the specified selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-    	// some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /** 
@@ -65,8 +157,19 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the predicate
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-    	// some code goes here
+        if (intHistograms[field] != null && constant instanceof IntField) {
+            return intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        }
+        if (stringHistograms[field] != null && constant instanceof StringField) {
+            return stringHistograms[field].estimateSelectivity(op, ((StringField) constant).getValue());
+        }
         return 1.0;
     }
 
+    private final int ioCostPerPage;
+    private final int numPages;
+    private long numTuples;
+    /** for each field, its histogram; null in the array not matching its type */
+    private final IntHistogram[] intHistograms;
+    private final StringHistogram[] stringHistograms;
 }
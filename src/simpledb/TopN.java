@@ -0,0 +1,136 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n: it returns the first n tuples of
+ * its child in sorted order.  The child is read once, keeping only the n
+ * best tuples seen so far in a bounded heap whose root is the worst of
+ * them, so memory is proportional to n rather than to the input and each
+ * tuple costs O(log n).
+ */
+public class TopN extends AbstractDbIterator {
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc true if the sort order is ascending.
+     * @param limit the number of tuples to return.
+     * @param child the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator, sorted on
+     * several fields, the first of which is the most significant.
+     *
+     * @param orderbyFields the fields to which the sort is applied.
+     * @param asc for each field, true if it sorts in ascending order.
+     * @param limit the number of tuples to return.
+     * @param child the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, DbIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.child = child;
+        this.limit = limit;
+        this.comparator = new TupleComparator(child.getTupleDesc(), orderbyFields, asc);
+        this.orderByFields = comparator.getFields();
+        this.asc = comparator.getAscending();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /** @return the index of the field the tuples are sorted on first */
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    /** @return true if the sort order of the first field is ascending */
+    public boolean isAscending() {
+        return asc[0];
+    }
+
+    /** @return the indexes of the fields the tuples are sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return the most tuples this operator returns */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        // the root of the heap is the worst of the best tuples so far
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, Math.min(limit, 4096)),
+            (a, b) -> comparator.compare(b.key, b.t, a.key, a.t));
+        while (limit > 0 && child.hasNext()) {
+            Tuple t = child.next();
+            long key = comparator.normalizedKey(t);
+            if (heap.size() < limit) {
+                heap.add(new Entry(key, t));
+            } else {
+                Entry worst = heap.peek();
+                if (comparator.compare(key, t, worst.key, worst.t) < 0) {
+                    heap.poll();
+                    heap.add(new Entry(key, t));
+                }
+            }
+        }
+        top = new Tuple[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = heap.poll().t;
+        }
+        next = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        next = 0;
+    }
+
+    /**
+     * AbstractDbIterator.readNext implementation.
+     * Returns the best tuples from the child operator in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more tuples
+     */
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        if (top != null && next < top.length) {
+            return top[next++];
+        }
+        return null;
+    }
+
+    /** A tuple and its normalized key */
+    private static class Entry {
+        final long key;
+        final Tuple t;
+
+        Entry(long key, Tuple t) {
+            this.key = key;
+            this.t = t;
+        }
+    }
+
+    private final DbIterator child;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int limit;
+    private final TupleComparator comparator;
+    private Tuple[] top;
+    private int next;
+}
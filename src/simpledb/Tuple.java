@@ -18,6 +18,15 @@ public class Tuple {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple with the specified schema whose fields are supplied
+     * by a subclass overriding {@link #getField} and {@link #setField}.
+     */
+    protected Tuple(TupleDesc td, Field[] fields) {
+        this.td = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -71,11 +80,11 @@ public class Tuple {
      */
     public String toString() {
         String result = "";
-        for (int i = 0; i < fields.length; i++) {
+        for (int i = 0; i < td.numFields(); i++) {
             if (i != 0) {
                 result += " ";
             }
-            result += fields[i].toString();
+            result += getField(i).toString();
         }
         result += '\n';
         return result;
@@ -0,0 +1,141 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * TupleComparator orders tuples on one or more fields, each ascending or
+ * descending.  It is built once per sort from the schema, so that every
+ * sort field is compared as the int or string it is, rather than through
+ * {@link Field#compare} and its operator dispatch.
+ * <p>
+ * Sorts that move many tuples around can also compare normalized keys:
+ * {@link #normalizedKey} packs a prefix of a tuple's sort fields into a
+ * long whose unsigned order is the sort order.  Ints are stored with
+ * their sign bit flipped, strings as their first characters, and
+ * descending fields complemented.  Tuples with different keys are ordered
+ * by the keys alone; ties are broken by comparing the fields, unless the
+ * key holds every sort field in full (see {@link #isKeyExact}).
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+    /**
+     * Create a comparator on a single field.
+     *
+     * @param td the schema of the tuples to compare
+     * @param field the index of the field to sort on
+     * @param asc true if the field sorts in ascending order
+     */
+    public TupleComparator(TupleDesc td, int field, boolean asc) {
+        this(td, new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * Create a comparator on several fields, the first of which is the
+     * most significant.
+     *
+     * @param td the schema of the tuples to compare
+     * @param fields the indexes of the fields to sort on
+     * @param asc for each field, true if it sorts in ascending order
+     */
+    public TupleComparator(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length) {
+            throw new IllegalArgumentException("need one direction for each of at least one sort field");
+        }
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.isInt = new boolean[fields.length];
+        int bits = 64;
+        boolean exact = true;
+        for (int i = 0; i < fields.length; i++) {
+            isInt[i] = td.getType(fields[i]) == Type.INT_TYPE;
+            if (bits == 0 || !isInt[i]) {
+                exact = false; // a string prefix or a field that did not fit
+            }
+            bits = isInt[i] ? Math.max(0, bits - 32) : 0;
+        }
+        this.keyExact = exact;
+    }
+
+    /** @return the indexes of the sort fields, most significant first */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /** @return for each sort field, true if it sorts in ascending order */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /**
+     * @return true if normalized keys hold every sort field in full, so
+     * that tuples with equal keys are equal in the sort order
+     */
+    public boolean isKeyExact() {
+        return keyExact;
+    }
+
+    public int compare(Tuple a, Tuple b) {
+        for (int i = 0; i < fields.length; i++) {
+            int c;
+            if (isInt[i]) {
+                c = Integer.compare(((IntField) a.getField(fields[i])).getValue(),
+                                    ((IntField) b.getField(fields[i])).getValue());
+            } else {
+                c = ((StringField) a.getField(fields[i])).getValue()
+                    .compareTo(((StringField) b.getField(fields[i])).getValue());
+            }
+            if (c != 0) {
+                return asc[i] ? c : -c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two tuples whose normalized keys have already been computed.
+     */
+    public int compare(long keyA, Tuple a, long keyB, Tuple b) {
+        int c = Long.compareUnsigned(keyA, keyB);
+        if (c != 0 || keyExact) {
+            return c;
+        }
+        return compare(a, b);
+    }
+
+    /**
+     * @return the normalized key of the tuple: a prefix of its sort fields
+     * packed into a long, with unused low bits zero
+     */
+    public long normalizedKey(Tuple t) {
+        long key = 0;
+        int bits = 64;
+        for (int i = 0; i < fields.length && bits > 0; i++) {
+            if (isInt[i]) {
+                long part = (((IntField) t.getField(fields[i])).getValue() ^ 0x80000000) & 0xffffffffL;
+                if (!asc[i]) {
+                    part = ~part & 0xffffffffL;
+                }
+                bits -= 32;
+                key |= part << bits;
+            } else {
+                // up to four chars of the string, zero padded; longer
+                // strings with the same prefix tie and are compared in full
+                String s = ((StringField) t.getField(fields[i])).getValue();
+                long part = 0;
+                for (int c = 0; c < bits / 16; c++) {
+                    part = (part << 16) | (c < s.length() ? s.charAt(c) : 0);
+                }
+                if (!asc[i]) {
+                    part = bits == 64 ? ~part : ~part & ((1L << bits) - 1);
+                }
+                key |= part;
+                bits = 0;
+            }
+        }
+        return key;
+    }
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private final boolean[] isInt;
+    private final boolean keyExact;
+}
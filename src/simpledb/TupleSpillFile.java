@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * TupleSpillFile is a temporary file of tuples for operators that run out
+ * of memory.  Tuples are appended with {@link #add} and, once writing is
+ * done, read back in the same order through {@link #iterator}, as many
+ * times as needed.  Fields are stored in their on-page format, so record
+ * ids are not preserved.
+ * <p>
+ * The file is removed by {@link #delete}, or when the JVM exits.
+ */
+public class TupleSpillFile {
+
+    /**
+     * Create an empty spill file for tuples of the specified schema.
+     */
+    public TupleSpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            f = File.createTempFile("simpledb-spill", ".tmp");
+            f.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples in this file */
+    public int size() {
+        return size;
+    }
+
+    /** Append a tuple to this file.  Not allowed once the file has been read. */
+    public void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new IllegalStateException("spill file " + f + " has already been read");
+        }
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file " + f + ": " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * Return an iterator over the tuples in this file, in the order they
+     * were added.  Finishes writing the file.
+     */
+    public DbIterator iterator() throws DbException {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new DbException("could not write spill file " + f + ": " + e.getMessage());
+            }
+            out = null;
+        }
+        return new SpillIterator();
+    }
+
+    /** Remove this file from disk. */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is going away anyway
+            }
+            out = null;
+        }
+        f.delete();
+    }
+
+    public String toString() {
+        return f.getName() + " (" + size + " tuples)";
+    }
+
+    private class SpillIterator extends AbstractDbIterator {
+        private DataInputStream in;
+        private int remaining;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file " + f + " is gone");
+            }
+            remaining = size;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read
+                }
+                in = null;
+            }
+        }
+
+        protected Tuple readNext() throws DbException, NoSuchElementException {
+            if (in == null) {
+                throw new IllegalStateException("spill file iterator is not open");
+            }
+            if (remaining == 0) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file " + f);
+            }
+            remaining--;
+            return t;
+        }
+    }
+
+    private final TupleDesc td;
+    private final File f;
+    private DataOutputStream out;
+    private int size = 0;
+}
@@ -35,8 +35,8 @@ public enum Type {
             try {
                 int strLen = dis.readInt();
                 byte bs[] = new byte[strLen];
-                dis.read(bs);
-                dis.skipBytes(STRING_LEN-strLen);
+                dis.readFully(bs);
+                dis.skipNBytes(STRING_LEN-strLen);
                 return new StringField(new String(bs), STRING_LEN);
             } catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ZoneMap summarizes the pages of a {@link HeapFile}: for each page, the
+ * number of tuples on it and the least and greatest value of each of its
+ * int fields.  A scan filtering on a range of a field can skip the pages
+ * whose range does not overlap it without reading them, which pays off
+ * when the field is roughly clustered, as timestamps or ids of appended
+ * tuples are.
+ * <p>
+ * A page is summarized exactly whenever it is read from disk.  Inserts
+ * widen the summary of their page, and deletes summarize it again, so a
+ * summary always covers every tuple on the page, including those of
+ * transactions still in progress; an aborted insert may leave it wider
+ * than needed until the page is next read.  Pages not read since the
+ * file was opened have no summary, and are never skipped.  Summaries are
+ * kept in memory only.
+ */
+public class ZoneMap {
+
+    /**
+     * Create an empty zone map for a table of the specified schema.
+     */
+    public ZoneMap(TupleDesc td) {
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getType(i) == Type.INT_TYPE) n++;
+        }
+        slots = new int[td.numFields()];
+        intFields = new int[n];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            slots[i] = -1;
+            if (td.getType(i) == Type.INT_TYPE) {
+                slots[i] = n;
+                intFields[n++] = i;
+            }
+        }
+    }
+
+    /** Replace the summary of a page with one of the tuples now on it */
+    public synchronized void summarize(HeapPage page) {
+        int[] zone = new int[1 + 2 * intFields.length];
+        for (int j = 0; j < intFields.length; j++) {
+            zone[1 + 2 * j] = Integer.MAX_VALUE;
+            zone[2 + 2 * j] = Integer.MIN_VALUE;
+        }
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            widen(zone, it.next());
+        }
+        int pgNo = page.getId().pageno();
+        while (zones.size() <= pgNo) {
+            zones.add(null);
+        }
+        zones.set(pgNo, zone);
+    }
+
+    /** Widen the summary of a page, if it has one, to cover a tuple just added to it */
+    public synchronized void include(int pgNo, Tuple t) {
+        int[] zone = pgNo < zones.size() ? zones.get(pgNo) : null;
+        if (zone != null) {
+            widen(zone, t);
+        }
+    }
+
+    private void widen(int[] zone, Tuple t) {
+        zone[0]++;
+        for (int j = 0; j < intFields.length; j++) {
+            int v = ((IntField) t.getField(intFields[j])).getValue();
+            zone[1 + 2 * j] = Math.min(zone[1 + 2 * j], v);
+            zone[2 + 2 * j] = Math.max(zone[2 + 2 * j], v);
+        }
+    }
+
+    /** @return true if the page has a summary */
+    public synchronized boolean isSummarized(int pgNo) {
+        return pgNo < zones.size() && zones.get(pgNo) != null;
+    }
+
+    /**
+     * @return false if the summary of a page shows that none of its tuples
+     * can satisfy a predicate; true if some may, or if the page has no
+     * summary or the predicate is not on an int field
+     */
+    public synchronized boolean mayMatch(int pgNo, Predicate p) {
+        int[] zone = pgNo < zones.size() ? zones.get(pgNo) : null;
+        if (zone == null) {
+            return true;
+        }
+        if (zone[0] == 0) {
+            return false;
+        }
+        int slot = slots[p.getField()];
+        if (slot < 0 || !(p.getOperand() instanceof IntField)) {
+            return true;
+        }
+        int min = zone[1 + 2 * slot], max = zone[2 + 2 * slot];
+        int v = ((IntField) p.getOperand()).getValue();
+        switch (p.getOp()) {
+        case EQUALS: return min <= v && v <= max;
+        case LESS_THAN: return min < v;
+        case LESS_THAN_OR_EQ: return min <= v;
+        case GREATER_THAN: return max > v;
+        case GREATER_THAN_OR_EQ: return max >= v;
+        case NOT_EQUALS: return min != v || max != v;
+        default: return true;
+        }
+    }
+
+    /**
+     * @return the least and greatest value of an int field over the first
+     * numPages pages, or null if one of them has no summary; {0, 0} if
+     * they hold no tuples
+     */
+    public synchronized int[] range(int field, int numPages) {
+        int slot = slots[field];
+        if (slot < 0 || numPages > zones.size()) {
+            return null;
+        }
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            int[] zone = zones.get(pgNo);
+            if (zone == null) {
+                return null;
+            }
+            min = Math.min(min, zone[1 + 2 * slot]);
+            max = Math.max(max, zone[2 + 2 * slot]);
+        }
+        return min > max ? new int[] { 0, 0 } : new int[] { min, max };
+    }
+
+    /** @return true unless the summary of a page shows one of the predicates cannot be satisfied on it */
+    public boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            if (!mayMatch(pgNo, p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** for each field, its index among the int fields, or -1 if it is not one */
+    private final int[] slots;
+    private final int[] intFields;
+    /** for each page, the number of tuples and then the min and max of each int field; null if unknown */
+    private final ArrayList<int[]> zones = new ArrayList<int[]>();
+}
@@ -176,6 +176,30 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates over
+   * two grouping columns
+   */
+  @Test public void multipleAggregates() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 1, 4,
+                    1, 2, 6,
+                    3, 1, 2,
+                    3, 1, 7 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2, 2 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MAX, Aggregator.Op.COUNT },
+        new int[] { 0, 1 });
+    assertEquals(Utility.getTupleDesc(5), op.getTupleDesc());
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 1, 6, 4, 2,
+                    1, 2, 6, 6, 1,
+                    3, 1, 9, 7, 2 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,428 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+  static final TupleDesc STRING_TD = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+  static final TupleDesc INT_TD = Utility.getTupleDesc(2, "field");
+
+  Random rand;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUpPool() {
+    Database.resetBufferPool(1000);
+    rand = new Random(6830);
+  }
+
+  static BTreeFile createTree(TupleDesc td, String name) throws Exception {
+    File f = File.createTempFile("btree-" + name, ".dat");
+    f.deleteOnExit();
+    f.delete();
+    BTreeFile bf = new BTreeFile(f, 0, td);
+    Database.getCatalog().addTable(bf, name);
+    return bf;
+  }
+
+  static Tuple stringTuple(int key, int value) {
+    Tuple t = new Tuple(STRING_TD);
+    t.setField(0, new StringField("key" + key, Type.STRING_LEN));
+    t.setField(1, new IntField(value));
+    return t;
+  }
+
+  static Tuple intTuple(int key, int value) {
+    return Utility.getHeapTuple(new int[] { key, value });
+  }
+
+  /** Insert the tuples through the BufferPool, a batch per transaction */
+  static void insert(BTreeFile bf, ArrayList<Tuple> tuples) throws Exception {
+    for (int i = 0; i < tuples.size(); i += 100) {
+      TransactionId tid = new TransactionId();
+      for (Tuple t : tuples.subList(i, Math.min(tuples.size(), i + 100))) {
+        Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+      }
+      Database.getBufferPool().transactionComplete(tid);
+    }
+  }
+
+  static ArrayList<Tuple> scan(DbFileIterator it) throws Exception {
+    ArrayList<Tuple> result = new ArrayList<Tuple>();
+    it.open();
+    while (it.hasNext()) {
+      result.add(it.next());
+    }
+    it.close();
+    return result;
+  }
+
+  static String describe(Tuple t) {
+    return t.getField(0) + " " + t.getField(1);
+  }
+
+  static final Comparator<Tuple> BY_KEY_THEN_VALUE = (a, b) -> {
+    String ka = a.getField(0).toString(), kb = b.getField(0).toString();
+    if (a.getField(0) instanceof IntField) {
+      int c = Integer.compare(((IntField) a.getField(0)).getValue(), ((IntField) b.getField(0)).getValue());
+      if (c != 0) return c;
+    } else if (!ka.equals(kb)) {
+      return ka.compareTo(kb);
+    }
+    return Integer.compare(((IntField) a.getField(1)).getValue(), ((IntField) b.getField(1)).getValue());
+  };
+
+  /** Check that a scan returns exactly the expected tuples, in key order */
+  static void checkContents(BTreeFile bf, ArrayList<Tuple> expected) throws Exception {
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> actual = scan(bf.iterator(tid));
+    for (int i = 1; i < actual.size(); i++) {
+      assertFalse(actual.get(i - 1).getField(0).compare(Predicate.Op.GREATER_THAN, actual.get(i).getField(0)));
+    }
+    ArrayList<String> a = new ArrayList<String>(), e = new ArrayList<String>();
+    Collections.sort(actual, BY_KEY_THEN_VALUE);
+    ArrayList<Tuple> sorted = new ArrayList<Tuple>(expected);
+    Collections.sort(sorted, BY_KEY_THEN_VALUE);
+    for (Tuple t : actual) a.add(describe(t));
+    for (Tuple t : sorted) e.add(describe(t));
+    assertEquals(e, a);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Check the invariants of the tree below a page: keys in order and
+   * within the separators above them, pages at least half full except
+   * the root, and all leaves at the same depth, chained in order.
+   *
+   * @return the height of the subtree
+   */
+  static int checkSubtree(TransactionId tid, BTreePageId pid, Field lo, Field hi, boolean root,
+                          ArrayList<Integer> leaves) throws Exception {
+    Page page = Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    if (page instanceof BTreeLeafPage) {
+      BTreeLeafPage leaf = (BTreeLeafPage) page;
+      assertTrue(root || leaf.numTuples() >= leaf.maxTuples() / 2);
+      for (int i = 0; i < leaf.numTuples(); i++) {
+        Field k = leaf.getKey(i);
+        assertTrue(lo == null || k.compare(Predicate.Op.GREATER_THAN_OR_EQ, lo));
+        assertTrue(hi == null || k.compare(Predicate.Op.LESS_THAN_OR_EQ, hi));
+        assertTrue(i == 0 || k.compare(Predicate.Op.GREATER_THAN_OR_EQ, leaf.getKey(i - 1)));
+        assertEquals(new RecordId(pid, i), leaf.getTuple(i).getRecordId());
+      }
+      assertEquals(leaves.isEmpty() ? 0 : leaves.get(leaves.size() - 1).intValue(), leaf.getLeftSibling());
+      leaves.add(pid.pageno());
+      return 1;
+    }
+    BTreeInternalPage node = (BTreeInternalPage) page;
+    assertTrue(node.numKeys() >= (root ? 1 : node.maxKeys() / 2));
+    assertEquals(node.numKeys() + 1, node.numChildren());
+    int height = -1;
+    for (int i = 0; i < node.numChildren(); i++) {
+      Field childLo = i == 0 ? lo : node.getKey(i - 1);
+      Field childHi = i == node.numKeys() ? hi : node.getKey(i);
+      int h = checkSubtree(tid, node.getChildId(i), childLo, childHi, false, leaves);
+      assertTrue(height == -1 || height == h);
+      height = h;
+    }
+    return height + 1;
+  }
+
+  /** @return the height of the tree, after checking its invariants */
+  static int checkTree(BTreeFile bf) throws Exception {
+    TransactionId tid = new TransactionId();
+    BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+        new BTreePageId(bf.getId(), 0, BTreePageId.ROOT_PTR), Permissions.READ_ONLY);
+    int height = 0;
+    if (rootPtr.getRootId() != null) {
+      ArrayList<Integer> leaves = new ArrayList<Integer>();
+      height = checkSubtree(tid, rootPtr.getRootId(), null, null, true, leaves);
+      for (int i = 0; i < leaves.size(); i++) {
+        BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+            new BTreePageId(bf.getId(), leaves.get(i), BTreePageId.LEAF), Permissions.READ_ONLY);
+        assertEquals(i + 1 < leaves.size() ? leaves.get(i + 1).intValue() : 0, leaf.getRightSibling());
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    return height;
+  }
+
+  /**
+   * Inserts split leaves and internal pages, and a scan returns every
+   * tuple in key order
+   */
+  @Test public void insertSplits() throws Exception {
+    BTreeFile bf = createTree(STRING_TD, "btstrings");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 3000; i++) {
+      tuples.add(stringTuple(rand.nextInt(1000), i));
+    }
+    insert(bf, tuples);
+    assertTrue(checkTree(bf) >= 3);
+    checkContents(bf, tuples);
+  }
+
+  /**
+   * Index iterators return the tuples matching each operator, including
+   * keys with duplicates spanning several leaves
+   */
+  @Test public void indexIterator() throws Exception {
+    BTreeFile bf = createTree(INT_TD, "btints");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 5000; i++) {
+      tuples.add(intTuple(rand.nextInt(50), i));
+    }
+    insert(bf, tuples);
+    assertTrue(checkTree(bf) >= 2);
+
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+        Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS };
+    TransactionId tid = new TransactionId();
+    for (Predicate.Op op : ops) {
+      for (int k : new int[] { -1, 0, 17, 49, 50 }) {
+        IntField key = new IntField(k);
+        int expected = 0;
+        for (Tuple t : tuples) {
+          if (t.getField(0).compare(op, key)) expected++;
+        }
+        ArrayList<Tuple> found = scan(bf.indexIterator(tid, op, key));
+        assertEquals(op + " " + k, expected, found.size());
+        for (Tuple t : found) {
+          assertTrue(t.getField(0).compare(op, key));
+        }
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Deletes refill and merge pages, the tree shrinks, and freed pages are
+   * reused by later inserts
+   */
+  @Test public void deleteMerges() throws Exception {
+    BTreeFile bf = createTree(STRING_TD, "btdeletes");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 3000; i++) {
+      tuples.add(stringTuple(rand.nextInt(1000), i));
+    }
+    insert(bf, tuples);
+    int height = checkTree(bf);
+    int pages = bf.numPages();
+
+    Collections.shuffle(tuples, rand);
+    ArrayList<Tuple> kept = new ArrayList<Tuple>(tuples.subList(2800, tuples.size()));
+    for (int i = 0; i < 2800; i += 100) {
+      TransactionId tid = new TransactionId();
+      for (Tuple t : tuples.subList(i, i + 100)) {
+        Database.getBufferPool().deleteTuple(tid, t);
+      }
+      Database.getBufferPool().transactionComplete(tid);
+    }
+    assertTrue(checkTree(bf) < height);
+    checkContents(bf, kept);
+
+    ArrayList<Tuple> more = new ArrayList<Tuple>();
+    for (int i = 0; i < 2000; i++) {
+      more.add(stringTuple(rand.nextInt(1000), 3000 + i));
+    }
+    insert(bf, more);
+    kept.addAll(more);
+    checkTree(bf);
+    checkContents(bf, kept);
+    assertEquals(pages, bf.numPages());
+  }
+
+  /**
+   * Deleting every tuple leaves an empty root leaf
+   */
+  @Test public void deleteAll() throws Exception {
+    BTreeFile bf = createTree(INT_TD, "btempty");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 2000; i++) {
+      tuples.add(intTuple(i % 300, i));
+    }
+    insert(bf, tuples);
+    TransactionId tid = new TransactionId();
+    for (Tuple t : tuples) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(1, checkTree(bf));
+    checkContents(bf, new ArrayList<Tuple>());
+  }
+
+  /**
+   * An aborted transaction's inserts, and the splits they caused, are undone
+   */
+  @Test public void abort() throws Exception {
+    BTreeFile bf = createTree(INT_TD, "btabort");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 600; i++) {
+      tuples.add(intTuple(rand.nextInt(1000), i));
+    }
+    insert(bf, tuples);
+    assertEquals(2, checkTree(bf));
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 600; i++) {
+      Database.getBufferPool().insertTuple(tid, bf.getId(), intTuple(rand.nextInt(1000), i));
+    }
+    Database.getBufferPool().transactionComplete(tid, false);
+    assertEquals(2, checkTree(bf));
+    checkContents(bf, tuples);
+  }
+
+  /**
+   * IndexScan returns the matching tuples sorted on the key, and the
+   * planner scans the index for a predicate on the key field
+   */
+  @Test public void indexScan() throws Exception {
+    BTreeFile bf = createTree(INT_TD, "bt");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 2000; i++) {
+      tuples.add(intTuple(rand.nextInt(200), i));
+    }
+    insert(bf, tuples);
+    int matches = 0;
+    for (Tuple t : tuples) {
+      if (((IntField) t.getField(0)).getValue() < 40) matches++;
+    }
+
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, bf.getId(), "bt", Predicate.Op.LESS_THAN, new IntField(40));
+    assertEquals("bt.field0", scan.getTupleDesc().getFieldName(0));
+    assertEquals(Boolean.TRUE, JoinOptimizer.sortOrder(scan, 0));
+    assertNull(JoinOptimizer.sortOrder(scan, 1));
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      assertTrue(((IntField) scan.next().getField(0)).getValue() < 40);
+      count++;
+    }
+    assertEquals(matches, count);
+    scan.close();
+
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("bt", new TableStats(bf.getId(), 1000));
+    LogicalPlan lp = Parser.generateLogicalPlan(tid, "SELECT * FROM bt WHERE bt.field0 < 40;");
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    plan.open();
+    count = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      count++;
+    }
+    assertEquals(matches, count);
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Bulk loads build valid trees of every size at each fill factor, with
+   * the leaves and then the internal pages written in order, and the
+   * trees take inserts and deletes afterwards
+   */
+  @Test public void bulkLoad() throws Exception {
+    int perLeaf = BTreeLeafPage.maxTuples(INT_TD);
+    int n = 0;
+    for (int size : new int[] { 0, 1, perLeaf, perLeaf + 1, 3 * perLeaf - 1, 20000 }) {
+      for (double fill : new double[] { 1.0, 0.7, 0.5 }) {
+        BTreeFile bf = createTree(INT_TD, "btbulk" + n++);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < size; i++) {
+          tuples.add(intTuple(rand.nextInt(size / 4 + 1), i));
+        }
+        // sorted externally, in several runs
+        OrderBy sorted = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, true },
+                                     new TupleIterator(INT_TD, tuples), 64 * 1024);
+        assertEquals(size, bf.bulkLoad(sorted, fill));
+        int height = checkTree(bf);
+        checkContents(bf, tuples);
+        int leaves = (int) Math.ceil(size / (double) Math.max(1, (int) (perLeaf * fill)));
+        assertTrue(size + " at " + fill, bf.numPages() <= 1 + leaves + leaves / 100 + height);
+
+        TransactionId tid = new TransactionId();
+        if (size > 0) {
+          BTreeLeafPage first = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+              new BTreePageId(bf.getId(), 1, BTreePageId.LEAF), Permissions.READ_ONLY);
+          assertEquals(0, first.getLeftSibling());
+          assertEquals(size > first.numTuples() ? 2 : 0, first.getRightSibling());
+        }
+        for (int k : new int[] { 0, size / 8 }) {
+          int expected = 0;
+          for (Tuple t : tuples) {
+            if (((IntField) t.getField(0)).getValue() == k) expected++;
+          }
+          assertEquals(expected, scan(bf.indexIterator(tid, Predicate.Op.EQUALS, new IntField(k))).size());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+      }
+    }
+
+    // string keys make for small fanouts and several levels of internal pages
+    BTreeFile strings = createTree(STRING_TD, "btbulkstrings");
+    ArrayList<Tuple> stringTuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 5000; i++) {
+      stringTuples.add(stringTuple(rand.nextInt(1000), i));
+    }
+    strings.bulkLoad(new OrderBy(0, true, new TupleIterator(STRING_TD, stringTuples)), 0.7);
+    assertTrue(checkTree(strings) >= 3);
+    checkContents(strings, stringTuples);
+
+    BTreeFile bf = createTree(INT_TD, "btbulkupdate");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 5000; i++) {
+      tuples.add(intTuple(i, i));
+    }
+    bf.bulkLoad(new TupleIterator(INT_TD, tuples), 0.7);
+    ArrayList<Tuple> more = new ArrayList<Tuple>();
+    for (int i = 0; i < 2000; i++) {
+      more.add(intTuple(rand.nextInt(5000), -i));
+    }
+    insert(bf, more);
+    TransactionId tid = new TransactionId();
+    tuples = scan(bf.iterator(tid));
+    Collections.shuffle(tuples, rand);
+    for (Tuple t : tuples.subList(0, 3000)) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    checkTree(bf);
+    checkContents(bf, new ArrayList<Tuple>(tuples.subList(3000, tuples.size())));
+
+    // only empty trees can be loaded, from sorted input
+    try {
+      bf.bulkLoad(new TupleIterator(INT_TD, more), 1.0);
+      throw new AssertionError("loaded a tree that is not empty");
+    } catch (DbException expected) {
+    }
+    try {
+      createTree(INT_TD, "btunsorted").bulkLoad(new TupleIterator(INT_TD, more), 1.0);
+      throw new AssertionError("loaded unsorted tuples");
+    } catch (DbException expected) {
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
@@ -0,0 +1,179 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Vector;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BlockNestedLoopsJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /** A tuple list that counts how often it is rewound */
+  static class CountingTupleIterator extends TupleIterator {
+    int rewinds = 0;
+
+    CountingTupleIterator(TupleDesc td, Iterable<Tuple> tuples) {
+      super(td, tuples);
+    }
+
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for BlockNestedLoopsJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopsJoin op = new BlockNestedLoopsJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopsJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopsJoin op = new BlockNestedLoopsJoin(pred, scan1, scan2, 3);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopsJoin.getNext() using a &gt; predicate,
+   * with a block that does not divide the outer input evenly
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopsJoin op = new BlockNestedLoopsJoin(pred, scan1, scan2, 3);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopsJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopsJoin op = new BlockNestedLoopsJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * The inner is scanned once per block of outer tuples
+   */
+  @Test public void innerScannedOncePerBlock() throws Exception {
+    ArrayList<Tuple> inner = new ArrayList<Tuple>();
+    DbIterator it = TestUtil.createTupleList(width2, new int[] { 1, 2, 3, 2, 3, 4 });
+    it.open();
+    while (it.hasNext()) inner.add(it.next());
+    CountingTupleIterator counting = new CountingTupleIterator(Utility.getTupleDesc(width2), inner);
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    BlockNestedLoopsJoin op = new BlockNestedLoopsJoin(pred, scan1, counting, 2);
+    op.open();
+    while (op.hasNext()) op.next();
+    assertEquals(2, counting.rewinds); // 4 outer tuples, 2 per block
+  }
+
+  /**
+   * The default block fills part of the buffer pool
+   */
+  @Test public void blockSizeFollowsBufferPool() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    Database.resetBufferPool(10);
+    int small = new BlockNestedLoopsJoin(pred, scan1, scan2).getBlockTuples();
+    Database.resetBufferPool(40);
+    int large = new BlockNestedLoopsJoin(pred, scan1, scan2).getBlockTuples();
+    assertEquals(4 * small, large);
+  }
+
+  /**
+   * The optimizer costs a non-equality join as one read of the inner per
+   * block of outer tuples, not per outer tuple
+   */
+  @Test public void optimizerCostsBlocks() throws Exception {
+    HeapFile outer = SystemTestUtil.createRandomHeapFile(width1, 10, null, null);
+    HeapFile inner = SystemTestUtil.createRandomHeapFile(width2, 10, null, null);
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(outer.getId(), "o");
+    lp.addScan(inner.getId(), "i");
+    JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    LogicalJoinNode lj = new LogicalJoinNode("o", "i", "o.field0", "i.field0", Predicate.Op.LESS_THAN);
+
+    int blockTuples = BlockNestedLoopsJoin.defaultBlockTuples(outer.getTupleDesc());
+    int card1 = 3 * blockTuples;
+    double cost = jo.estimateJoinCost(lj, card1, 1000, 100, 5000);
+    assertEquals(100 + 3 * 5000 + card1 * 1000.0, cost, 1e-6);
+    assertTrue(cost < 100 + card1 * 5000.0 + card1 * 1000.0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopsJoinTest.class);
+  }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+  /**
+   * Every added field is reported as possibly present, and about the
+   * requested fraction of other fields are too
+   */
+  @Test public void falsePositiveRate() {
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for (int i = 0; i < 10000; i++) {
+      filter.add(new IntField(i * 3));
+    }
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(filter.mightContain(new IntField(i * 3)));
+    }
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain(new IntField(-i - 1))) falsePositives++;
+    }
+    assertTrue("false positives " + falsePositives, falsePositives < 2000);
+    assertEquals(7, filter.numHashes());
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void rejectsRate() {
+    new BloomFilter(100, 1.0);
+  }
+
+  /**
+   * A scan given a semi-join filter returns the tuples whose field may be
+   * in it, and all of them again once the filter is removed
+   */
+  @Test public void seqScan() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 100, new HashMap<Integer, Integer>(), tuples);
+    BloomFilter filter = new BloomFilter(5, 0.01);
+    for (int i = 0; i < 5; i++) {
+      filter.add(new IntField(i));
+    }
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(1) < 5) expected++;
+    }
+
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, f.getId(), "t");
+    scan.setSemiJoinFilter(1, filter);
+    scan.open();
+    int count = 0, kept = 0;
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      if (((IntField) t.getField(1)).getValue() < 5) kept++;
+      count++;
+    }
+    assertEquals(expected, kept);
+    assertTrue(count < expected + 100);
+
+    scan.setSemiJoinFilter(0, null);
+    assertNull(scan.getSemiJoinFilter());
+    scan.rewind();
+    count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    assertEquals(tuples.size(), count);
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BloomFilterTest.class);
+  }
+}
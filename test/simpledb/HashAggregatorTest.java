@@ -0,0 +1,268 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashAggregatorTest extends SimpleDbTestBase {
+
+  /**
+   * Several aggregates over the same groups in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(2,
+        new int[] { 1, 6,
+                    1, 2,
+                    1, 4,
+                    3, 2,
+                    3, 9,
+                    5, 7 });
+    HashAggregator agg = new HashAggregator(new int[] { 0 }, new Type[] { Type.INT_TYPE },
+        new int[] { 1, 1, 1, 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+                              Aggregator.Op.AVG, Aggregator.Op.COUNT });
+    scan.open();
+    while (scan.hasNext()) {
+      agg.merge(scan.next());
+    }
+    assertEquals(3, agg.numGroups());
+    TestUtil.matchAllTuples(TestUtil.createTupleList(6,
+        new int[] { 1, 2, 6, 12, 4, 3,
+                    3, 2, 9, 11, 5, 2,
+                    5, 7, 7, 7, 7, 1 }), agg.iterator());
+  }
+
+  /**
+   * Grouping by a string field, and by a string and an int field together
+   */
+  @Test public void stringAndCompositeKeys() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 2,
+                       "b", 1, 4,
+                       "a", 2, 6,
+                       "a", 1, 8,
+                       "bb", 1, 1 });
+
+    HashAggregator byString = new HashAggregator(0, Type.STRING_TYPE, 2, Aggregator.Op.SUM);
+    HashAggregator byBoth = new HashAggregator(new int[] { 0, 1 }, new Type[] { Type.STRING_TYPE, Type.INT_TYPE },
+        new int[] { 2 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      byString.merge(t);
+      byBoth.merge(t);
+    }
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+        new Object[] { "a", 16,
+                       "b", 4,
+                       "bb", 1 }), byString.iterator());
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 10,
+                       "a", 2, 6,
+                       "b", 1, 4,
+                       "bb", 1, 1 }), byBoth.iterator());
+  }
+
+  /**
+   * Sums are accumulated in longs, so an average of large values is exact
+   */
+  @Test public void sumDoesNotOverflow() throws Exception {
+    HashAggregator agg = new HashAggregator(Aggregator.NO_GROUPING, null, 0, Aggregator.Op.AVG);
+    for (int i = 0; i < 4; i++) {
+      agg.merge(Utility.getHeapTuple(new int[] { Integer.MAX_VALUE - 1 }));
+    }
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { Integer.MAX_VALUE - 1 }), agg.iterator());
+  }
+
+  /**
+   * Strings differing only in the high bytes of their chars are distinct
+   * groups, and come back unchanged
+   */
+  @Test public void wideCharKeys() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(2,
+        new Object[] { "\u0101", 1,
+                       "\u0001", 2,
+                       "\u4e2d\u6587", 3,
+                       "\u0101", 4 });
+    HashAggregator agg = new HashAggregator(new int[] { 0 }, new Type[] { Type.STRING_TYPE },
+        new int[] { 1 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+    scan.open();
+    while (scan.hasNext()) {
+      agg.merge(scan.next());
+    }
+    TestUtil.matchAllTuples(TestUtil.createTupleList(2,
+        new Object[] { "\u0101", 5,
+                       "\u0001", 2,
+                       "\u4e2d\u6587", 3 }), agg.iterator());
+  }
+
+  /**
+   * A sum past the range of an int fails instead of wrapping around
+   */
+  @Test public void sumOutOfRange() throws Exception {
+    HashAggregator agg = new HashAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    agg.merge(Utility.getHeapTuple(new int[] { 1, Integer.MAX_VALUE }));
+    agg.merge(Utility.getHeapTuple(new int[] { 2, Integer.MIN_VALUE }));
+    agg.merge(Utility.getHeapTuple(new int[] { 2, -1 }));
+    agg.merge(Utility.getHeapTuple(new int[] { 3, Integer.MAX_VALUE }));
+    agg.merge(Utility.getHeapTuple(new int[] { 3, 1 }));
+    DbIterator it = agg.iterator();
+    it.open();
+    int ok = 0, failed = 0;
+    while (true) {
+      try {
+        if (!it.hasNext()) break;
+        Tuple t = it.next();
+        assertEquals(new IntField(Integer.MAX_VALUE), t.getField(1));
+        ok++;
+      } catch (DbException e) {
+        failed++;
+      }
+    }
+    it.close();
+    assertEquals(1, ok);
+    assertEquals(2, failed);
+  }
+
+  /**
+   * Many distinct groups, forcing the hash tables and accumulators to grow
+   */
+  @Test public void manyGroups() throws Exception {
+    int n = 10000;
+    HashAggregator byInt = new HashAggregator(0, Type.INT_TYPE, 0, Aggregator.Op.MAX);
+    HashAggregator byString = new HashAggregator(1, Type.STRING_TYPE, 0, Aggregator.Op.COUNT);
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    for (int i = 0; i < 2 * n; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i % n));
+      t.setField(1, new StringField("key" + (i % n), Type.STRING_LEN));
+      byInt.merge(t);
+      byString.merge(t);
+    }
+    assertEquals(n, byInt.numGroups());
+    assertEquals(n, byString.numGroups());
+
+    DbIterator it = byString.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      assertEquals(new IntField(2), it.next().getField(1));
+      groups++;
+    }
+    assertEquals(n, groups);
+  }
+
+  /**
+   * Groups that outgrow the memory budget are spilled and merged per partition
+   */
+  @Test public void spillingAggregate() throws Exception {
+    int n = 5000;
+    HashAggregator agg = new HashAggregator(new int[] { 0 }, new Type[] { Type.INT_TYPE },
+        new int[] { 1, 1, 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT },
+        16 * 1024);
+    for (int i = 0; i < 3 * n; i++) {
+      agg.merge(Utility.getHeapTuple(new int[] { i % n, i }));
+    }
+    assertTrue(agg.spilled());
+    checkSpilledResults(agg, n);
+    // the spill files can be read again
+    checkSpilledResults(agg, n);
+    agg.discard();
+  }
+
+  private void checkSpilledResults(HashAggregator agg, int n) throws Exception {
+    boolean[] seen = new boolean[n];
+    DbIterator it = agg.iterator();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      assertFalse(seen[key]);
+      seen[key] = true;
+      assertEquals(new IntField(3 * key + 3 * n), t.getField(1));
+      assertEquals(new IntField(key), t.getField(2));
+      assertEquals(new IntField(key + 2 * n), t.getField(3));
+      assertEquals(new IntField(3), t.getField(4));
+    }
+    it.close();
+    for (int i = 0; i < n; i++) {
+      assertTrue(seen[i]);
+    }
+  }
+
+  /**
+   * A budget so small that partitions must be split again
+   */
+  @Test public void repartitionedSpill() throws Exception {
+    int n = 3000;
+    HashAggregator agg = new HashAggregator(new int[] { 1 }, new Type[] { Type.STRING_TYPE },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.COUNT }, 1);
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    for (int i = 0; i < 2 * n; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("key" + (i % n), Type.STRING_LEN));
+      agg.merge(t);
+    }
+    assertTrue(agg.spilled());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      assertEquals(new IntField(2), it.next().getField(1));
+      groups++;
+    }
+    assertEquals(n, groups);
+    agg.discard();
+  }
+
+  /**
+   * Partial aggregates of disjoint inputs merge into the aggregate of both
+   */
+  @Test public void partialMerge() throws Exception {
+    Aggregator.Op[] ops = new Aggregator.Op[] { Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.COUNT };
+    HashAggregator a = new HashAggregator(new int[] { 0 }, new Type[] { Type.INT_TYPE }, new int[] { 1, 1, 1 }, ops);
+    HashAggregator b = new HashAggregator(new int[] { 0 }, new Type[] { Type.INT_TYPE }, new int[] { 1, 1, 1 }, ops);
+    a.merge(Utility.getHeapTuple(new int[] { 1, 1 }));
+    a.merge(Utility.getHeapTuple(new int[] { 2, 5 }));
+    b.merge(Utility.getHeapTuple(new int[] { 1, 4 }));
+    b.merge(Utility.getHeapTuple(new int[] { 1, 7 }));
+
+    HashAggregator merged = a.partialMerger();
+    for (HashAggregator partial : new HashAggregator[] { a, b }) {
+      DbIterator it = partial.partialIterator();
+      it.open();
+      while (it.hasNext()) {
+        merged.merge(it.next());
+      }
+    }
+    // the average of 1, 4, 7 is 4, not the average of the partial averages
+    TestUtil.matchAllTuples(TestUtil.createTupleList(4,
+        new int[] { 1, 4, 1, 3,
+                    2, 5, 5, 1 }), merged.iterator());
+  }
+
+  /**
+   * Without grouping and without input there is no result tuple
+   */
+  @Test public void emptyInput() throws Exception {
+    HashAggregator agg = new HashAggregator(Aggregator.NO_GROUPING, null, 0, Aggregator.Op.COUNT);
+    DbIterator it = agg.iterator();
+    it.open();
+    assertFalse(it.hasNext());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashAggregatorTest.class);
+  }
+}
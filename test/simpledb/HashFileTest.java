@@ -0,0 +1,290 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+  static final TupleDesc INT_TD = Utility.getTupleDesc(2, "field");
+
+  Random rand;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUpPool() {
+    Database.resetBufferPool(1000);
+    rand = new Random(6830);
+  }
+
+  static HashFile createHashFile(TupleDesc td, String name) throws Exception {
+    File f = File.createTempFile("hash-" + name, ".dat");
+    f.deleteOnExit();
+    f.delete();
+    HashFile hf = new HashFile(f, 0, td);
+    Database.getCatalog().addTable(hf, name);
+    return hf;
+  }
+
+  static Tuple tuple(TupleDesc td, int key, int value) {
+    int[] fields = new int[td.numFields()];
+    fields[0] = key;
+    fields[1] = value;
+    Tuple t = new Tuple(td);
+    for (int i = 0; i < fields.length; i++) {
+      t.setField(i, new IntField(fields[i]));
+    }
+    return t;
+  }
+
+  /** Insert the tuples through the BufferPool, a batch per transaction */
+  static void insert(HashFile hf, ArrayList<Tuple> tuples) throws Exception {
+    for (int i = 0; i < tuples.size(); i += 100) {
+      TransactionId tid = new TransactionId();
+      for (Tuple t : tuples.subList(i, Math.min(tuples.size(), i + 100))) {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+      }
+      Database.getBufferPool().transactionComplete(tid);
+    }
+  }
+
+  static ArrayList<String> scan(DbFileIterator it) throws Exception {
+    ArrayList<String> result = new ArrayList<String>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      result.add(t.getField(0) + " " + t.getField(1));
+    }
+    it.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  static ArrayList<String> describe(ArrayList<Tuple> tuples, Field key) {
+    ArrayList<String> result = new ArrayList<String>();
+    for (Tuple t : tuples) {
+      if (key == null || t.getField(0).equals(key)) {
+        result.add(t.getField(0) + " " + t.getField(1));
+      }
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  static HashHeaderPage header(TransactionId tid, HashFile hf) throws Exception {
+    return (HashHeaderPage) Database.getBufferPool().getPage(tid,
+        new HashPageId(hf.getId(), 0, HashPageId.HEADER), Permissions.READ_ONLY);
+  }
+
+  /**
+   * Check that every directory entry names a bucket whose local depth is
+   * at most the global depth and whose tuples hash to the entry, and that
+   * the record ids of the tuples are their positions.
+   *
+   * @return the global depth
+   */
+  static int checkDirectory(HashFile hf) throws Exception {
+    TransactionId tid = new TransactionId();
+    HashHeaderPage header = header(tid, hf);
+    int depth = header.getGlobalDepth();
+    for (int i = 0; i < header.directorySize(); i++) {
+      HashDirectoryPage directory = (HashDirectoryPage) Database.getBufferPool().getPage(tid,
+          new HashPageId(hf.getId(), header.getDirectoryPage(i / HashDirectoryPage.ENTRIES), HashPageId.DIRECTORY),
+          Permissions.READ_ONLY);
+      int pgNo = directory.getBucket(i % HashDirectoryPage.ENTRIES);
+      HashBucketPage bucket = null;
+      do {
+        pgNo = bucket == null ? pgNo : bucket.getNext();
+        bucket = (HashBucketPage) Database.getBufferPool().getPage(tid,
+            new HashPageId(hf.getId(), pgNo, HashPageId.BUCKET), Permissions.READ_ONLY);
+        int mask = (1 << bucket.getLocalDepth()) - 1;
+        assertTrue(bucket.getLocalDepth() <= depth);
+        for (int j = 0; j < bucket.numTuples(); j++) {
+          assertEquals(i & mask, HashFile.hash(bucket.getTuple(j).getField(0)) & mask);
+          assertEquals(new RecordId(bucket.getId(), j), bucket.getTuple(j).getRecordId());
+        }
+      } while (bucket.getNext() != 0);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    return depth;
+  }
+
+  /**
+   * Inserts split buckets and double the directory, and every tuple can
+   * be found by a scan and by a probe for its key
+   */
+  @Test public void insertSplits() throws Exception {
+    HashFile hf = createHashFile(INT_TD, "hashints");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 5000; i++) {
+      tuples.add(tuple(INT_TD, rand.nextInt(100000), i));
+    }
+    insert(hf, tuples);
+    assertTrue(checkDirectory(hf) >= 4);
+
+    TransactionId tid = new TransactionId();
+    assertEquals(describe(tuples, null), scan(hf.iterator(tid)));
+    for (int i = 0; i < 200; i++) {
+      Field key = tuples.get(rand.nextInt(tuples.size())).getField(0);
+      assertEquals(describe(tuples, key), scan(hf.indexIterator(tid, Predicate.Op.EQUALS, key)));
+    }
+    assertEquals(0, scan(hf.indexIterator(tid, Predicate.Op.EQUALS, new IntField(-1))).size());
+    assertEquals(describe(tuples, null).size() - describe(tuples, new IntField(17)).size(),
+                 scan(hf.indexIterator(tid, Predicate.Op.NOT_EQUALS, new IntField(17))).size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** The directory spreads over several pages once it outgrows one */
+  @Test public void directoryPages() throws Exception {
+    TupleDesc wide = Utility.getTupleDesc(200, "field");
+    HashFile hf = createHashFile(wide, "hashwide");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 8000; i++) {
+      tuples.add(tuple(wide, i, i));
+    }
+    insert(hf, tuples);
+    assertTrue(checkDirectory(hf) > 10);
+
+    TransactionId tid = new TransactionId();
+    assertTrue(header(tid, hf).numDirectoryPages() > 1);
+    for (int i = 0; i < 8000; i += 97) {
+      assertEquals(1, scan(hf.indexIterator(tid, Predicate.Op.EQUALS, new IntField(i))).size());
+    }
+    assertEquals(8000, scan(hf.iterator(tid)).size());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Duplicates of a key that overflow a page go on an overflow chain,
+   * whose pages are freed as deletes empty them and then reused
+   */
+  @Test public void duplicatesOverflow() throws Exception {
+    HashFile hf = createHashFile(INT_TD, "hashdups");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 2000; i++) {
+      tuples.add(tuple(INT_TD, i % 2 == 0 ? 7 : rand.nextInt(1000), i));
+    }
+    insert(hf, tuples);
+    checkDirectory(hf);
+    TransactionId tid = new TransactionId();
+    assertEquals(describe(tuples, new IntField(7)),
+                 scan(hf.indexIterator(tid, Predicate.Op.EQUALS, new IntField(7))));
+    Database.getBufferPool().transactionComplete(tid);
+
+    ArrayList<Tuple> sevens = new ArrayList<Tuple>();
+    for (Tuple t : tuples) {
+      if (t.getField(0).equals(new IntField(7))) sevens.add(t);
+    }
+    int pages = hf.numPages();
+    for (int i = 0; i < sevens.size(); i += 100) {
+      tid = new TransactionId();
+      for (Tuple t : sevens.subList(i, Math.min(sevens.size(), i + 100))) {
+        Database.getBufferPool().deleteTuple(tid, t);
+      }
+      Database.getBufferPool().transactionComplete(tid);
+    }
+    tuples.removeAll(sevens);
+    checkDirectory(hf);
+    tid = new TransactionId();
+    assertEquals(0, scan(hf.indexIterator(tid, Predicate.Op.EQUALS, new IntField(7))).size());
+    assertEquals(describe(tuples, null), scan(hf.iterator(tid)));
+    Database.getBufferPool().transactionComplete(tid);
+
+    // the emptied overflow pages are reused
+    ArrayList<Tuple> again = new ArrayList<Tuple>();
+    for (int i = 0; i < sevens.size(); i++) {
+      again.add(tuple(INT_TD, 7, i));
+    }
+    insert(hf, again);
+    assertEquals(pages, hf.numPages());
+    tid = new TransactionId();
+    assertEquals(describe(again, null), scan(hf.indexIterator(tid, Predicate.Op.EQUALS, new IntField(7))));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** An aborted transaction's inserts and splits are rolled back */
+  @Test public void abort() throws Exception {
+    HashFile hf = createHashFile(INT_TD, "hashabort");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 1000; i++) {
+      tuples.add(tuple(INT_TD, rand.nextInt(100000), i));
+    }
+    insert(hf, tuples);
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 2000; i++) {
+      Database.getBufferPool().insertTuple(tid, hf.getId(), tuple(INT_TD, rand.nextInt(100000), -i));
+    }
+    Database.getBufferPool().transactionComplete(tid, false);
+    checkDirectory(hf);
+    tid = new TransactionId();
+    assertEquals(describe(tuples, null), scan(hf.iterator(tid)));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Equality predicates on the key of a hash file are planned as probes */
+  @Test public void indexScan() throws Exception {
+    HashFile hf = createHashFile(INT_TD, "ht");
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 2000; i++) {
+      tuples.add(tuple(INT_TD, rand.nextInt(200), i));
+    }
+    insert(hf, tuples);
+    int matches = describe(tuples, new IntField(40)).size();
+
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, hf.getId(), "ht", Predicate.Op.EQUALS, new IntField(40));
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      assertEquals(new IntField(40), scan.next().getField(0));
+      count++;
+    }
+    assertEquals(matches, count);
+    scan.close();
+    try {
+      new IndexScan(tid, hf.getId(), "ht", Predicate.Op.LESS_THAN, new IntField(40));
+      throw new AssertionError("hash files only support equality probes");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("ht", new TableStats(hf.getId(), 1000));
+    for (String where : new String[] { "ht.field0 = 40", "ht.field0 < 40" }) {
+      LogicalPlan lp = Parser.generateLogicalPlan(tid, "SELECT * FROM ht WHERE " + where + ";");
+      DbIterator plan = lp.physicalPlan(tid, stats, false);
+      plan.open();
+      count = 0;
+      while (plan.hasNext()) {
+        plan.next();
+        count++;
+      }
+      plan.close();
+      int expected = 0;
+      for (Tuple t : tuples) {
+        if (((IntField) t.getField(0)).getValue() < 40) expected++;
+      }
+      assertEquals(where.contains("=") ? matches : expected, count);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashFileTest.class);
+  }
+}
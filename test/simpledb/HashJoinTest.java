@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    5, 9,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    5, 6, 5, 6, 7,
+                    5, 9, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), building on the smaller right input
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() when the left input is the smaller
+   * one; the output columns must still be left followed by right
+   */
+  @Test public void eqJoinSmallerLeft() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan2, scan1);
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(width2 + width1,
+        new int[] { 1, 2, 3, 1, 2,
+                    5, 6, 7, 5, 6,
+                    5, 6, 7, 5, 9 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /** Build a two column tuple list whose first column cycles through keys values */
+  private DbIterator keyedTuples(int rows, int keys) {
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = (i * 7) % keys;
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * A join whose inputs exceed the memory budget partitions them to disk
+   * and still produces the same tuples as a nested loops join
+   */
+  @Test public void spillingJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, keyedTuples(400, 50), keyedTuples(300, 50), 2000);
+    op.open();
+    assertTrue(op.spilled());
+    Join expected = new Join(pred, keyedTuples(400, 50), keyedTuples(300, 50));
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+
+    op.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * A partition made of a single key cannot be split by re-partitioning;
+   * it is joined a chunk at a time instead
+   */
+  @Test public void spillingJoinWithSkew() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, keyedTuples(60, 1), keyedTuples(50, 1), 1000);
+    op.open();
+    assertTrue(op.spilled());
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      count++;
+    }
+    assertEquals(60 * 50, count);
+    op.close();
+  }
+
+  /**
+   * Join a filtered heap scan with a few keys, checking that the Bloom
+   * filter of the build keys is pushed into the scan while the join is
+   * open and that the join produces the same tuples as a nested loops join
+   */
+  private void semiJoin(long memoryBytes, boolean spills) throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 1000,
+        new HashMap<Integer, Integer>(), new ArrayList<ArrayList<Integer>>());
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, f.getId(), "t");
+    Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100));
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, new Filter(p, scan), keyedTuples(200, 20), memoryBytes);
+    op.open();
+    assertEquals(spills, op.spilled());
+    assertNotNull(op.getProbeFilter());
+    assertTrue(scan.getSemiJoinFilter() == op.getProbeFilter());
+
+    Join expected = new Join(pred, new Filter(p, new SeqScan(tid, f.getId(), "t")), keyedTuples(200, 20));
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+    expected.close();
+    op.close();
+    assertNull(scan.getSemiJoinFilter());
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  @Test public void semiJoinFilter() throws Exception {
+    semiJoin(DbConfig.joinMemoryBytes, false);
+  }
+
+  @Test public void semiJoinFilterWhenSpilled() throws Exception {
+    semiJoin(2000, true);
+  }
+
+  /**
+   * HashJoin can only evaluate equality predicates
+   */
+  @Test(expected = IllegalArgumentException.class) public void rejectsNonEquality() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
@@ -0,0 +1,233 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopsJoinTest extends SimpleDbTestBase {
+
+  static final TupleDesc INT_TD = Utility.getTupleDesc(2, "field");
+
+  ArrayList<ArrayList<Integer>> rows;
+  HeapFile heap;
+  BTreeFile tree;
+  HashFile hash;
+  TupleIterator outer;
+
+  /**
+   * Initialize each unit test: the same 2000 tuples stored in a heap file
+   * with a secondary index on field 0, a B+ tree and a hash file, and an
+   * outer input of 30 tuples
+   */
+  @Before public void createTables() throws Exception {
+    Database.resetBufferPool(1000);
+    Random rand = new Random(6830);
+    rows = new ArrayList<ArrayList<Integer>>();
+    heap = SystemTestUtil.createRandomHeapFile(2, 2000, 200, null, rows, "field");
+    File f = File.createTempFile("inlj-", ".idx");
+    f.deleteOnExit();
+    Database.getCatalog().createIndex(heap.getId(), 0, f);
+
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    for (ArrayList<Integer> row : rows) {
+      tuples.add(Utility.getHeapTuple(new int[] { row.get(0), row.get(1) }));
+    }
+    tree = BTreeFileTest.createTree(INT_TD, "inljtree");
+    BTreeFileTest.insert(tree, tuples);
+    tuples.clear();
+    for (ArrayList<Integer> row : rows) {
+      tuples.add(Utility.getHeapTuple(new int[] { row.get(0), row.get(1) }));
+    }
+    hash = HashFileTest.createHashFile(INT_TD, "inljhash");
+    HashFileTest.insert(hash, tuples);
+
+    int[] data = new int[60];
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = rand.nextInt(220);
+      data[i + 1] = i;
+    }
+    outer = TestUtil.createTupleList(2, data);
+  }
+
+  static ArrayList<String> run(DbIterator it) throws Exception {
+    ArrayList<String> result = new ArrayList<String>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+        sb.append(t.getField(i)).append(' ');
+      }
+      result.add(sb.toString());
+    }
+    it.close();
+    Collections.sort(result);
+    return result;
+  }
+
+  /** Check an index nested-loops join against a plain nested-loops join */
+  void check(int tableid, Predicate.Op op, Predicate innerFilter) throws Exception {
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    DbIterator inner = new SeqScan(tid, tableid, "in");
+    if (innerFilter != null) {
+      inner = new Filter(innerFilter, inner);
+    }
+    assertTrue(IndexNestedLoopsJoin.canProbe(inner, 0, op));
+    IndexNestedLoopsJoin join = new IndexNestedLoopsJoin(pred, outer, inner);
+    assertEquals(tableid, join.getInnerTableId());
+    assertEquals(TupleDesc.combine(outer.getTupleDesc(), inner.getTupleDesc()), join.getTupleDesc());
+    ArrayList<String> actual = run(join);
+    assertFalse(actual.isEmpty());
+    assertEquals(run(new Join(pred, outer, inner)), actual);
+
+    // and again after a rewind
+    join.open();
+    join.rewind();
+    int count = 0;
+    while (join.hasNext()) {
+      join.next();
+      count++;
+    }
+    join.close();
+    assertEquals(actual.size(), count);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  @Test public void secondaryIndex() throws Exception {
+    check(heap.getId(), Predicate.Op.EQUALS, null);
+    check(heap.getId(), Predicate.Op.GREATER_THAN, null);
+    check(heap.getId(), Predicate.Op.EQUALS, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000)));
+  }
+
+  @Test public void btree() throws Exception {
+    check(tree.getId(), Predicate.Op.EQUALS, null);
+    check(tree.getId(), Predicate.Op.LESS_THAN_OR_EQ, null);
+    check(tree.getId(), Predicate.Op.EQUALS, new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)));
+  }
+
+  @Test public void hash() throws Exception {
+    check(hash.getId(), Predicate.Op.EQUALS, null);
+    TransactionId tid = new TransactionId();
+    assertFalse(IndexNestedLoopsJoin.canProbe(new SeqScan(tid, hash.getId(), "in"), 0, Predicate.Op.LESS_THAN));
+    assertFalse(IndexNestedLoopsJoin.canProbe(new SeqScan(tid, hash.getId(), "in"), 1, Predicate.Op.EQUALS));
+    assertFalse(IndexNestedLoopsJoin.canProbe(outer, 0, Predicate.Op.EQUALS));
+    try {
+      new IndexNestedLoopsJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), outer,
+                               new SeqScan(tid, hash.getId(), "in"));
+      throw new AssertionError("hash files only support equality probes");
+    } catch (IllegalArgumentException expected) {
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /** Statistics for a table of a fixed size, read at a fixed cost per tuple */
+  static class FixedStats extends TableStats {
+    final int card;
+
+    FixedStats(int tableid, int card) {
+      super(tableid, 1000);
+      this.card = card;
+    }
+
+    public double estimateScanCost() {
+      return card * 10.0;
+    }
+
+    public int estimateTableCardinality(double selectivityFactor) {
+      return (int) (card * selectivityFactor);
+    }
+
+    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+      return 1.0;
+    }
+  }
+
+  /**
+   * The join keeps the order of its outer input, on the outer's fields and
+   * on the inner copy of an equality's key
+   */
+  @Test public void keepsOuterOrder() throws Exception {
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopsJoin join = new IndexNestedLoopsJoin(pred, new SeqScan(tid, tree.getId(), "o"),
+                                                         new SeqScan(tid, heap.getId(), "i"));
+    assertEquals(Boolean.TRUE, JoinOptimizer.sortOrder(join, 0));
+    assertEquals(Boolean.TRUE, JoinOptimizer.sortOrder(join, 2));
+    assertNull(JoinOptimizer.sortOrder(join, 1));
+    assertNull(JoinOptimizer.sortOrder(join, 3));
+
+    join.open();
+    int last = Integer.MIN_VALUE;
+    while (join.hasNext()) {
+      int key = ((IntField) join.next().getField(2)).getValue();
+      assertTrue(key >= last);
+      last = key;
+    }
+    join.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The optimizer probes the inner's index when the outer is small, and
+   * reads the inner in full when it is large
+   */
+  @Test public void optimizerChoice() throws Exception {
+    Database.getCatalog().addTable(heap, "outertable");
+    Database.getCatalog().addTable(tree, "innertable");
+    TransactionId tid = new TransactionId();
+    String query = "SELECT * FROM outertable o, innertable i WHERE o.field0 = i.field0;";
+    LogicalPlan lp = Parser.generateLogicalPlan(tid, query);
+    JoinOptimizer jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    LogicalJoinNode lj = new LogicalJoinNode("o", "i", "o.field0", "i.field0", Predicate.Op.EQUALS);
+
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("o", new FixedStats(heap.getId(), 2));
+    stats.put("i", new FixedStats(tree.getId(), 2000));
+    DbIterator join = jo.instantiateJoin(lj, new SeqScan(tid, heap.getId(), "o"),
+                                         new SeqScan(tid, tree.getId(), "i"), stats);
+    assertTrue(join instanceof IndexNestedLoopsJoin);
+    double probe = JoinOptimizer.indexProbeCost(tree.getId(), 0, Predicate.Op.EQUALS, 2000, 20000, false);
+    assertTrue(probe > 0);
+    assertEquals(20 + 2 * probe, jo.estimateJoinCost(lj, 2, 2000, 20, 20000), 1e-6);
+    // without an index, it is costed as the hash join it runs as
+    LogicalJoinNode unindexed = new LogicalJoinNode("i", "o", "i.field0", "o.field1", Predicate.Op.EQUALS);
+    assertEquals(JoinOptimizer.hashJoinCost(2, 2000, 20, 20), jo.estimateJoinCost(unindexed, 2, 2000, 20, 20), 1e-6);
+
+    stats.put("o", new FixedStats(heap.getId(), 100000));
+    join = jo.instantiateJoin(lj, new SeqScan(tid, heap.getId(), "o"), new SeqScan(tid, tree.getId(), "i"), stats);
+    assertFalse(join instanceof IndexNestedLoopsJoin);
+
+    // the planner's join returns the same tuples either way
+    HashMap<String, TableStats> baseStats = new HashMap<String, TableStats>();
+    baseStats.put("outertable", new FixedStats(heap.getId(), 2));
+    baseStats.put("innertable", stats.get("i"));
+    ArrayList<String> probed = run(lp.physicalPlan(tid, baseStats, false));
+    baseStats.put("outertable", stats.get("o"));
+    lp = Parser.generateLogicalPlan(tid, query);
+    assertEquals(run(lp.physicalPlan(tid, baseStats, false)), probed);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopsJoinTest.class);
+  }
+}
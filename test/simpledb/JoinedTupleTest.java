@@ -0,0 +1,50 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinedTupleTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for JoinedTuple.getField()
+     */
+    @Test public void getField() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        TupleDesc td = TupleDesc.combine(left.getTupleDesc(), right.getTupleDesc());
+
+        Tuple tup = new JoinedTuple(td, left, right);
+        assertEquals(td, tup.getTupleDesc());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(new IntField(i + 1), tup.getField(i));
+        }
+        assertEquals("1 2 3 4 5\n", tup.toString());
+    }
+
+    /**
+     * Setting a field of a JoinedTuple leaves its inputs alone
+     */
+    @Test public void setField() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        TupleDesc td = TupleDesc.combine(left.getTupleDesc(), right.getTupleDesc());
+
+        Tuple tup = new JoinedTuple(td, left, right);
+        tup.setField(3, new IntField(37));
+        assertEquals(new IntField(37), tup.getField(3));
+        assertEquals(new IntField(3), tup.getField(2));
+        assertEquals(new IntField(5), tup.getField(4));
+        assertEquals(new IntField(4), right.getField(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinedTupleTest.class);
+    }
+}
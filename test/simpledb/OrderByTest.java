@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  static final int ROWS = 2000;
+  ArrayList<Integer> keys;
+  int[] data;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createData() {
+    Random rand = new Random(6830);
+    keys = new ArrayList<Integer>();
+    data = new int[2 * ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      int key = rand.nextInt(500);
+      keys.add(key);
+      data[2 * i] = key;
+      data[2 * i + 1] = i;
+    }
+  }
+
+  private void checkOrder(OrderBy op, boolean asc) throws Exception {
+    ArrayList<Integer> expected = new ArrayList<Integer>(keys);
+    Collections.sort(expected);
+    if (!asc) Collections.reverse(expected);
+    for (int key : expected) {
+      assertTrue(op.hasNext());
+      assertEquals(new IntField(key), op.next().getField(0));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for OrderBy over an input that fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+    op.open();
+    assertEquals(0, op.numRuns());
+    checkOrder(op, true);
+    op.rewind();
+    checkOrder(op, true);
+  }
+
+  /**
+   * Unit test for OrderBy sorting externally, in both directions
+   */
+  @Test public void external() throws Exception {
+    for (boolean asc : new boolean[] { true, false }) {
+      OrderBy op = new OrderBy(0, asc, TestUtil.createTupleList(2, data), 16 * 1024);
+      op.open();
+      assertTrue(op.numRuns() > 1);
+      checkOrder(op, asc);
+      op.rewind();
+      checkOrder(op, asc);
+      op.close();
+    }
+  }
+
+  /**
+   * Replacement selection writes runs about twice as long as memory, and
+   * a single run for sorted input
+   */
+  @Test public void replacementSelection() throws Exception {
+    long budget = 16 * 1024;
+    int memoryTuples = (int) (budget / HashJoin.estimateTupleBytes(Utility.getTupleDesc(2)));
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), budget);
+    op.open();
+    assertTrue(op.numRuns() <= ROWS / memoryTuples);
+    op.close();
+
+    int[] sorted = new int[2 * ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      sorted[2 * i] = i;
+      sorted[2 * i + 1] = i;
+    }
+    op = new OrderBy(0, true, TestUtil.createTupleList(2, sorted), budget);
+    op.open();
+    assertEquals(1, op.numRuns());
+    op.close();
+  }
+
+  /**
+   * So many runs that they are merged in more than one pass
+   */
+  @Test public void multiPassMerge() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), 1);
+    op.open();
+    assertTrue(op.numRuns() > OrderBy.MERGE_FANIN);
+    checkOrder(op, true);
+    op.close();
+  }
+
+  /**
+   * Closing and reopening sorts the input again, without keeping the old tuples
+   */
+  @Test public void reopen() throws Exception {
+    OrderBy op = new OrderBy(0, false, TestUtil.createTupleList(2, data));
+    op.open();
+    checkOrder(op, false);
+    op.close();
+    op.open();
+    checkOrder(op, false);
+  }
+
+  /**
+   * Sorting on two fields, the second descending, in memory and externally
+   */
+  @Test public void multipleFields() throws Exception {
+    for (long budget : new long[] { DbConfig.sortMemoryBytes, 16 * 1024 }) {
+      OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+          TestUtil.createTupleList(2, data), budget);
+      op.open();
+      Tuple last = null;
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        if (last != null) {
+          int k0 = ((IntField) last.getField(0)).getValue(), k1 = ((IntField) t.getField(0)).getValue();
+          assertTrue(k0 <= k1);
+          if (k0 == k1) {
+            assertTrue(((IntField) last.getField(1)).getValue() > ((IntField) t.getField(1)).getValue());
+          }
+        }
+        last = t;
+        count++;
+      }
+      assertEquals(ROWS, count);
+      op.close();
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+  ArrayList<ArrayList<Integer>> tuples;
+  HeapFile hf;
+  SecondaryIndex index;
+
+  /**
+   * Initialize each unit test: a table of 2000 tuples with an index on
+   * its second field
+   */
+  @Before public void createIndexedTable() throws Exception {
+    Database.resetBufferPool(1000);
+    tuples = new ArrayList<ArrayList<Integer>>();
+    hf = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, tuples, "c");
+    Database.getCatalog().addTable(hf, "indexed");
+    File f = File.createTempFile("index-", ".dat");
+    f.deleteOnExit();
+    index = Database.getCatalog().createIndex(hf.getId(), 1, f);
+  }
+
+  int countMatches(Predicate.Op op, int value) {
+    int count = 0;
+    for (ArrayList<Integer> t : tuples) {
+      if (new IntField(t.get(1)).compare(op, new IntField(value))) count++;
+    }
+    return count;
+  }
+
+  ArrayList<Tuple> lookup(Predicate.Op op, int value) throws Exception {
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> result = new ArrayList<Tuple>();
+    DbFileIterator it = index.iterator(tid, op, new IntField(value));
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertTrue(t.getField(1).compare(op, new IntField(value)));
+      result.add(t);
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return result;
+  }
+
+  @Test public void catalog() {
+    assertSame(index, Database.getCatalog().getIndex(hf.getId(), 1));
+    assertNull(Database.getCatalog().getIndex(hf.getId(), 0));
+    assertEquals(1, Database.getCatalog().getIndexes(hf.getId()).size());
+    assertEquals(SecondaryIndex.entryDesc(Type.INT_TYPE),
+                 Database.getCatalog().getTupleDesc(index.getFile().getId()));
+  }
+
+  @Test public void lookups() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                                                Predicate.Op.GREATER_THAN_OR_EQ }) {
+      for (int value : new int[] { -1, 0, 17, 50, 99, 100 }) {
+        assertEquals(op + " " + value, countMatches(op, value), lookup(op, value).size());
+      }
+    }
+
+    // tuples come back in the order of the field
+    int last = Integer.MIN_VALUE;
+    for (Tuple t : lookup(Predicate.Op.GREATER_THAN, 40)) {
+      int v = ((IntField) t.getField(1)).getValue();
+      assertTrue(v >= last);
+      last = v;
+    }
+  }
+
+  @Test public void maintained() throws Exception {
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 50; i++) {
+      Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { i, 500 }));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(50, lookup(Predicate.Op.EQUALS, 500).size());
+    assertEquals(countMatches(Predicate.Op.LESS_THAN, 100), lookup(Predicate.Op.LESS_THAN, 100).size());
+
+    // an aborted insert leaves the index as it was
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 0, 600 }));
+    Database.getBufferPool().transactionComplete(tid, false);
+    assertEquals(0, lookup(Predicate.Op.EQUALS, 600).size());
+
+    // delete the tuples found through the index
+    tid = new TransactionId();
+    DbFileIterator it = index.iterator(tid, Predicate.Op.EQUALS, new IntField(500));
+    ArrayList<Tuple> found = new ArrayList<Tuple>();
+    it.open();
+    while (it.hasNext()) {
+      found.add(it.next());
+    }
+    it.close();
+    for (Tuple t : found) {
+      Database.getBufferPool().deleteTuple(tid, t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(0, lookup(Predicate.Op.EQUALS, 500).size());
+
+    // and some of the original ones, through a plain scan
+    tid = new TransactionId();
+    Delete delete = new Delete(tid, new Filter(
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(10)), new SeqScan(tid, hf.getId(), "")));
+    delete.open();
+    while (delete.hasNext()) {
+      delete.next();
+    }
+    delete.close();
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(0, lookup(Predicate.Op.LESS_THAN, 10).size());
+    assertEquals(countMatches(Predicate.Op.GREATER_THAN_OR_EQ, 10),
+                 lookup(Predicate.Op.GREATER_THAN_OR_EQ, 10).size());
+  }
+
+  @Test public void indexScan() throws Exception {
+    String name = "indexed";
+    TransactionId tid = new TransactionId();
+    IndexScan scan = new IndexScan(tid, hf.getId(), "t", 1, Predicate.Op.EQUALS, new IntField(17));
+    assertEquals(Boolean.TRUE, JoinOptimizer.sortOrder(scan, 1));
+    assertNull(JoinOptimizer.sortOrder(scan, 0));
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      assertEquals(new IntField(17), scan.next().getField(1));
+      count++;
+    }
+    scan.close();
+    assertEquals(countMatches(Predicate.Op.EQUALS, 17), count);
+
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(name, new TableStats(hf.getId(), 1000));
+    for (String where : new String[] { "c1 = 17", "c1 < 30" }) {
+      LogicalPlan lp = Parser.generateLogicalPlan(tid, "SELECT * FROM " + name + " WHERE " + name + "." + where + ";");
+      DbIterator plan = lp.physicalPlan(tid, stats, false);
+      plan.open();
+      count = 0;
+      while (plan.hasNext()) {
+        plan.next();
+        count++;
+      }
+      plan.close();
+      assertEquals(where, where.contains("=") ? countMatches(Predicate.Op.EQUALS, 17)
+                                              : countMatches(Predicate.Op.LESS_THAN, 30), count);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The planner only fetches tuples through a secondary index for
+   * selective predicates, equalities included
+   */
+  @Test public void unselectiveEqualityScans() {
+    SeqScan scan = new SeqScan(new TransactionId(), hf.getId(), "t");
+    assertTrue(LogicalPlan.isIndexScanOn(scan, 1, Predicate.Op.EQUALS, DbConfig.indexMaxSelectivity / 2));
+    assertFalse(LogicalPlan.isIndexScanOn(scan, 1, Predicate.Op.EQUALS, 0.5));
+    assertFalse(LogicalPlan.isIndexScanOn(scan, 1, Predicate.Op.LESS_THAN, 0.5));
+  }
+
+  /**
+   * An index whose build fails is not attached to the table, and the
+   * locks its scan took are released
+   */
+  @Test public void failedBuild() throws Exception {
+    TransactionId writer = new TransactionId();
+    HeapPageId last = new HeapPageId(hf.getId(), hf.numPages() - 1);
+    Database.getBufferPool().getPage(writer, last, Permissions.READ_WRITE);
+
+    File f = File.createTempFile("index-", ".dat");
+    f.deleteOnExit();
+    try {
+      Database.getCatalog().createIndex(hf.getId(), 0, f);
+      throw new AssertionError("built an index over a locked page");
+    } catch (TransactionAbortedException e) {
+      // the build could not read the locked page
+    }
+    Database.getBufferPool().transactionComplete(writer);
+    assertNull(Database.getCatalog().getIndex(hf.getId(), 0));
+    assertEquals(1, Database.getCatalog().getIndexes(hf.getId()).size());
+    assertFalse(f.exists());
+
+    // the first page is free to be written, and the table is only maintained in its index
+    TransactionId tid = new TransactionId();
+    Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_WRITE);
+    Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -1, -1 }));
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(1, lookup(Predicate.Op.EQUALS, -1).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SecondaryIndexTest.class);
+  }
+}
@@ -0,0 +1,178 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    // sorted on the first column, with duplicate keys on both sides
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    3, 5,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    3, 9, 9,
+                    7, 6, 7,
+                    8, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 9, 9,
+                    3, 5, 3, 4, 5,
+                    3, 5, 3, 9, 9,
+                    7, 8, 7, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() with duplicate groups
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.compareDbIterators(eqJoin, op);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) op.next();
+    op.rewind();
+    eqJoin.open();
+    TestUtil.compareDbIterators(eqJoin, op);
+  }
+
+  /**
+   * Inputs sorted in descending order are merged the other way around
+   */
+  @Test public void descending() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, new OrderBy(0, false, scan1), new OrderBy(0, false, scan2), false);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unsorted input is detected instead of producing a partial result
+   */
+  @Test(expected = DbException.class) public void unsortedInput() throws Exception {
+    DbIterator unsorted = TestUtil.createTupleList(width1, new int[] { 5, 6, 1, 2 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, unsorted, scan2);
+    op.open();
+    while (op.hasNext()) op.next();
+  }
+
+  /**
+   * The optimizer knows which plans produce sorted output
+   */
+  @Test public void sortOrder() {
+    DbIterator sorted = new OrderBy(0, true, scan1);
+    assertEquals(Boolean.TRUE, JoinOptimizer.sortOrder(sorted, 0));
+    assertNull(JoinOptimizer.sortOrder(sorted, 1));
+    assertEquals(Boolean.FALSE, JoinOptimizer.sortOrder(new OrderBy(1, false, scan1), 1));
+    assertNull(JoinOptimizer.sortOrder(scan1, 0));
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, sorted, new OrderBy(0, true, scan2));
+    assertEquals(Boolean.TRUE, JoinOptimizer.sortOrder(op, 0));
+    assertEquals(Boolean.TRUE, JoinOptimizer.sortOrder(op, width1));
+    assertNull(JoinOptimizer.sortOrder(op, 1));
+  }
+
+  /**
+   * The optimizer costs a join of two B+ trees on their keys as a merge
+   * join, cheaper than hashing, and so orders joins to make it
+   */
+  @Test public void optimizerPrefersSortedInputs() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(2, "field");
+    for (String name : new String[] { "smja", "smjb" }) {
+      ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+      for (int i = 0; i < 300; i++) {
+        tuples.add(Utility.getHeapTuple(new int[] { i, i }));
+      }
+      BTreeFileTest.insert(BTreeFileTest.createTree(td, name), tuples);
+    }
+    HeapFile c = SystemTestUtil.createRandomHeapFile(2, 300, 300, null, new ArrayList<ArrayList<Integer>>(), "field");
+    Database.getCatalog().addTable(c, "smjc");
+
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+    for (String name : new String[] { "smja", "smjb", "smjc" }) {
+      stats.put(name, new TableStats(Database.getCatalog().getTableId(name), 10));
+      filterSelectivities.put(name, 1.0);
+    }
+    LogicalJoinNode bc = new LogicalJoinNode("smjb", "smjc", "smjb.field0", "smjc.field0", Predicate.Op.EQUALS);
+    LogicalJoinNode ab = new LogicalJoinNode("smja", "smjb", "smja.field0", "smjb.field0", Predicate.Op.EQUALS);
+    Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+    nodes.add(bc);
+    nodes.add(ab);
+    TransactionId tid = new TransactionId();
+    JoinOptimizer jo = new JoinOptimizer(Parser.generateLogicalPlan(tid,
+        "SELECT * FROM smja, smjb, smjc WHERE smja.field0 = smjb.field0 AND smjb.field0 = smjc.field0;"), nodes);
+
+    assertEquals(JoinOptimizer.mergeJoinCost(300, 300, 30, 30), jo.estimateJoinCost(ab, 300, 300, 30, 30), 1e-6);
+    assertEquals(JoinOptimizer.hashJoinCost(300, 300, 30, 30), jo.estimateJoinCost(bc, 300, 300, 30, 30), 1e-6);
+
+    Vector<LogicalJoinNode> order = jo.orderJoins(stats, filterSelectivities, false);
+    assertEquals(2, order.size());
+    assertTrue(order.get(0).equals(ab));
+
+    DbIterator join = jo.instantiateJoin(ab, new SeqScan(tid, Database.getCatalog().getTableId("smja"), "smja"),
+        new SeqScan(tid, Database.getCatalog().getTableId("smjb"), "smjb"), stats);
+    assertTrue(join instanceof SortMergeJoin);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -152,4 +152,23 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Once every page has been read, the field ranges come from the zone
+	 * map rather than a second read, and the estimates are the same
+	 */
+	@Test public void rangesFromZoneMap() {
+		TableStats read = new TableStats(this.tableId, IO_COST);
+		Assert.assertNotNull(f.getZoneMap().range(0, f.numPages()));
+		TableStats summarized = new TableStats(this.tableId, IO_COST);
+		for (int col = 0; col < 10; col++) {
+			for (int v = -1; v <= 33; v++) {
+				for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+					Assert.assertEquals(read.estimateSelectivity(col, op, new IntField(v)),
+							summarized.estimateSelectivity(col, op, new IntField(v)), 0.0);
+				}
+			}
+		}
+		Assert.assertEquals(1020, summarized.estimateTableCardinality(1.0));
+	}
 }
@@ -0,0 +1,197 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  static final int ROWS = 2000;
+  ArrayList<Integer> keys;
+  int[] data;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createData() {
+    Random rand = new Random(6830);
+    keys = new ArrayList<Integer>();
+    data = new int[2 * ROWS];
+    for (int i = 0; i < ROWS; i++) {
+      int key = rand.nextInt(500);
+      keys.add(key);
+      data[2 * i] = key;
+      data[2 * i + 1] = i;
+    }
+  }
+
+  private void checkTop(DbIterator op, ArrayList<Integer> all, boolean asc, int n) throws Exception {
+    ArrayList<Integer> expected = new ArrayList<Integer>(all);
+    Collections.sort(expected);
+    if (!asc) Collections.reverse(expected);
+    for (int key : expected.subList(0, Math.min(n, expected.size()))) {
+      assertTrue(op.hasNext());
+      assertEquals(new IntField(key), op.next().getField(0));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * TopN returns the first n tuples OrderBy would, in both directions
+   */
+  @Test public void firstN() throws Exception {
+    for (boolean asc : new boolean[] { true, false }) {
+      TopN op = new TopN(0, asc, 10, TestUtil.createTupleList(2, data));
+      op.open();
+      checkTop(op, keys, asc, 10);
+      op.rewind();
+      checkTop(op, keys, asc, 10);
+      op.close();
+    }
+  }
+
+  /**
+   * A limit of zero returns nothing, a limit past the input returns all of it
+   */
+  @Test public void limits() throws Exception {
+    TopN op = new TopN(0, true, 0, TestUtil.createTupleList(2, data));
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+
+    op = new TopN(0, false, 2 * ROWS, TestUtil.createTupleList(2, data));
+    op.open();
+    checkTop(op, keys, false, 2 * ROWS);
+    op.close();
+  }
+
+  /**
+   * Limit stops after n tuples of its child, in the child's order
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(3, TestUtil.createTupleList(2, data));
+    op.open();
+    for (int i = 0; i < 3; i++) {
+      assertTrue(op.hasNext());
+      assertEquals(new IntField(i), op.next().getField(1));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertTrue(op.hasNext());
+    assertEquals(new IntField(0), op.next().getField(1));
+    op.close();
+  }
+
+  /**
+   * The parser strips a trailing LIMIT clause before Zql sees the statement
+   */
+  @Test public void parseLimit() throws Exception {
+    assertEquals(5, Parser.parseLimit("SELECT * FROM t ORDER BY t.a LIMIT 5;"));
+    assertEquals(12, Parser.parseLimit("select * from t limit 12"));
+    assertEquals(-1, Parser.parseLimit("SELECT * FROM t;"));
+    assertEquals("SELECT * FROM t ORDER BY t.a;",
+        Parser.withoutLimit("SELECT * FROM t ORDER BY t.a LIMIT 5;"));
+    assertEquals("SELECT * FROM t;", Parser.withoutLimit("SELECT * FROM t;"));
+  }
+
+  @Test(expected = ParsingException.class) public void limitOutOfRange() throws Exception {
+    Parser.parseLimit("SELECT * FROM t LIMIT 2147483648;");
+  }
+
+  /**
+   * A LIMIT on a statement other than a query is rejected, rather than
+   * the statement running on every row
+   */
+  @Test public void limitedDelete() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(table, "topn");
+    Transaction t = new Transaction();
+    t.start();
+    Parser.setTransaction(t);
+    Parser.processNextStatement("DELETE FROM topn WHERE topn.c0 > -1 LIMIT 1;");
+    Parser.setTransaction(null);
+    t.commit();
+
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, table.getId(), "topn");
+    scan.open();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(ROWS, count);
+  }
+
+  /**
+   * ORDER BY ... LIMIT through the parser plans a TopN and returns its rows
+   */
+  @Test public void query() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, ROWS, 1000, null, tuples, "c");
+    Database.getCatalog().addTable(table, "topn");
+    ArrayList<Integer> column = new ArrayList<Integer>();
+    for (ArrayList<Integer> t : tuples) {
+      column.add(t.get(0));
+    }
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = Parser.generateLogicalPlan(tid,
+        "SELECT topn.c0, topn.c1 FROM topn ORDER BY topn.c0 DESC LIMIT 5;");
+    DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    plan.open();
+    checkTop(plan, column, false, 5);
+    plan.close();
+
+    lp = Parser.generateLogicalPlan(tid, "SELECT topn.c0 FROM topn LIMIT 7;");
+    plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    plan.open();
+    int count = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      count++;
+    }
+    assertEquals(7, count);
+    plan.close();
+
+    // several ORDER BY fields, with and without a limit
+    ArrayList<ArrayList<Integer>> sorted = new ArrayList<ArrayList<Integer>>(tuples);
+    Collections.sort(sorted, (a, b) -> a.get(1).equals(b.get(1))
+        ? b.get(0).compareTo(a.get(0)) : a.get(1).compareTo(b.get(1)));
+    for (String limit : new String[] { "", " LIMIT 20" }) {
+      lp = Parser.generateLogicalPlan(tid,
+          "SELECT topn.c0, topn.c1 FROM topn ORDER BY topn.c1, topn.c0 DESC" + limit + ";");
+      plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+      plan.open();
+      for (ArrayList<Integer> t : sorted.subList(0, limit.isEmpty() ? ROWS : 20)) {
+        assertTrue(plan.hasNext());
+        Tuple next = plan.next();
+        assertEquals(new IntField(t.get(1)), next.getField(1));
+        assertEquals(new IntField(t.get(0)), next.getField(0));
+      }
+      assertTrue(TestUtil.checkExhausted(plan));
+      plan.close();
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleComparatorTest extends SimpleDbTestBase {
+
+  static final int[] INTS = { Integer.MIN_VALUE, -70000, -1, 0, 1, 2, 65536, Integer.MAX_VALUE };
+  static final String[] STRINGS = { "", "a", "ab", "abc", "abcd", "abcde", "abcdf", "abd", "b", "\u00e9t\u00e9" };
+
+  TupleDesc td;
+  ArrayList<Tuple> tuples;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTuples() {
+    td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE });
+    Random rand = new Random(6830);
+    tuples = new ArrayList<Tuple>();
+    for (int i = 0; i < 300; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(INTS[rand.nextInt(INTS.length)]));
+      t.setField(1, new StringField(STRINGS[rand.nextInt(STRINGS.length)], Type.STRING_LEN));
+      t.setField(2, new IntField(INTS[rand.nextInt(INTS.length)]));
+      t.setField(3, new IntField(rand.nextInt(3)));
+      tuples.add(t);
+    }
+  }
+
+  /** The order the comparator must agree with, through Field.compare */
+  private static int expected(Tuple a, Tuple b, int[] fields, boolean[] asc) {
+    for (int i = 0; i < fields.length; i++) {
+      Field fa = a.getField(fields[i]);
+      Field fb = b.getField(fields[i]);
+      if (!fa.compare(Predicate.Op.EQUALS, fb)) {
+        boolean less = fa.compare(Predicate.Op.LESS_THAN, fb);
+        return (less == asc[i]) ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  private void checkOrder(int[] fields, boolean[] asc) {
+    TupleComparator cmp = new TupleComparator(td, fields, asc);
+    for (Tuple a : tuples) {
+      long ka = cmp.normalizedKey(a);
+      for (Tuple b : tuples) {
+        long kb = cmp.normalizedKey(b);
+        int e = expected(a, b, fields, asc);
+        assertEquals(e, Integer.signum(cmp.compare(a, b)));
+        assertEquals(e, Integer.signum(cmp.compare(ka, a, kb, b)));
+        // a key that differs decides the order by itself
+        if (ka != kb) {
+          assertEquals(e, Integer.signum(Long.compareUnsigned(ka, kb)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Single and multiple keys of both types, in both directions, agree
+   * with Field.compare
+   */
+  @Test public void order() {
+    for (boolean a0 : new boolean[] { true, false }) {
+      for (boolean a1 : new boolean[] { true, false }) {
+        checkOrder(new int[] { 0 }, new boolean[] { a0 });
+        checkOrder(new int[] { 1 }, new boolean[] { a0 });
+        checkOrder(new int[] { 0, 2 }, new boolean[] { a0, a1 });
+        checkOrder(new int[] { 1, 0 }, new boolean[] { a0, a1 });
+        checkOrder(new int[] { 0, 1 }, new boolean[] { a0, a1 });
+        checkOrder(new int[] { 3, 0, 2 }, new boolean[] { a0, a1, true });
+      }
+    }
+  }
+
+  /**
+   * Keys are exact only when every sort field is an int that fits
+   */
+  @Test public void exactKeys() {
+    assertTrue(new TupleComparator(td, 0, true).isKeyExact());
+    assertTrue(new TupleComparator(td, new int[] { 2, 0 }, new boolean[] { true, false }).isKeyExact());
+    assertFalse(new TupleComparator(td, 1, true).isKeyExact());
+    assertFalse(new TupleComparator(td, new int[] { 0, 1 }, new boolean[] { true, true }).isKeyExact());
+    assertFalse(new TupleComparator(td, new int[] { 0, 2, 3 }, new boolean[] { true, true, true }).isKeyExact());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleComparatorTest.class);
+  }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleSpillFileTest extends SimpleDbTestBase {
+
+  /**
+   * Tuples read back from a spill file equal the ones written, in order,
+   * on every pass
+   */
+  @Test public void roundTrip() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    TupleSpillFile f = new TupleSpillFile(td);
+    for (int i = 0; i < 1000; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("value " + i, Type.STRING_LEN));
+      f.add(t);
+    }
+    assertEquals(1000, f.size());
+
+    DbIterator it = f.iterator();
+    it.open();
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < 1000; i++) {
+        Tuple t = it.next();
+        assertEquals(new IntField(i), t.getField(0));
+        assertEquals(new StringField("value " + i, Type.STRING_LEN), t.getField(1));
+      }
+      assertTrue(TestUtil.checkExhausted(it));
+      it.rewind();
+    }
+    it.close();
+    f.delete();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleSpillFileTest.class);
+  }
+}
@@ -0,0 +1,209 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+  static final int ROWS = 5000;
+
+  ArrayList<ArrayList<Integer>> tuples;
+  HeapFile hf;
+  ZoneMap zones;
+
+  /**
+   * Initialize each unit test: a table whose first field is clustered,
+   * ascending with the position of the tuple, and whose second is random
+   */
+  @Before public void createClusteredTable() throws Exception {
+    Database.resetBufferPool(1000);
+    Random rand = new Random(6830);
+    tuples = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < ROWS; i++) {
+      tuples.add(new ArrayList<Integer>(Arrays.asList(i, rand.nextInt(1000))));
+    }
+    File f = File.createTempFile("zoned", ".dat");
+    f.deleteOnExit();
+    HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+    hf = Utility.openHeapFile(2, "c", f);
+    Database.getCatalog().addTable(hf, "zoned");
+    zones = hf.getZoneMap();
+  }
+
+  int countMatches(Predicate p) {
+    int count = 0;
+    for (ArrayList<Integer> t : tuples) {
+      if (p.filter(Utility.getHeapTuple(new int[] { t.get(0), t.get(1) }))) count++;
+    }
+    return count;
+  }
+
+  /**
+   * Scan the table skipping pages on a predicate, check that the scan
+   * returns every tuple satisfying it, and return the pages skipped
+   */
+  int scan(Predicate p, int expected) throws Exception {
+    TransactionId tid = new TransactionId();
+    HeapFileIterator it = (HeapFileIterator) hf.iterator(tid, Arrays.asList(p));
+    it.open();
+    int count = 0;
+    while (it.hasNext()) {
+      if (p.filter(it.next())) count++;
+    }
+    int skipped = it.pagesSkipped();
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(p.toString(), expected, count);
+    return skipped;
+  }
+
+  /** Read every page of the table, summarizing them all */
+  void readAll() throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = hf.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  @Test public void mayMatch() throws Exception {
+    readAll();
+    int perPage = (BufferPool.PAGE_SIZE * 8) / (hf.getTupleDesc().getSize() * 8 + 1);
+    // page 1 holds c0 values perPage .. 2 * perPage - 1
+    int lo = perPage, hi = 2 * perPage - 1;
+    Object[][] cases = {
+      { Predicate.Op.EQUALS, lo, true }, { Predicate.Op.EQUALS, lo - 1, false }, { Predicate.Op.EQUALS, hi + 1, false },
+      { Predicate.Op.LESS_THAN, lo, false }, { Predicate.Op.LESS_THAN, lo + 1, true },
+      { Predicate.Op.LESS_THAN_OR_EQ, lo, true }, { Predicate.Op.LESS_THAN_OR_EQ, lo - 1, false },
+      { Predicate.Op.GREATER_THAN, hi, false }, { Predicate.Op.GREATER_THAN, hi - 1, true },
+      { Predicate.Op.GREATER_THAN_OR_EQ, hi, true }, { Predicate.Op.GREATER_THAN_OR_EQ, hi + 1, false },
+      { Predicate.Op.NOT_EQUALS, lo, true },
+    };
+    for (Object[] c : cases) {
+      Predicate p = new Predicate(0, (Predicate.Op) c[0], new IntField((Integer) c[1]));
+      assertEquals(p.toString(), c[2], zones.mayMatch(1, p));
+    }
+    // unsummarized pages and other operators may always match
+    assertTrue(zones.mayMatch(10000, new Predicate(0, Predicate.Op.EQUALS, new IntField(-1))));
+    assertTrue(zones.mayMatch(1, new Predicate(0, Predicate.Op.LIKE, new IntField(-1))));
+  }
+
+  /**
+   * Pages are summarized as they are read, and from then on scans with a
+   * range predicate on a clustered field skip the pages outside the range
+   */
+  @Test public void skipsPages() throws Exception {
+    Predicate p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300));
+    Predicate q = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500));
+    assertFalse(zones.isSummarized(0));
+    scan(p, countMatches(p));
+    assertTrue(zones.isSummarized(hf.numPages() - 1));
+
+    int skipped = scan(p, countMatches(p));
+    assertTrue(skipped >= hf.numPages() - 2);
+    assertEquals(hf.numPages() - 1, scan(new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS - 1)), 1));
+    assertEquals(hf.numPages(), scan(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS)), 0));
+    // the random field spans every page
+    assertEquals(0, scan(q, countMatches(q)));
+  }
+
+  /**
+   * Inserts widen the summaries, deletes narrow them, and aborted inserts
+   * are rolled back with the page
+   */
+  @Test public void maintained() throws Exception {
+    readAll();
+    Predicate negative = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0));
+    assertEquals(hf.numPages(), scan(negative, 0));
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 10; i++) {
+      Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -i - 1, 0 }));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    assertEquals(hf.numPages() - 1, scan(negative, 10));
+
+    // an aborted insert leaves the page as it was, and then it is skipped again
+    tid = new TransactionId();
+    Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { ROWS * 2, 0 }));
+    Database.getBufferPool().transactionComplete(tid, false);
+    Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS));
+    assertEquals(hf.numPages(), scan(big, 0));
+
+    // deleting the least values of the first page narrows its range
+    Predicate first = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(5));
+    tid = new TransactionId();
+    Delete delete = new Delete(tid, new Filter(first, new SeqScan(tid, hf.getId(), "")));
+    delete.open();
+    while (delete.hasNext()) {
+      delete.next();
+    }
+    delete.close();
+    Database.getBufferPool().transactionComplete(tid);
+    assertFalse(zones.mayMatch(0, first));
+    assertEquals(hf.numPages(), scan(new Predicate(0, Predicate.Op.EQUALS, new IntField(3)), 0));
+  }
+
+  /** Filters on a sequential scan make the planned scan skip pages */
+  @Test public void planned() throws Exception {
+    readAll();
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, hf.getId(), "z");
+    Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 100));
+    scan.skipPagesFailing(p);
+    assertEquals(Arrays.asList(p), scan.getPagePredicates());
+    Filter filter = new Filter(p, scan);
+    filter.open();
+    int count = 0;
+    while (filter.hasNext()) {
+      filter.next();
+      count++;
+    }
+    filter.close();
+    assertEquals(100, count);
+
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("zoned", new TableStats(hf.getId(), 1000));
+    for (String where : new String[] { "zoned.c0 < 250", "zoned.c0 > 4000 AND zoned.c1 < 500" }) {
+      LogicalPlan lp = Parser.generateLogicalPlan(tid, "SELECT * FROM zoned WHERE " + where + ";");
+      DbIterator plan = lp.physicalPlan(tid, stats, false);
+      plan.open();
+      count = 0;
+      while (plan.hasNext()) {
+        plan.next();
+        count++;
+      }
+      plan.close();
+      int expected = 0;
+      for (ArrayList<Integer> t : tuples) {
+        if (where.contains("AND") ? t.get(0) > 4000 && t.get(1) < 500 : t.get(0) < 250) expected++;
+      }
+      assertEquals(where, expected, count);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
@@ -2,10 +2,12 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import simpledb.*;
+import static org.junit.Assert.*;
 import org.junit.Test;
 
 public class AggregateTest extends SimpleDbTestBase {
@@ -112,6 +114,81 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /** ParallelAggregate agrees with the sequential aggregate on a table of many pages */
+    @Test public void testParallelAggregate()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 20 * ROWS, MAX_VALUE, null, createdTuples);
+        Aggregator.Op[] ops = Aggregator.Op.values();
+        int[] afields = new int[ops.length];
+        Arrays.fill(afields, 1);
+
+        for (int groupColumn : new int[] { 0, Aggregator.NO_GROUPING }) {
+            ArrayList<ArrayList<Integer>> expected = null;
+            for (int i = 0; i < ops.length; i++) {
+                ArrayList<ArrayList<Integer>> one = aggregate(createdTuples, ops[i], 1, groupColumn);
+                if (expected == null) {
+                    expected = one;
+                } else {
+                    // every aggregate lists the groups in the same (HashMap) order
+                    for (int j = 0; j < one.size(); j++) {
+                        expected.get(j).add(one.get(j).get(one.get(j).size() - 1));
+                    }
+                }
+            }
+
+            TransactionId tid = new TransactionId();
+            SeqScan ss = new SeqScan(tid, table.getId(), "");
+            int[] gfields = groupColumn == Aggregator.NO_GROUPING ? new int[0] : new int[] { groupColumn };
+            ParallelAggregate ag = new ParallelAggregate(ss, afields, ops, gfields, 4);
+            SystemTestUtil.matchTuples(ag, expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** Tables of few pages are not worth aggregating in parallel */
+    @Test public void testSmallTableNotParallel()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        assertTrue(table.numPages() < DbConfig.parallelAggregateMinPages);
+        SeqScan ss = new SeqScan(new TransactionId(), table.getId(), "");
+        assertFalse(ParallelAggregate.worthParallelizing(ss));
+    }
+
+    /** Several aggregates and a two-column GROUP BY through the parser */
+    @Test public void testMultipleAggregatesQuery()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, 8, null, createdTuples, "c");
+        Database.getCatalog().addTable(table, "agg");
+
+        HashMap<ArrayList<Integer>, ArrayList<Integer>> values = new HashMap<ArrayList<Integer>, ArrayList<Integer>>();
+        for (ArrayList<Integer> t : createdTuples) {
+            ArrayList<Integer> key = new ArrayList<Integer>(t.subList(0, 2));
+            if (!values.containsKey(key)) values.put(key, new ArrayList<Integer>());
+            values.get(key).add(t.get(2));
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<ArrayList<Integer>, ArrayList<Integer>> e : values.entrySet()) {
+            ArrayList<Integer> result = new ArrayList<Integer>();
+            result.add(e.getKey().get(1));
+            result.add(computeAggregate(e.getValue(), Aggregator.Op.SUM));
+            result.add(e.getKey().get(0));
+            result.add(computeAggregate(e.getValue(), Aggregator.Op.COUNT));
+            result.add(computeAggregate(e.getValue(), Aggregator.Op.MAX));
+            expected.add(result);
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = Parser.generateLogicalPlan(tid,
+                "SELECT agg.c1, SUM(agg.c2), agg.c0, COUNT(agg.c2), MAX(agg.c2) FROM agg GROUP BY agg.c0, agg.c1;");
+        DbIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -51,6 +51,15 @@ public class JoinTest extends SimpleDbTestBase {
         SystemTestUtil.matchTuples(joinOp, expectedResults);
 
         joinOp.close();
+
+        HashJoin hashJoinOp = new HashJoin(p, ss1, ss2);
+        SystemTestUtil.matchTuples(hashJoinOp, expectedResults);
+        hashJoinOp.close();
+
+        BlockNestedLoopsJoin blockJoinOp = new BlockNestedLoopsJoin(p, ss1, ss2);
+        SystemTestUtil.matchTuples(blockJoinOp, expectedResults);
+        blockJoinOp.close();
+
         Database.getBufferPool().transactionComplete(tid);
     }
 
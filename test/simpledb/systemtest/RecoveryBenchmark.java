@@ -0,0 +1,81 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+
+import simpledb.*;
+
+/**
+ * Measures how long {@link LogFile#recover(int)} takes to restart the
+ * database as a function of the size of the log and the number of redo
+ * threads.  Not a JUnit test; run it directly:
+ * <pre>
+ *     java -cp bin/src:bin/test:lib/zql.jar:lib/jline-0.9.94.jar simpledb.systemtest.RecoveryBenchmark [pages] [transactions...]
+ * </pre>
+ * Each transaction updates a handful of pages of a table with the given
+ * number of pages; the default is 256 pages and logs of 1000, 4000 and
+ * 16000 transactions.
+ */
+public class RecoveryBenchmark {
+    private static final int COLUMNS = 2;
+    private static final int PAGES_PER_TRANSACTION = 4;
+    private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int[] transactionCounts = { 1000, 4000, 16000 };
+        if (args.length > 1) {
+            transactionCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                transactionCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("transactions\tlog bytes\tthreads\trecovery ms");
+        for (int transactions : transactionCounts) {
+            File logFile = buildLog(pages, transactions);
+            for (int threads : THREAD_COUNTS) {
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; run++) {
+                    LogFile log = new LogFile(logFile);
+                    long start = System.nanoTime();
+                    log.recover(threads);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%d\t%d\t%d\t%.1f\n", transactions, logBytes(logFile), threads, best / 1e6);
+            }
+        }
+    }
+
+    /** Total size of the segments making up the log */
+    private static long logBytes(File logFile) {
+        long bytes = 0;
+        for (File f : logFile.getAbsoluteFile().getParentFile().listFiles()) {
+            if (f.getName().startsWith(logFile.getName() + ".")) bytes += f.length();
+        }
+        return bytes;
+    }
+
+    /** Populate a fresh database with a table of the given number of
+        pages and run the given number of committed update transactions
+        against it, returning the resulting log file. */
+    private static File buildLog(int pages, int transactions)
+            throws IOException, DbException, TransactionAbortedException {
+        Database.reset();
+        int rows = pages * ((BufferPool.PAGE_SIZE * 8) / (COLUMNS * Type.INT_TYPE.getLen() * 8 + 1));
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, rows, null, null);
+
+        for (int i = 0; i < transactions; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int j = 0; j < PAGES_PER_TRANSACTION; j++) {
+                int pageno = (i * PAGES_PER_TRANSACTION + j) % table.numPages();
+                PageId pid = new HeapPageId(table.getId(), pageno);
+                Database.getBufferPool().getPage(t.getId(), pid, Permissions.READ_WRITE).markDirty(true, t.getId());
+            }
+            t.commit();
+        }
+        return new File("log");
+    }
+}
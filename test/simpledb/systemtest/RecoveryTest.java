@@ -0,0 +1,310 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Tests LogFile.recover() by simulating crashes: pages are overwritten on
+ * disk behind the buffer pool's back, and recovery has to put them back.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+    private static final int ROWS = 1000;
+
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, null, tuples);
+    }
+
+    /** Insert a tuple (value, value) as part of the given transaction */
+    private void insert(Transaction t, int value) throws Exception {
+        Tuple tup = new Tuple(table.getTupleDesc());
+        tup.setField(0, new IntField(value));
+        tup.setField(1, new IntField(value));
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(), tup);
+    }
+
+    private byte[] readFile(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        byte[] data = new byte[(int) raf.length()];
+        raf.readFully(data);
+        raf.close();
+        return data;
+    }
+
+    private void writeFile(File f, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(0);
+        raf.write(data);
+        raf.close();
+    }
+
+    /** Throw away everything in memory and recover from the log on disk */
+    private void crashAndRecover(int threads) throws IOException {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        new LogFile(new File("log")).recover(threads);
+    }
+
+    private ArrayList<Integer> tuple(int value) {
+        ArrayList<Integer> tup = new ArrayList<Integer>();
+        tup.add(value);
+        tup.add(value);
+        return tup;
+    }
+
+    @Test public void committedUpdatesAreRedone() throws Exception {
+        byte[] original = readFile(table.getFile());
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, -1);
+        t.commit();
+
+        // the committed page write never made it to disk
+        writeFile(table.getFile(), original);
+        crashAndRecover(4);
+
+        tuples.add(tuple(-1));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void uncommittedUpdatesAreUndone() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, -2);
+        // steal the dirty page, then crash before commit
+        Database.getBufferPool().flushAllPages();
+
+        crashAndRecover(4);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void redoIsIndependentOfThreadCount() throws Exception {
+        byte[] original = readFile(table.getFile());
+
+        for (int i = 0; i < 8; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            insert(t, -10 - i);
+            t.commit();
+            tuples.add(tuple(-10 - i));
+        }
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, -100);
+        Database.getBufferPool().flushAllPages();
+
+        for (int threads : new int[] { 1, 3 }) {
+            writeFile(table.getFile(), original);
+            crashAndRecover(threads);
+            SystemTestUtil.matchTuples(table, tuples);
+        }
+    }
+
+    @Test public void checkpointDoesNotFlushPages() throws Exception {
+        byte[] original = readFile(table.getFile());
+        LogFile log = Database.getLogFile();
+        int checkpoints = log.getCheckpointCount();
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, -3);
+        log.logCheckpoint();
+        Database.getBufferPool().getBackgroundWriter().awaitDrained();
+
+        // the page is dirtied by a running transaction, so without steal
+        // neither the checkpoint nor the background writer may write it
+        assertArrayEquals(original, readFile(table.getFile()));
+        assertEquals(checkpoints + 1, log.getCheckpointCount());
+        assertTrue(log.getMaxCheckpointMicros() >= log.getLastCheckpointMicros());
+
+        t.commit();
+        tuples.add(tuple(-3));
+        crashAndRecover(2);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void recoveryStartsBeforeFuzzyCheckpoint() throws Exception {
+        Transaction winner = new Transaction();
+        winner.start();
+        insert(winner, -4);
+        winner.commit();
+
+        Transaction loser = new Transaction();
+        loser.start();
+        insert(loser, -5);
+        // steal the loser's page; the loser is still active at the
+        // checkpoint, so recovery has to go back to before it
+        Database.getBufferPool().flushAllPages();
+        Database.getLogFile().logCheckpoint();
+
+        crashAndRecover(2);
+        tuples.add(tuple(-4));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void abortRollsBackStolenPages() throws Exception {
+        byte[] original = readFile(table.getFile());
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, -6);
+        insert(t, -7);
+        // steal the page twice, so the rollback has two updates to walk back
+        Database.getBufferPool().flushAllPages();
+        insert(t, -8);
+        Database.getBufferPool().flushAllPages();
+        assertFalse(Arrays.equals(original, readFile(table.getFile())));
+
+        t.transactionComplete(true);
+        assertArrayEquals(original, readFile(table.getFile()));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void tornTailIsIgnored() throws Exception {
+        byte[] original = readFile(table.getFile());
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, -9);
+        t.commit();
+
+        // garbage after the last complete record, as left by a torn write
+        File segment = new File("log.0");
+        long length = segment.length();
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(length);
+        raf.writeInt(3);
+        raf.write(new byte[] { 12, 34, 56, 78, 90 });
+        raf.close();
+
+        writeFile(table.getFile(), original);
+        crashAndRecover(2);
+        tuples.add(tuple(-9));
+        SystemTestUtil.matchTuples(table, tuples);
+        assertTrue(segment.length() < length + 8);
+    }
+
+    @Test public void corruptRecordEndsTheLog() throws Exception {
+        byte[] original = readFile(table.getFile());
+        Database.getLogFile().setCompressImages(false);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, -10);
+        Database.getBufferPool().flushPages(t.getId());
+        long updateEnd = new File("log.0").length();
+        t.commit();
+
+        // flip a bit in the header of the logged after image; the checksum
+        // no longer matches, so neither the update nor anything after it
+        // is replayed
+        long imageStart = updateEnd - 12 - BufferPool.PAGE_SIZE;
+        RandomAccessFile raf = new RandomAccessFile("log.0", "rw");
+        raf.seek(imageStart);
+        int b = raf.read();
+        raf.seek(imageStart);
+        raf.write(b ^ 1);
+        raf.close();
+
+        writeFile(table.getFile(), original);
+        crashAndRecover(2);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void imagesAreCompressedWhenEnabled() throws Exception {
+        File logFile = File.createTempFile("complog", "");
+        logFile.deleteOnExit();
+        HeapPage empty = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+        TransactionId tid = new TransactionId();
+
+        LogFile log = new LogFile(logFile);
+        log.setCompressImages(false);
+        log.logWrite(tid, empty, empty);
+        long uncompressed = new File(logFile.getPath() + ".0").length();
+        log.setCompressImages(true);
+        log.logWrite(tid, empty, empty);
+        long compressed = new File(logFile.getPath() + ".0").length() - uncompressed;
+        assertTrue(uncompressed > 2 * BufferPool.PAGE_SIZE);
+        assertTrue(compressed < BufferPool.PAGE_SIZE / 4);
+        new File(logFile.getPath() + ".0").delete();
+    }
+
+    @Test public void uncompressedLogIsRecovered() throws Exception {
+        byte[] original = readFile(table.getFile());
+        Database.getLogFile().setCompressImages(false);
+
+        Transaction t = new Transaction();
+        t.start();
+        insert(t, -11);
+        t.commit();
+
+        writeFile(table.getFile(), original);
+        crashAndRecover(2);
+        tuples.add(tuple(-11));
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** Count the segments of the log backed by the given file */
+    private int segmentCount(File logFile) {
+        int count = 0;
+        for (String name : logFile.getAbsoluteFile().getParentFile().list()) {
+            if (name.startsWith(logFile.getName() + ".")) count++;
+        }
+        return count;
+    }
+
+    @Test public void checkpointDeletesOldSegments() throws Exception {
+        File logFile = File.createTempFile("seglog", "");
+        logFile.deleteOnExit();
+        // room for just a couple of update records per segment
+        LogFile log = new LogFile(logFile, 3 * BufferPool.PAGE_SIZE);
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+
+        TransactionId old = new TransactionId();
+        log.logXactionBegin(old);
+        log.logWrite(old, page, page);
+        for (int i = 0; i < 10; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logWrite(tid, page, page);
+            log.logCommit(tid);
+        }
+        assertTrue(segmentCount(logFile) > 5);
+
+        // the outstanding transaction pins the log back to its first record
+        log.logCheckpoint();
+        File first = new File(logFile.getPath() + ".0");
+        assertTrue(first.exists());
+
+        log.logCommit(old);
+        log.logCheckpoint();
+        assertFalse(first.exists());
+        assertEquals(1, segmentCount(logFile));
+
+        // recovery finds the remaining segments and picks up where they end
+        LogFile reopened = new LogFile(logFile, 3 * BufferPool.PAGE_SIZE);
+        reopened.recover(2);
+        TransactionId tid = new TransactionId();
+        reopened.logXactionBegin(tid);
+        reopened.logCommit(tid);
+        reopened.shutdown();
+        assertEquals(1, segmentCount(logFile));
+        for (String name : logFile.getParentFile().list()) {
+            if (name.startsWith(logFile.getName() + ".")) new File(logFile.getParentFile(), name).delete();
+        }
+    }
+}